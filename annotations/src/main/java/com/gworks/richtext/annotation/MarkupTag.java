@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a markup class to its tags in the supported formats. The annotated markups get a dense
+ * int id in the generated <code>MarkupRegistry</code> and are converted by its generated
+ * switches instead of the converter overloads.
+ * <p>
+ * In the markdown strings <code>%s</code> is replaced by the attributes of the markup.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface MarkupTag {
+
+    /**
+     * Name of the html tag.
+     */
+    String html();
+
+    /**
+     * Html attribute set to the attributes of the markup, empty if none.
+     */
+    String htmlAttribute() default "";
+
+    /**
+     * Markdown written before the text of the markup.
+     */
+    String markdownOpen() default "";
+
+    /**
+     * Markdown written after the text of the markup.
+     */
+    String markdownClose() default "";
+}
@@ -0,0 +1,91 @@
+package com.gworks.richtext.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time of {@link RichEditTexter#applyPatch(DocumentPatch)} per document size, for a patch
+ * editing some words and removing and adding markups all over the document, and for the same
+ * small edit, whose patch size and apply time must not depend on the document size.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ApplyPatchBenchmark {
+
+    private static final String TAG = "ApplyPatchBenchmark";
+
+    private static final int[] PARAGRAPHS = {250, 1000, 4000};
+
+    // The best of the runs is kept.
+    private static final int RUNS = 5;
+
+    // The size grows 16 times, an apply walking the document would be about 16 times slower.
+    private static final double MAX_SLOWDOWN = 4;
+
+    @Test
+    public void applyPatch() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int paragraphs : PARAGRAPHS)
+                    measure(paragraphs);
+            }
+        });
+    }
+
+    @Test
+    public void smallEdit() {
+        final int[] patchSizes = new int[PARAGRAPHS.length];
+        final long[] nanos = new long[PARAGRAPHS.length];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < PARAGRAPHS.length; i++) {
+                    RichFragment original = TestDocuments.paragraphs(PARAGRAPHS[i], false);
+                    RichFragment edited = TestDocuments.withSmallEdit(PARAGRAPHS[i]);
+                    DocumentPatch patch = DocumentDiff.diff(original.getText(), original.getSpanTable(),
+                            edited.getText(), edited.getSpanTable());
+                    patchSizes[i] = patch.getEditCount() + patch.getRemovedSpans().size() + patch.getAddedSpans().size();
+                    nanos[i] = Long.MAX_VALUE;
+                    for (int run = 0; run < RUNS; run++) {
+                        RichEditTexter texter = TestDocuments.editor(original);
+                        long start = System.nanoTime();
+                        texter.applyPatch(patch);
+                        nanos[i] = Math.min(nanos[i], System.nanoTime() - start);
+                        assertEquals(edited.getText(), texter.getPlainText());
+                    }
+                    Log.i(TAG, String.format("%d chars, small edit of %d changes: %.3f ms", original.length(),
+                            patchSizes[i], nanos[i] / 1e6));
+                }
+            }
+        });
+        for (int i = 1; i < PARAGRAPHS.length; i++)
+            assertEquals("Patch size of " + PARAGRAPHS[i] + " paragraphs", patchSizes[0], patchSizes[i]);
+        double slowdown = (double) nanos[PARAGRAPHS.length - 1] / nanos[0];
+        assertTrue("Applying the small edit is " + slowdown + " times slower", slowdown < MAX_SLOWDOWN);
+    }
+
+    private static void measure(int paragraphs) {
+        RichFragment original = TestDocuments.paragraphs(paragraphs, false);
+        RichFragment edited = TestDocuments.paragraphs(paragraphs, true);
+        DocumentPatch patch = DocumentDiff.diff(original.getText(), original.getSpanTable(),
+                edited.getText(), edited.getSpanTable());
+        RichEditTexter texter = TestDocuments.editor(original);
+
+        long start = System.nanoTime();
+        texter.applyPatch(patch);
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(edited.getText(), texter.getPlainText());
+        assertEquals(TestDocuments.describe(edited.getSpanTable()), TestDocuments.describe(texter.getSpanTable()));
+        int changes = patch.getEditCount() + patch.getRemovedSpans().size() + patch.getAddedSpans().size();
+        Log.i(TAG, String.format("%d chars, %d changes: %.2f ms, %.1f us per change", original.length(),
+                changes, nanos / 1e6, nanos / 1e3 / changes));
+    }
+}
@@ -0,0 +1,537 @@
+package com.gworks.richtext.util;
+
+import android.text.Editable;
+import android.text.Spanned;
+import android.widget.EditText;
+
+import com.gworks.richtext.tags.BlockMarkup;
+import com.gworks.richtext.tags.Bold;
+import com.gworks.richtext.tags.Heading;
+import com.gworks.richtext.tags.Italic;
+import com.gworks.richtext.tags.Link;
+import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.tags.Paragraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Seeded random editing session for finding the bugs which show up only after long sessions.
+ * It replays mixed typing, deletions, markup menu clicks, removals and exports against a
+ * {@link RichEditTexter} while the document grows.
+ * <p>
+ * After every operation the editor is checked against a model of its own: the text in a
+ * StringBuilder and the inline markups as ranges, moved by the span rules on every edit. The
+ * markup commands are checked by their effect on the characters covered by each type, then the
+ * model takes the resulting ranges. The block markups are taken from the editor after each
+ * operation and checked against the lines. The indexes of the texter are checked against the
+ * text, and the exported html against a reference html written from the model.
+ */
+/*default*/ class EditWorkload {
+
+    private static final int TYPE = 0;
+    private static final int DELETE = 1;
+    private static final int TOGGLE = 2;
+    private static final int REMOVE = 3;
+    private static final int EXPORT = 4;
+
+    private final RichEditTexter texter;
+    private final Random random;
+
+    private final StringBuilder modelText;
+    private final List<Range> modelRanges;
+    private final List<Range> modelBlocks;
+
+    EditWorkload(RichEditTexter texter, long seed) {
+        this.texter = texter;
+        this.random = new Random(seed);
+        this.modelText = new StringBuilder(texter.getRichTextView().getText());
+        this.modelRanges = new ArrayList<>();
+        this.modelBlocks = new ArrayList<>();
+        syncRanges(null);
+    }
+
+    /**
+     * Runs the given number of rounds, each growing the document to about the given multiple
+     * of its size before the round.
+     *
+     * @param rounds number of rounds
+     * @param operations operations in each round
+     * @param growth factor by which the document grows in each round
+     */
+    void run(int rounds, int operations, int growth) {
+        EditText editText = texter.getRichTextView();
+        for (int round = 0; round < rounds; round++) {
+            // Grow the document in bulk, the operations are replayed at the size.
+            int targetLength = Math.max(256, editText.getText().length() * growth);
+            while (editText.getText().length() < targetLength) {
+                type(randomText(64 + random.nextInt(512)));
+                check();
+            }
+
+            for (int i = 0; i < operations; i++) {
+                int operation = random.nextInt(10);
+                if (operation < 5)
+                    operation = TYPE;
+                else if (operation < 7)
+                    operation = DELETE;
+                else if (operation < 9)
+                    operation = TOGGLE;
+                else
+                    operation = random.nextBoolean() ? REMOVE : EXPORT;
+                perform(operation);
+                check();
+            }
+        }
+    }
+
+    // Performs the operation on the editor and the model.
+    private void perform(int operation) {
+        EditText editText = texter.getRichTextView();
+        Editable text = editText.getText();
+        int length = text.length();
+        int from = random.nextInt(length + 1);
+        int to = Math.min(length, from + random.nextInt(32));
+        switch (operation) {
+            case TYPE:
+                editText.setSelection(from);
+                type(random.nextInt(8) == 0 ? "\n" : randomText(1 + random.nextInt(8)));
+                return;
+            case DELETE:
+                if (from == length)
+                    return;
+                to = Math.max(to, from + 1);
+                text.delete(from, to);
+                modelDelete(from, to);
+                return;
+            case TOGGLE:
+                editText.setSelection(from, to);
+                int type = random.nextInt(5);
+                if (type < 3) {
+                    Class<? extends Markup> markupType = type == 0 ? Bold.class : type == 1 ? Italic.class : Link.class;
+                    boolean[][] before = coverage(modelRanges);
+                    boolean hit = isApplied(markupType, from, to);
+                    texter.onMarkupMenuClicked(markupType, markupType == Link.class
+                            ? "http://example.com/" + random.nextInt(4) : null);
+                    if (from < to)
+                        checkCoverage(markupType, from, to, before, markupType == Link.class || !hit);
+                    else
+                        checkCoverage(markupType, from, to, before, null);
+                    syncRanges(markupType);
+                } else {
+                    texter.onMarkupMenuClicked(type == 3 ? Heading.H2.class : Paragraph.class, null);
+                }
+                return;
+            case REMOVE:
+                Class<? extends Markup> markupType = random.nextBoolean() ? Bold.class : Link.class;
+                boolean[][] before = coverage(modelRanges);
+                texter.remove(markupType, from, to);
+                checkCoverage(markupType, from, to, before, from < to ? Boolean.FALSE : null);
+                syncRanges(markupType);
+                return;
+            case EXPORT:
+                assertEquals("Html differs from the reference", canonical(referenceHtml()), canonical(texter.getHtml()));
+                return;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    // Types at the selection end.
+    private void type(String s) {
+        EditText editText = texter.getRichTextView();
+        Editable text = editText.getText();
+        int offset = Math.min(editText.getSelectionEnd(), text.length());
+        if (offset < 0)
+            offset = text.length();
+        text.insert(offset, s);
+        modelInsert(offset, s);
+    }
+
+    private String randomText(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    // The inline markups exclude the text inserted at their start and end. The empty ones are
+    // marks, and the texter applies a mark to the text typed at it.
+    private void modelInsert(int offset, String s) {
+        modelText.insert(offset, s);
+        int length = s.length();
+        for (Range range : modelRanges) {
+            if (range.start == range.end) {
+                if (range.start == offset)
+                    range.end += length;
+                else if (range.start > offset)
+                    range.end = range.start += length;
+            } else {
+                if (range.start >= offset)
+                    range.start += length;
+                if (range.end > offset)
+                    range.end += length;
+            }
+        }
+    }
+
+    // The offsets in the deleted text move to its start, the inline markups left empty are
+    // dropped while the marks stay.
+    private void modelDelete(int from, int to) {
+        modelText.delete(from, to);
+        for (Iterator<Range> it = modelRanges.iterator(); it.hasNext(); ) {
+            Range range = it.next();
+            boolean mark = range.start == range.end;
+            range.start = shift(range.start, from, to);
+            range.end = shift(range.end, from, to);
+            if (!mark && range.start == range.end)
+                it.remove();
+        }
+    }
+
+    private static int shift(int offset, int from, int to) {
+        if (offset <= from)
+            return offset;
+        return offset >= to ? offset - (to - from) : from;
+    }
+
+    // Whether the menu finds a markup of the type to toggle off, like getSpans the non empty
+    // markups just touching the non empty range are left out.
+    private boolean isApplied(Class<? extends Markup> type, int from, int to) {
+        for (Range range : modelRanges) {
+            if (range.type != type || range.start > to || range.end < from)
+                continue;
+            if (range.start != range.end && from != to && (range.start == to || range.end == from))
+                continue;
+            return true;
+        }
+        return false;
+    }
+
+    // Checks the characters covered by the given type in the range against the expected state,
+    // null for unchanged, and that the other characters and the other types are unchanged.
+    private void checkCoverage(Class<? extends Markup> type, int from, int to, boolean[][] before, Boolean covered) {
+        List<Range> actual = getRanges();
+        boolean[][] after = coverage(actual);
+        for (int t = 0; t < MarkupType.values().length; t++) {
+            MarkupType markupType = MarkupType.values()[t];
+            for (int i = 0; i < modelText.length(); i++) {
+                if (markupType.type == type && covered != null && i >= from && i < to)
+                    assertEquals(type.getSimpleName() + " at " + i, covered, after[t][i]);
+                else
+                    assertEquals(markupType.type.getSimpleName() + " changed at " + i, before[t][i], after[t][i]);
+            }
+        }
+        // The other types keep their exact ranges.
+        assertEquals(describe(modelRanges, type), describe(actual, type));
+    }
+
+    // Whether each character is covered by each of the inline types.
+    private boolean[][] coverage(List<Range> ranges) {
+        int length = modelText.length();
+        int[][] starts = new int[MarkupType.values().length][length + 1];
+        for (Range range : ranges) {
+            starts[MarkupType.of(range.type).ordinal()][range.start]++;
+            starts[MarkupType.of(range.type).ordinal()][range.end]--;
+        }
+        boolean[][] coverage = new boolean[starts.length][length];
+        for (int t = 0; t < starts.length; t++) {
+            int depth = 0;
+            for (int i = 0; i < length; i++) {
+                depth += starts[t][i];
+                coverage[t][i] = depth > 0;
+            }
+        }
+        return coverage;
+    }
+
+    // Replaces the ranges of the given type in the model by the ones in the editor, all if null.
+    private void syncRanges(Class<? extends Markup> type) {
+        for (Iterator<Range> it = modelRanges.iterator(); it.hasNext(); ) {
+            Range range = it.next();
+            if (type == null || range.type == type)
+                it.remove();
+        }
+        for (Range range : getRanges())
+            if (type == null || range.type == type)
+                modelRanges.add(range);
+    }
+
+    // The inline markups applied in the editor.
+    private List<Range> getRanges() {
+        Spanned text = texter.getRichTextView().getText();
+        List<Range> ranges = new ArrayList<>();
+        for (Markup markup : text.getSpans(0, text.length(), Markup.class))
+            if (!(markup instanceof BlockMarkup))
+                ranges.add(new Range(markup, markup.getSpanStart(text), markup.getSpanEnd(text)));
+        return ranges;
+    }
+
+    private static List<String> describe(List<Range> ranges, Class<? extends Markup> excludedType) {
+        List<String> markups = new ArrayList<>();
+        for (Range range : ranges)
+            if (range.type != excludedType)
+                markups.add(range.type.getSimpleName() + " " + range.start + " " + range.end
+                        + (range.url != null ? " " + range.url : ""));
+        Collections.sort(markups);
+        return markups;
+    }
+
+    /**
+     * Checks the editor against the model and the indexes of the texter against the text.
+     */
+    private void check() {
+        Editable text = texter.getRichTextView().getText();
+        assertEquals("Text differs from the model", modelText.toString(), text.toString());
+        assertEquals("Markups differ from the model", describe(modelRanges, null), describe(getRanges(), null));
+
+        // Each block markup covers its line.
+        modelBlocks.clear();
+        for (Markup block : text.getSpans(0, text.length(), BlockMarkup.class))
+            modelBlocks.add(new Range(block, block.getSpanStart(text), block.getSpanEnd(text)));
+        boolean[] blockLines = new boolean[text.length() + 1];
+        for (Range block : modelBlocks) {
+            int start = block.start;
+            int end = block.end;
+            assertTrue("Block markup not at a line start: " + start, start == 0 || modelText.charAt(start - 1) == '\n');
+            int lineEnd = modelText.indexOf("\n", start);
+            assertEquals("Block markup not at its line end", lineEnd < 0 ? modelText.length() : lineEnd, end);
+            assertFalse("Two block markups in the line at " + start, blockLines[start]);
+            blockLines[start] = true;
+        }
+
+        // The snapshot has the same text and markups.
+        DocumentSnapshot snapshot = texter.snapshot();
+        assertEquals("Snapshot text is out of sync", text.toString(), snapshot.getPlainText());
+        SpanTable expected = SpanTable.of(text);
+        SpanTable actual = snapshot.getSpanTable();
+        assertEquals("Snapshot markup count", expected.size(), actual.size());
+        IdentityHashMap<Markup, Integer> entries = new IdentityHashMap<>();
+        for (int i = 0; i < actual.size(); i++)
+            entries.put(actual.getMarkup(i), i);
+        for (int i = 0; i < expected.size(); i++) {
+            Integer index = entries.get(expected.getMarkup(i));
+            assertTrue("Snapshot markup is out of sync at " + expected.getStart(i), index != null
+                    && actual.getStart(index) == expected.getStart(i) && actual.getEnd(index) == expected.getEnd(i));
+        }
+
+        // The posting lists have all the markups of each type.
+        for (MarkupType markupType : MarkupType.values())
+            checkType(text, markupType.type);
+
+        // The line index matches the line breaks.
+        BlockIndex blockIndex = texter.getBlockIndex();
+        int line = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n')
+                assertEquals("Line " + (line + 1) + " is out of sync", i + 1, blockIndex.getLineStart(++line));
+        }
+        assertEquals("Line count is out of sync", line + 1, blockIndex.getLineCount());
+    }
+
+    private void checkType(Spanned text, Class<? extends Markup> type) {
+        List<? extends Markup> indexed = texter.getAppliedMarkups(type, 0, text.length());
+        int count = 0;
+        for (Markup markup : text.getSpans(0, text.length(), type)) {
+            if (markup.getClass() == type) {
+                count++;
+                assertTrue(type.getSimpleName() + " missing in the markup index", indexed.contains(markup));
+            }
+        }
+        assertEquals(type.getSimpleName() + " markup index has stale markups", count, indexed.size());
+    }
+
+    // Writes the html of the model: every run of characters covered by the same markups is in
+    // the tags of the markups, the blocks outside the inline markups, and the empty markups are
+    // opened and closed at their offset.
+    private String referenceHtml() {
+        List<Range> ranges = new ArrayList<>(modelBlocks);
+        ranges.addAll(modelRanges);
+        int length = modelText.length();
+        List<List<Range>> starting = new ArrayList<>();
+        for (int i = 0; i <= length; i++)
+            starting.add(new ArrayList<Range>());
+        for (Range range : ranges)
+            starting.get(range.start).add(range);
+
+        StringBuilder html = new StringBuilder();
+        StringBuilder closeTags = new StringBuilder();
+        List<Range> covering = new ArrayList<>();
+        for (int i = 0; i <= length; i++) {
+            boolean changed = false;
+            for (Iterator<Range> it = covering.iterator(); it.hasNext(); ) {
+                if (it.next().end == i) {
+                    it.remove();
+                    changed = true;
+                }
+            }
+            for (Range range : starting.get(i)) {
+                if (range.start == range.end) {
+                    html.append('<').append(range.tag()).append("></").append(range.name()).append('>');
+                } else {
+                    covering.add(range);
+                    changed = true;
+                }
+            }
+            if (i == length)
+                break;
+            if (changed) {
+                // Reopened in order, the blocks first.
+                Collections.sort(covering, new Comparator<Range>() {
+                    @Override
+                    public int compare(Range r1, Range r2) {
+                        return Boolean.compare(!r1.block, !r2.block);
+                    }
+                });
+                html.append(closeTags);
+                closeTags.setLength(0);
+                for (Range range : covering) {
+                    html.append('<').append(range.tag()).append('>');
+                    closeTags.insert(0, "</" + range.name() + ">");
+                }
+            }
+            html.append(modelText.charAt(i));
+        }
+        return html.append(closeTags).toString();
+    }
+
+    // The runs of the given html as the text of each run with its open tags sorted, and the
+    // empty elements by offset, so the htmls of the same markups compare equal however the
+    // tags are nested. Fails if the html is not well formed.
+    private static List<String> canonical(String html) {
+        List<String> runs = new ArrayList<>();
+        List<String> open = new ArrayList<>();
+        // Opened but not yet known to have content.
+        String pending = null;
+        StringBuilder run = new StringBuilder();
+        String runTags = null;
+        int offset = 0;
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (c != '<') {
+                if (pending != null) {
+                    open.add(pending);
+                    pending = null;
+                }
+                List<String> sorted = new ArrayList<>(open);
+                Collections.sort(sorted);
+                String tags = sorted.toString();
+                if (!tags.equals(runTags)) {
+                    if (run.length() > 0)
+                        runs.add(runTags + " " + run);
+                    run.setLength(0);
+                    runTags = tags;
+                }
+                run.append(c);
+                offset++;
+                i++;
+                continue;
+            }
+            int end = html.indexOf('>', i);
+            assertTrue("Unterminated tag at " + i, end > i);
+            String tag = html.substring(i + 1, end);
+            if (tag.startsWith("/")) {
+                String name = tag.substring(1);
+                if (pending != null) {
+                    assertEquals("Html is not well formed at " + i, name, nameOf(pending));
+                    // The empty elements split the runs.
+                    if (run.length() > 0)
+                        runs.add(runTags + " " + run);
+                    run.setLength(0);
+                    runs.add("empty " + offset + " " + pending);
+                    pending = null;
+                } else {
+                    assertFalse("Html is not well formed at " + i, open.isEmpty());
+                    assertEquals("Html is not well formed at " + i, name, nameOf(open.remove(open.size() - 1)));
+                }
+            } else {
+                if (pending != null)
+                    open.add(pending);
+                pending = tag;
+            }
+            i = end + 1;
+        }
+        if (run.length() > 0)
+            runs.add(runTags + " " + run);
+        assertTrue("Html has unclosed tags", open.isEmpty() && pending == null);
+        // The empty elements at an offset in any order.
+        for (int from = 0; from < runs.size(); ) {
+            int to = from;
+            while (to < runs.size() && runs.get(to).startsWith("empty "))
+                to++;
+            Collections.sort(runs.subList(from, to));
+            from = Math.max(to, from + 1);
+        }
+        return runs;
+    }
+
+    private static String nameOf(String tag) {
+        int space = tag.indexOf(' ');
+        return space < 0 ? tag : tag.substring(0, space);
+    }
+
+    // The inline types the workload applies.
+    private enum MarkupType {
+        BOLD(Bold.class), ITALIC(Italic.class), LINK(Link.class);
+
+        final Class<? extends Markup> type;
+
+        MarkupType(Class<? extends Markup> type) {
+            this.type = type;
+        }
+
+        static MarkupType of(Class<? extends Markup> type) {
+            for (MarkupType markupType : values())
+                if (markupType.type == type)
+                    return markupType;
+            throw new IllegalArgumentException("Not an inline type of the workload: " + type);
+        }
+    }
+
+    private static class Range {
+
+        final Class<? extends Markup> type;
+        final boolean block;
+        // Url of a link.
+        final String url;
+        int start;
+        int end;
+
+        Range(Markup markup, int start, int end) {
+            this.type = markup.getClass();
+            this.block = markup instanceof BlockMarkup;
+            this.url = markup instanceof Link ? ((Link) markup).getAttributes() : null;
+            this.start = start;
+            this.end = end;
+        }
+
+        // The html element of the markups of the workload.
+        String name() {
+            if (type == Bold.class)
+                return "b";
+            if (type == Italic.class)
+                return "i";
+            if (type == Link.class)
+                return "a";
+            if (type == Heading.H2.class)
+                return "h2";
+            if (type == Paragraph.class)
+                return "p";
+            throw new IllegalArgumentException("Not a markup of the workload: " + type);
+        }
+
+        String tag() {
+            return url != null ? name() + " href=\"" + url + "\"" : name();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.gworks.richtext.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.EditText;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Runs the {@link EditWorkload} on an empty editor, checking every operation and export
+ * against the model. The cost of the edits is gated by {@code EditScalingTest} on the JVM.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EditWorkloadTest {
+
+    @Test
+    public void editingSession() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                EditText editText = new EditText(InstrumentationRegistry.getTargetContext());
+                EditWorkload workload = new EditWorkload(new RichEditTexter(editText), 42);
+                // About 256 to 16k chars.
+                workload.run(4, 400, 4);
+            }
+        });
+    }
+}
@@ -0,0 +1,128 @@
+package com.gworks.richtext.util;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+/**
+ * Estimates the memory retained by object graphs through reflection, for the memory tests.
+ * Sizes are estimated for ART: 8 byte object headers, 12 byte array headers, 4 byte
+ * references and 8 byte alignment.
+ * <p>
+ * Static fields and class objects are not counted. Objects reachable from more than one root
+ * of a single measurement are counted once.
+ */
+/*default*/ final class MemoryFootprint {
+
+    private static final int OBJECT_HEADER = 8;
+    private static final int ARRAY_HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final int ALIGNMENT = 8;
+
+    // Instance fields of the classes measured so far.
+    private static final IdentityHashMap<Class<?>, Field[]> FIELDS = new IdentityHashMap<>();
+
+    private MemoryFootprint() {
+    }
+
+    /**
+     * Returns the estimated bytes retained by the given object.
+     */
+    static long of(Object root) {
+        return of(root, Collections.emptySet());
+    }
+
+    /**
+     * Returns the estimated bytes retained by the given object, leaving out the given shared
+     * objects and what is reachable only through them.
+     */
+    static long of(Object root, Collection<?> shared) {
+        IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<>();
+        for (Object object : shared)
+            visited.put(object, Boolean.TRUE);
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        visit(root, visited, pending);
+
+        long size = 0;
+        while (!pending.isEmpty()) {
+            Object object = pending.poll();
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                Class<?> componentType = type.getComponentType();
+                int length = Array.getLength(object);
+                size += align(ARRAY_HEADER + (long) length * sizeOf(componentType));
+                if (!componentType.isPrimitive()) {
+                    for (int i = 0; i < length; i++)
+                        visit(Array.get(object, i), visited, pending);
+                }
+            } else {
+                long shallowSize = OBJECT_HEADER;
+                for (Field field : getFields(type)) {
+                    shallowSize += sizeOf(field.getType());
+                    // The fields which can not be accessed are counted but not followed.
+                    if (!field.getType().isPrimitive() && field.isAccessible()) {
+                        try {
+                            visit(field.get(object), visited, pending);
+                        } catch (IllegalAccessException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+                size += align(shallowSize);
+            }
+        }
+        return size;
+    }
+
+    private static void visit(Object object, IdentityHashMap<Object, Boolean> visited, ArrayDeque<Object> pending) {
+        if (object != null && !(object instanceof Class) && visited.put(object, Boolean.TRUE) == null)
+            pending.add(object);
+    }
+
+    private static Field[] getFields(Class<?> type) {
+        Field[] fields = FIELDS.get(type);
+        if (fields == null) {
+            int count = 0;
+            for (Class<?> c = type; c != null; c = c.getSuperclass())
+                for (Field field : c.getDeclaredFields())
+                    if (!Modifier.isStatic(field.getModifiers()))
+                        count++;
+            fields = new Field[count];
+            int i = 0;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        try {
+                            field.setAccessible(true);
+                        } catch (RuntimeException e) {
+                            // Left inaccessible.
+                        }
+                        fields[i++] = field;
+                    }
+                }
+            }
+            FIELDS.put(type, fields);
+        }
+        return fields;
+    }
+
+    private static int sizeOf(Class<?> type) {
+        if (type == long.class || type == double.class)
+            return 8;
+        if (type == int.class || type == float.class)
+            return 4;
+        if (type == short.class || type == char.class)
+            return 2;
+        if (type == byte.class || type == boolean.class)
+            return 1;
+        return REFERENCE;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,102 @@
+package com.gworks.richtext.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.Spanned;
+import android.util.Log;
+import android.widget.EditText;
+
+import com.gworks.richtext.tags.Markup;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bytes retained per document size by the text with its Android spans and by each structure
+ * the texter keeps beside it. The markups are counted with the text and left out of the
+ * structures referencing them. The bytes per markup of every structure must not grow with the
+ * document, and the packed span table must take less than the text with its spans and the span
+ * transitions it replaces.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MemoryFootprintTest {
+
+    private static final String TAG = "MemoryFootprintTest";
+
+    private static final int[] PARAGRAPHS = {250, 1000, 4000};
+
+    private static final String[] STRUCTURES = {"text and spans", "span transitions", "markup index",
+            "block index", "snapshot", "packed span table"};
+
+    // Indexes of the structures the packed span table is compared with.
+    private static final int TEXT_AND_SPANS = 0;
+    private static final int SPAN_TRANSITIONS = 1;
+    private static final int PACKED_SPAN_TABLE = 5;
+
+    @Test
+    public void bytesPerDocumentSize() {
+        final double[][] perMarkup = new double[PARAGRAPHS.length][];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < PARAGRAPHS.length; i++)
+                    perMarkup[i] = measure(PARAGRAPHS[i]);
+            }
+        });
+        double[] smallest = perMarkup[0];
+        double[] largest = perMarkup[PARAGRAPHS.length - 1];
+        for (int i = 0; i < STRUCTURES.length; i++)
+            assertTrue(STRUCTURES[i] + " grows from " + smallest[i] + " to " + largest[i] + " bytes per markup",
+                    largest[i] <= 2 * smallest[i] + 16);
+        for (int i = 0; i < PARAGRAPHS.length; i++) {
+            double unpacked = perMarkup[i][TEXT_AND_SPANS] + perMarkup[i][SPAN_TRANSITIONS];
+            assertTrue(PARAGRAPHS[i] + " paragraphs: the packed span table takes " + perMarkup[i][PACKED_SPAN_TABLE]
+                            + " bytes per markup, not less than " + unpacked,
+                    perMarkup[i][PACKED_SPAN_TABLE] < unpacked);
+        }
+    }
+
+    private static double[] measure(int paragraphs) {
+        EditText editText = new EditText(InstrumentationRegistry.getTargetContext());
+        RichEditTexter texter = new RichEditTexter(editText);
+        texter.insertFragment(0, TestDocuments.paragraphs(paragraphs, false));
+        Spanned text = editText.getText();
+        Markup[] markups = text.getSpans(0, text.length(), Markup.class);
+
+        // The index merges its pending changes when read.
+        MarkupIndex markupIndex = texter.getMarkupIndex();
+        for (Class<? extends Markup> type : markupIndex.getTypes())
+            markupIndex.get(type, 0, 0, text);
+
+        // The texter and the view are reached from the text through the watchers.
+        List<Object> owners = Arrays.<Object>asList(texter, editText);
+        List<Object> shared = new ArrayList<>(owners);
+        shared.add(text);
+        Collections.addAll(shared, markups);
+        long[] bytes = {
+                MemoryFootprint.of(text, owners),
+                MemoryFootprint.of(texter.getSpanTransitions(), shared),
+                MemoryFootprint.of(markupIndex, shared),
+                MemoryFootprint.of(texter.getBlockIndex(), shared),
+                MemoryFootprint.of(texter.snapshot(), shared),
+                MemoryFootprint.of(PackedSpanTable.of(texter.getSpanTable()), shared)
+        };
+
+        double[] perMarkup = new double[bytes.length];
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d chars, %d markups:", text.length(), markups.length));
+        for (int i = 0; i < bytes.length; i++) {
+            perMarkup[i] = (double) bytes[i] / markups.length;
+            report.append(String.format(" %s %d bytes (%.1f per markup);", STRUCTURES[i], bytes[i], perMarkup[i]));
+        }
+        Log.i(TAG, report.toString());
+        return perMarkup;
+    }
+}
@@ -0,0 +1,108 @@
+package com.gworks.richtext.util;
+
+import android.support.test.InstrumentationRegistry;
+import android.widget.EditText;
+
+import com.gworks.richtext.tags.Bold;
+import com.gworks.richtext.tags.Italic;
+import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.tags.Underline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Documents of a given size for the benchmarks, and helpers to compare markups.
+ */
+/*default*/ final class TestDocuments {
+
+    private TestDocuments() {
+    }
+
+    /**
+     * Returns a document of the given number of paragraphs with bold, italic and underlined
+     * words. The edited version has some words replaced and inserted and some markups removed
+     * and added.
+     */
+    static RichFragment paragraphs(int count, boolean edited) {
+        StringBuilder text = new StringBuilder();
+        List<Markup> markups = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int start = text.length();
+            text.append("Paragraph ").append(i);
+            if (!edited || i % 4 != 0)
+                add(markups, ranges, new Bold(), start, start + 9);
+            text.append(" has ");
+            int word = text.length();
+            text.append(edited && i % 10 == 0 ? "many" : "some");
+            if (i % 3 == 0)
+                add(markups, ranges, new Italic(), word, word + 4);
+            text.append(" words");
+            if (edited && i % 20 == 0)
+                text.append(" more");
+            if (edited && i % 2 == 0)
+                add(markups, ranges, new Underline(), start, text.length());
+            text.append('\n');
+        }
+        int[] starts = new int[markups.size()];
+        int[] ends = new int[markups.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = ranges.get(i)[0];
+            ends[i] = ranges.get(i)[1];
+        }
+        return new RichFragment(text.toString(),
+                SpanTable.of(markups.toArray(new Markup[markups.size()]), starts, ends, starts.length));
+    }
+
+    /**
+     * Returns the document of the given number of paragraphs with a word inserted in the middle
+     * paragraph and made bold, the same small edit whatever the size of the document.
+     */
+    static RichFragment withSmallEdit(int count) {
+        RichFragment original = paragraphs(count, false);
+        String word = " really";
+        String text = original.getText().toString();
+        int offset = text.indexOf(" has ", text.indexOf("Paragraph " + count / 2 + " ")) + 4;
+        SpanTable spans = original.getSpanTable();
+        Markup[] markups = new Markup[spans.size() + 1];
+        int[] starts = new int[markups.length];
+        int[] ends = new int[markups.length];
+        for (int i = 0; i < spans.size(); i++) {
+            markups[i] = spans.getMarkup(i);
+            starts[i] = spans.getStart(i) + (spans.getStart(i) >= offset ? word.length() : 0);
+            ends[i] = spans.getEnd(i) + (spans.getEnd(i) > offset ? word.length() : 0);
+        }
+        markups[spans.size()] = new Bold();
+        starts[spans.size()] = offset + 1;
+        ends[spans.size()] = offset + word.length();
+        return new RichFragment(text.substring(0, offset) + word + text.substring(offset),
+                SpanTable.of(markups, starts, ends, markups.length));
+    }
+
+    /**
+     * Returns an editor with the given fragment, call this on the main thread.
+     */
+    static RichEditTexter editor(RichFragment fragment) {
+        RichEditTexter texter = new RichEditTexter(new EditText(InstrumentationRegistry.getTargetContext()));
+        texter.insertFragment(0, fragment);
+        return texter;
+    }
+
+    /**
+     * Returns the markups of the given table as sorted "type start end" strings.
+     */
+    static List<String> describe(SpanTable spans) {
+        List<String> markups = new ArrayList<>();
+        for (int i = 0; i < spans.size(); i++)
+            markups.add(spans.getMarkup(i).getClass().getSimpleName() + " " + spans.getStart(i) + " " + spans.getEnd(i));
+        Collections.sort(markups);
+        return markups;
+    }
+
+    private static void add(List<Markup> markups, List<int[]> ranges, Markup markup, int start, int end) {
+        markups.add(markup);
+        ranges.add(new int[]{start, end});
+    }
+}
@@ -13,6 +13,8 @@ public class Constants {
     public static final String TAG_H2 = "h2";
     public static final String TAG_H3 = "h3";
     public static final String TAG_H4 = "h4";
+    public static final String TAG_PARAGRAPH = "p";
+    public static final String TAG_BLOCKQUOTE = "blockquote";
 
     public static final String ATTR_URL = "href";
     public static final String ATTR_SRC = "src";
@@ -0,0 +1,139 @@
+package com.gworks.richtext.collab;
+
+import com.gworks.richtext.tags.Markup;
+
+/**
+ * An operation on a {@link ReplicatedDocument}. Operations are generated by the local edits of a
+ * replica and applied as is on the other replicas, in any order respecting causality.
+ * <p>
+ * Every inserted character and every operation is identified by a compact id packing a Lamport
+ * counter (high 48 bits) and the replica (low 16 bits), so ids compare by counter first.
+ */
+public final class Operation {
+
+    /**
+     * Inserts the characters after the origin character. The characters get consecutive ids
+     * starting from the operation id.
+     */
+    public static final int INSERT = 1;
+
+    /**
+     * Deletes the target characters.
+     */
+    public static final int DELETE = 2;
+
+    /**
+     * Adds a markup from the start character to the end character (both inclusive).
+     */
+    public static final int ADD_MARKUP = 3;
+
+    /**
+     * Removes the markup added by the target operation.
+     */
+    public static final int REMOVE_MARKUP = 4;
+
+    private static final int REPLICA_BITS = 16;
+
+    /**
+     * The maximum number of replicas.
+     */
+    public static final int MAX_REPLICAS = 1 << REPLICA_BITS;
+
+    private final int kind;
+    private final long id;
+    private final long reference;
+    private final long endReference;
+    private final String text;
+    private final long[] targets;
+    private final Markup markup;
+
+    /*default*/ Operation(int kind, long id, long reference, long endReference, String text, long[] targets, Markup markup) {
+        this.kind = kind;
+        this.id = id;
+        this.reference = reference;
+        this.endReference = endReference;
+        this.text = text;
+        this.targets = targets;
+        this.markup = markup;
+    }
+
+    /*default*/ static Operation insert(long id, long origin, String text) {
+        return new Operation(INSERT, id, origin, 0, text, null, null);
+    }
+
+    /*default*/ static Operation delete(long id, long[] targets) {
+        return new Operation(DELETE, id, 0, 0, null, targets, null);
+    }
+
+    /*default*/ static Operation addMarkup(long id, Markup markup, long start, long end) {
+        return new Operation(ADD_MARKUP, id, start, end, null, null, markup);
+    }
+
+    /*default*/ static Operation removeMarkup(long id, long target) {
+        return new Operation(REMOVE_MARKUP, id, target, 0, null, null, null);
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the last id used by this operation (the id of the last character for
+     * inserts).
+     */
+    public long getLastId() {
+        return kind == INSERT ? id + ((long) (text.length() - 1) << REPLICA_BITS) : id;
+    }
+
+    /**
+     * Returns the origin character of an insert, the start character of an added markup or the
+     * operation adding the removed markup.
+     */
+    public long getReference() {
+        return reference;
+    }
+
+    /**
+     * Returns the end character of an added markup.
+     */
+    public long getEndReference() {
+        return endReference;
+    }
+
+    /**
+     * Returns the inserted text.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the deleted characters.
+     */
+    public long[] getTargets() {
+        return targets;
+    }
+
+    /**
+     * Returns the added markup.
+     */
+    public Markup getMarkup() {
+        return markup;
+    }
+
+    public static long makeId(long counter, int replica) {
+        return (counter << REPLICA_BITS) | replica;
+    }
+
+    public static long counterOf(long id) {
+        return id >>> REPLICA_BITS;
+    }
+
+    public static int replicaOf(long id) {
+        return (int) (id & (MAX_REPLICAS - 1));
+    }
+}
@@ -0,0 +1,164 @@
+package com.gworks.richtext.collab;
+
+import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.util.AttributeCodec;
+import com.gworks.richtext.util.DefaultAttributeCodec;
+import com.gworks.richtext.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes batches of {@link Operation}s into compact byte arrays. Numbers are written as
+ * variable length integers and the ids of consecutive operations and deleted characters are
+ * delta encoded, so a batch of typing costs a few bytes per operation.
+ * <p>
+ * The markup types are written as indexes into the list of types given to the codec, which must
+ * be the same on all the replicas.
+ */
+public class OperationCodec {
+
+    private final List<Class<? extends Markup>> markupTypes;
+
+    private final AttributeCodec attributeCodec;
+
+    public OperationCodec(List<Class<? extends Markup>> markupTypes) {
+        this(markupTypes, new DefaultAttributeCodec());
+    }
+
+    public OperationCodec(List<Class<? extends Markup>> markupTypes, AttributeCodec attributeCodec) {
+        this.markupTypes = markupTypes;
+        this.attributeCodec = attributeCodec;
+    }
+
+    public byte[] encode(List<Operation> operations) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeVarLong(out, operations.size());
+            long previous = 0;
+            for (int i = 0, n = operations.size(); i < n; i++) {
+                Operation operation = operations.get(i);
+                out.writeByte(operation.getKind());
+                writeId(out, operation.getId(), previous);
+                previous = operation.getId();
+                switch (operation.getKind()) {
+                    case Operation.INSERT:
+                        writeId(out, operation.getReference(), previous);
+                        String text = operation.getText();
+                        writeVarLong(out, text.length());
+                        for (int c = 0; c < text.length(); c++)
+                            writeVarLong(out, text.charAt(c));
+                        break;
+                    case Operation.DELETE:
+                        long[] targets = operation.getTargets();
+                        writeVarLong(out, targets.length);
+                        long previousTarget = previous;
+                        for (long target : targets) {
+                            writeId(out, target, previousTarget);
+                            previousTarget = target;
+                        }
+                        break;
+                    case Operation.ADD_MARKUP:
+                        writeId(out, operation.getReference(), previous);
+                        writeId(out, operation.getEndReference(), operation.getReference());
+                        Markup markup = operation.getMarkup();
+                        int type = markupTypes.indexOf(markup.getClass());
+                        if (type < 0)
+                            throw new IllegalArgumentException("Unknown markup type " + markup.getClass());
+                        writeVarLong(out, type);
+                        attributeCodec.writeAttributes(out, Util.getAttributes(markup));
+                        break;
+                    case Operation.REMOVE_MARKUP:
+                        writeId(out, operation.getReference(), previous);
+                        break;
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Writing to memory does not fail.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public List<Operation> decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        int count = (int) readVarLong(in);
+        List<Operation> operations = new ArrayList<>(count);
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            int kind = in.readByte();
+            long id = readId(in, previous);
+            previous = id;
+            switch (kind) {
+                case Operation.INSERT:
+                    long origin = readId(in, previous);
+                    char[] text = new char[(int) readVarLong(in)];
+                    for (int c = 0; c < text.length; c++)
+                        text[c] = (char) readVarLong(in);
+                    operations.add(Operation.insert(id, origin, new String(text)));
+                    break;
+                case Operation.DELETE:
+                    long[] targets = new long[(int) readVarLong(in)];
+                    long previousTarget = previous;
+                    for (int t = 0; t < targets.length; t++)
+                        previousTarget = targets[t] = readId(in, previousTarget);
+                    operations.add(Operation.delete(id, targets));
+                    break;
+                case Operation.ADD_MARKUP:
+                    long start = readId(in, previous);
+                    long end = readId(in, start);
+                    Class<? extends Markup> markupType = markupTypes.get((int) readVarLong(in));
+                    Object attributes = attributeCodec.readAttributes(in, markupType);
+                    operations.add(Operation.addMarkup(id, Util.createMarkup(markupType, attributes), start, end));
+                    break;
+                case Operation.REMOVE_MARKUP:
+                    operations.add(Operation.removeMarkup(id, readId(in, previous)));
+                    break;
+                default:
+                    throw new IOException("Unknown operation " + kind);
+            }
+        }
+        return operations;
+    }
+
+    // Writes the id as the zigzag encoded counter delta from the base id, and the replica.
+    private static void writeId(DataOutput out, long id, long base) throws IOException {
+        long delta = Operation.counterOf(id) - Operation.counterOf(base);
+        writeVarLong(out, (delta << 1) ^ (delta >> 63));
+        writeVarLong(out, Operation.replicaOf(id));
+    }
+
+    private static long readId(DataInput in, long base) throws IOException {
+        long zigzag = readVarLong(in);
+        long counter = Operation.counterOf(base) + ((zigzag >>> 1) ^ -(zigzag & 1));
+        return Operation.makeId(counter, (int) readVarLong(in));
+    }
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+}
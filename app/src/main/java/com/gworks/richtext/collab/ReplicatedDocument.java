@@ -0,0 +1,577 @@
+package com.gworks.richtext.collab;
+
+import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.util.DocumentPatch;
+import com.gworks.richtext.util.SpanTable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A replica of a rich text document edited concurrently by several replicas. The text is a
+ * replicated growable array (RGA) sequence CRDT: every character has a unique id, inserts are
+ * placed after their origin character and deleted characters are kept as tombstones. Markups
+ * are anchored to the ids of their first and last characters, so they follow concurrent edits.
+ * <p>
+ * Local edits return the {@link Operation}s to be sent to the other replicas, which apply them
+ * with {@link #apply(Operation)}. Replicas applying the same set of operations converge to the
+ * same text and markups regardless of the order. Operations from a replica must be delivered in
+ * the order they were generated; operations arriving before the operations they depend on are
+ * kept pending.
+ * <p>
+ * This class is not thread safe.
+ */
+public class ReplicatedDocument {
+
+    // Id of the virtual head character, counter 0 is never issued.
+    private static final long HEAD = 0;
+
+    private final int replica;
+
+    // Lamport clock.
+    private long clock;
+
+    private final Node head;
+
+    private final HashMap<Long, Node> nodes;
+
+    // Markups by the id of the operation adding them, ordered by id so that all the replicas
+    // list them in the same order.
+    private final TreeMap<Long, MarkupEntry> markups;
+
+    private final IdentityHashMap<Markup, MarkupEntry> markupEntries;
+
+    // The last counter applied from each replica.
+    private final HashMap<Integer, Long> version;
+
+    // By replica, the operations kept pending in the order they were received.
+    private final HashMap<Integer, ArrayDeque<Operation>> pending;
+
+    private int length;
+
+    // Root of a treap over the characters in the order of the text, with the visible characters
+    // counted in each subtree, to find the character at an index in logarithmic time.
+    private Node root;
+
+    public ReplicatedDocument(int replica) {
+        if (replica <= 0 || replica >= Operation.MAX_REPLICAS)
+            throw new IllegalArgumentException("Invalid replica " + replica);
+        this.replica = replica;
+        head = new Node(HEAD, '\0');
+        nodes = new HashMap<>();
+        markups = new TreeMap<>();
+        markupEntries = new IdentityHashMap<>();
+        version = new HashMap<>();
+        pending = new HashMap<>();
+    }
+
+    public int getReplica() {
+        return replica;
+    }
+
+    /**
+     * Returns the length of the visible text.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the visible text.
+     */
+    public String getText() {
+        StringBuilder sb = new StringBuilder(length);
+        for (Node node = head.next; node != null; node = node.next)
+            if (!node.deleted)
+                sb.append(node.ch);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the markups in the visible text. The markups whose characters are all deleted are
+     * left out.
+     */
+    public SpanTable getSpanTable() {
+        HashMap<Long, Integer> anchors = new HashMap<>();
+        for (MarkupEntry entry : markups.values()) {
+            if (!entry.removed) {
+                anchors.put(entry.start, 0);
+                anchors.put(entry.end, 0);
+            }
+        }
+        // Visible characters before each anchor.
+        int index = 0;
+        for (Node node = head.next; node != null; node = node.next) {
+            if (anchors.containsKey(node.id))
+                anchors.put(node.id, index);
+            if (!node.deleted)
+                index++;
+        }
+
+        Markup[] tableMarkups = new Markup[markups.size()];
+        int[] starts = new int[tableMarkups.length];
+        int[] ends = new int[tableMarkups.length];
+        int size = 0;
+        for (MarkupEntry entry : markups.values()) {
+            if (entry.removed)
+                continue;
+            int start = anchors.get(entry.start);
+            int end = anchors.get(entry.end) + (nodes.get(entry.end).deleted ? 0 : 1);
+            if (end > start) {
+                tableMarkups[size] = entry.markup;
+                starts[size] = start;
+                ends[size++] = end;
+            }
+        }
+        return SpanTable.of(tableMarkups, starts, ends, size);
+    }
+
+    /**
+     * Returns the last counter applied from each replica.
+     */
+    public Map<Integer, Long> getVersion() {
+        return new HashMap<>(version);
+    }
+
+    /**
+     * Inserts the given text at the given index.
+     *
+     * @return the operation to send to the other replicas
+     */
+    public Operation insert(int index, CharSequence text) {
+        if (index < 0 || index > length || text.length() == 0)
+            throw new IllegalArgumentException("Invalid insert of " + text.length() + " at " + index);
+        long origin = index > 0 ? nodeAt(index - 1).id : HEAD;
+        Operation operation = Operation.insert(nextId(text.length()), origin, text.toString());
+        integrate(operation);
+        return operation;
+    }
+
+    /**
+     * Deletes the text in the given range.
+     *
+     * @param from inclusive
+     * @param to exclusive
+     * @return the operation to send to the other replicas
+     */
+    public Operation delete(int from, int to) {
+        if (from < 0 || to > length || from >= to)
+            throw new IllegalArgumentException("Invalid delete of [" + from + ", " + to + ")");
+        long[] targets = new long[to - from];
+        Node node = nodeAt(from);
+        for (int i = 0; i < targets.length; node = node.next) {
+            if (!node.deleted)
+                targets[i++] = node.id;
+        }
+        Operation operation = Operation.delete(nextId(1), targets);
+        integrate(operation);
+        return operation;
+    }
+
+    /**
+     * Adds the given markup in the given range.
+     *
+     * @param from inclusive
+     * @param to exclusive
+     * @return the operation to send to the other replicas
+     */
+    public Operation addMarkup(Markup markup, int from, int to) {
+        if (from < 0 || to > length || from >= to)
+            throw new IllegalArgumentException("Invalid markup range [" + from + ", " + to + ")");
+        long start = nodeAt(from).id;
+        long end = nodeAt(to - 1).id;
+        Operation operation = Operation.addMarkup(nextId(1), markup, start, end);
+        integrate(operation);
+        return operation;
+    }
+
+    /**
+     * Removes the given markup.
+     *
+     * @return the operation to send to the other replicas or null if the markup is not present
+     */
+    public Operation removeMarkup(Markup markup) {
+        MarkupEntry entry = markupEntries.get(markup);
+        if (entry == null || entry.removed)
+            return null;
+        Operation operation = Operation.removeMarkup(nextId(1), entry.id);
+        integrate(operation);
+        return operation;
+    }
+
+    /**
+     * Applies the given local patch (computed by {@link com.gworks.richtext.util.DocumentDiff}
+     * from the editor contents) to this replica.
+     *
+     * @return the operations to send to the other replicas
+     */
+    public List<Operation> applyLocal(DocumentPatch patch) {
+        List<Operation> operations = new ArrayList<>();
+        SpanTable removedSpans = patch.getRemovedSpans();
+        if (removedSpans.size() > 0) {
+            SpanTable current = getSpanTable();
+            for (int i = 0; i < removedSpans.size(); i++) {
+                for (int j = 0; j < current.size(); j++) {
+                    if (current.getStart(j) == removedSpans.getStart(i) && current.getEnd(j) == removedSpans.getEnd(i)
+                            && SpanTable.isSameMarkup(current.getMarkup(j), removedSpans.getMarkup(i))) {
+                        Operation operation = removeMarkup(current.getMarkup(j));
+                        if (operation != null) {
+                            operations.add(operation);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        for (int i = patch.getEditCount() - 1; i >= 0; i--) {
+            int start = patch.getEditStart(i);
+            if (patch.getEditEnd(i) > start)
+                operations.add(delete(start, patch.getEditEnd(i)));
+            if (patch.getReplacement(i).length() > 0)
+                operations.add(insert(start, patch.getReplacement(i)));
+        }
+        SpanTable addedSpans = patch.getAddedSpans();
+        for (int i = 0; i < addedSpans.size(); i++)
+            if (addedSpans.getEnd(i) > addedSpans.getStart(i))
+                operations.add(addMarkup(addedSpans.getMarkup(i), addedSpans.getStart(i), addedSpans.getEnd(i)));
+        return operations;
+    }
+
+    /**
+     * Applies the given operation from another replica. Operations already applied are ignored
+     * and operations whose dependencies are not applied yet are kept pending.
+     *
+     * @return true if the operation is applied now
+     */
+    public boolean apply(Operation operation) {
+        if (isApplied(operation))
+            return false;
+        Integer operationReplica = Operation.replicaOf(operation.getId());
+        ArrayDeque<Operation> replicaPending = pending.get(operationReplica);
+        // The operations of a replica are applied in order.
+        if (replicaPending == null && canApply(operation)) {
+            integrate(operation);
+            // The pending operations may depend on it.
+            if (!pending.isEmpty())
+                applyPending();
+            return true;
+        }
+        if (replicaPending == null)
+            pending.put(operationReplica, replicaPending = new ArrayDeque<>());
+        replicaPending.add(operation);
+        return false;
+    }
+
+    // Applies the pending operations which can be applied now, keeping the order of the
+    // operations from each replica.
+    private void applyPending() {
+        boolean applied = true;
+        while (applied) {
+            applied = false;
+            for (Iterator<ArrayDeque<Operation>> iterator = pending.values().iterator(); iterator.hasNext(); ) {
+                ArrayDeque<Operation> replicaPending = iterator.next();
+                Operation operation;
+                while ((operation = replicaPending.peek()) != null && (isApplied(operation) || canApply(operation))) {
+                    replicaPending.remove();
+                    if (!isApplied(operation)) {
+                        integrate(operation);
+                        applied = true;
+                    }
+                }
+                if (replicaPending.isEmpty())
+                    iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Applies all the given operations from other replicas.
+     */
+    public void applyAll(List<Operation> operations) {
+        for (int i = 0, n = operations.size(); i < n; i++)
+            apply(operations.get(i));
+    }
+
+    /**
+     * Removes the deleted characters and removed markups whose deletion is causally stable. The
+     * given version must be applied by all the replicas, and this replica must have applied all
+     * the operations generated by them before they applied it.
+     *
+     * @param stableVersion last counter of each replica applied by all the replicas
+     * @return number of tombstones collected
+     */
+    public int collectGarbage(Map<Integer, Long> stableVersion) {
+        int collected = 0;
+        for (Iterator<MarkupEntry> iterator = markups.values().iterator(); iterator.hasNext(); ) {
+            MarkupEntry entry = iterator.next();
+            if (entry.removed && isStable(entry.removedBy, stableVersion)) {
+                iterator.remove();
+                markupEntries.remove(entry.markup);
+                collected++;
+            } else if (!entry.removed && !reanchor(entry, stableVersion)) {
+                // All the characters of the markup are collected.
+                iterator.remove();
+                markupEntries.remove(entry.markup);
+            }
+        }
+        Node node = head.next;
+        while (node != null) {
+            Node next = node.next;
+            if (node.deleted && isStable(node.deletedBy, stableVersion)) {
+                node.prev.next = next;
+                if (next != null)
+                    next.prev = node.prev;
+                nodes.remove(node.id);
+                collected++;
+            }
+            node = next;
+        }
+        // The tree is built again over the characters left.
+        root = null;
+        Node last = head;
+        for (node = head.next; node != null; node = node.next) {
+            node.left = null;
+            node.right = null;
+            node.parent = null;
+            node.visible = node.deleted ? 0 : 1;
+            treeInsert(last, node, null);
+            last = node;
+        }
+        return collected;
+    }
+
+    // Moves the anchors of the given markup off the collectable characters. Returns false if
+    // all the characters of the markup are collectable.
+    private boolean reanchor(MarkupEntry entry, Map<Integer, Long> stableVersion) {
+        Node start = nodes.get(entry.start);
+        Node end = nodes.get(entry.end);
+        while (start != end && isCollectable(start, stableVersion))
+            start = start.next;
+        while (end != start && isCollectable(end, stableVersion))
+            end = end.prev;
+        if (isCollectable(start, stableVersion))
+            return false;
+        entry.start = start.id;
+        entry.end = end.id;
+        return true;
+    }
+
+    private static boolean isCollectable(Node node, Map<Integer, Long> stableVersion) {
+        return node.deleted && isStable(node.deletedBy, stableVersion);
+    }
+
+    private static boolean isStable(long id, Map<Integer, Long> stableVersion) {
+        Long counter = stableVersion.get(Operation.replicaOf(id));
+        return counter != null && Operation.counterOf(id) <= counter;
+    }
+
+    private boolean isApplied(Operation operation) {
+        Long counter = version.get(Operation.replicaOf(operation.getId()));
+        return counter != null && Operation.counterOf(operation.getLastId()) <= counter;
+    }
+
+    private boolean canApply(Operation operation) {
+        switch (operation.getKind()) {
+            case Operation.INSERT:
+                return operation.getReference() == HEAD || nodes.containsKey(operation.getReference());
+            case Operation.DELETE:
+                for (long target : operation.getTargets())
+                    if (!nodes.containsKey(target))
+                        return false;
+                return true;
+            case Operation.ADD_MARKUP:
+                return nodes.containsKey(operation.getReference()) && nodes.containsKey(operation.getEndReference());
+            case Operation.REMOVE_MARKUP:
+                return markups.containsKey(operation.getReference());
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation.getKind());
+        }
+    }
+
+    private void integrate(Operation operation) {
+        switch (operation.getKind()) {
+            case Operation.INSERT:
+                String text = operation.getText();
+                long origin = operation.getReference();
+                long id = operation.getId();
+                for (int i = 0; i < text.length(); i++) {
+                    integrateInsert(id, origin, text.charAt(i));
+                    origin = id;
+                    id += Operation.makeId(1, 0);
+                }
+                length += text.length();
+                break;
+            case Operation.DELETE:
+                for (long target : operation.getTargets()) {
+                    Node node = nodes.get(target);
+                    if (!node.deleted) {
+                        node.deleted = true;
+                        length--;
+                        for (Node n = node; n != null; n = n.parent)
+                            n.visible--;
+                    }
+                    node.deletedBy = Math.max(node.deletedBy, operation.getId());
+                }
+                break;
+            case Operation.ADD_MARKUP:
+                MarkupEntry entry = new MarkupEntry(operation.getId(), operation.getMarkup(),
+                        operation.getReference(), operation.getEndReference());
+                markups.put(entry.id, entry);
+                markupEntries.put(entry.markup, entry);
+                break;
+            case Operation.REMOVE_MARKUP:
+                MarkupEntry removed = markups.get(operation.getReference());
+                removed.removed = true;
+                removed.removedBy = Math.max(removed.removedBy, operation.getId());
+                break;
+        }
+        long lastId = operation.getLastId();
+        int operationReplica = Operation.replicaOf(lastId);
+        long counter = Operation.counterOf(lastId);
+        Long applied = version.get(operationReplica);
+        if (applied == null || applied < counter)
+            version.put(operationReplica, counter);
+        clock = Math.max(clock, counter);
+    }
+
+    private void integrateInsert(long id, long origin, char ch) {
+        Node left = origin == HEAD ? head : nodes.get(origin);
+        // Concurrent inserts after the same origin are ordered by descending id. The characters
+        // inserted after them have even bigger ids, so they are skipped too.
+        Node right = left.next;
+        while (right != null && right.id > id) {
+            left = right;
+            right = right.next;
+        }
+        Node node = new Node(id, ch);
+        node.prev = left;
+        node.next = right;
+        left.next = node;
+        if (right != null)
+            right.prev = node;
+        nodes.put(id, node);
+        treeInsert(left, node, right);
+    }
+
+    // Puts the given node in the tree between the given nodes, left is the head for the first
+    // node and right null for the last.
+    private void treeInsert(Node left, Node node, Node right) {
+        if (root == null) {
+            root = node;
+        } else if (left != head && left.right == null) {
+            left.right = node;
+            node.parent = left;
+        } else {
+            // The next node is the leftmost of the right subtree of the previous node.
+            right.left = node;
+            node.parent = right;
+        }
+        for (Node n = node.parent; n != null; n = n.parent)
+            n.visible += node.visible;
+        while (node.parent != null && node.parent.priority < node.priority)
+            rotateUp(node);
+    }
+
+    // Rotates the given node above its parent.
+    private void rotateUp(Node node) {
+        Node parent = node.parent;
+        Node grandParent = parent.parent;
+        if (node == parent.left) {
+            parent.left = node.right;
+            if (node.right != null)
+                node.right.parent = parent;
+            node.right = parent;
+        } else {
+            parent.right = node.left;
+            if (node.left != null)
+                node.left.parent = parent;
+            node.left = parent;
+        }
+        parent.parent = node;
+        node.parent = grandParent;
+        if (grandParent == null)
+            root = node;
+        else if (grandParent.left == parent)
+            grandParent.left = node;
+        else
+            grandParent.right = node;
+        parent.visible = countVisible(parent);
+        node.visible = countVisible(node);
+    }
+
+    private static int countVisible(Node node) {
+        return (node.deleted ? 0 : 1) + (node.left != null ? node.left.visible : 0)
+                + (node.right != null ? node.right.visible : 0);
+    }
+
+    // Returns the first id of the given number of consecutive ids.
+    private long nextId(int count) {
+        long first = clock + 1;
+        clock += count;
+        return Operation.makeId(first, replica);
+    }
+
+    // Returns the visible node at the given index.
+    private Node nodeAt(int index) {
+        Node node = root;
+        while (true) {
+            int leftVisible = node.left != null ? node.left.visible : 0;
+            if (index < leftVisible) {
+                node = node.left;
+                continue;
+            }
+            index -= leftVisible;
+            if (!node.deleted) {
+                if (index == 0)
+                    return node;
+                index--;
+            }
+            node = node.right;
+        }
+    }
+
+    private static class Node {
+        final long id;
+        final char ch;
+        boolean deleted;
+        long deletedBy;
+        Node prev;
+        Node next;
+
+        // In the tree, the priority is a hash of the id so the tree is balanced on average.
+        final int priority;
+        Node left;
+        Node right;
+        Node parent;
+        // Visible characters in the subtree.
+        int visible = 1;
+
+        Node(long id, char ch) {
+            this.id = id;
+            this.ch = ch;
+            priority = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+        }
+    }
+
+    private static class MarkupEntry {
+        final long id;
+        final Markup markup;
+        long start;
+        long end;
+        boolean removed;
+        long removedBy;
+
+        MarkupEntry(long id, Markup markup, long start, long end) {
+            this.id = id;
+            this.markup = markup;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.gworks.richtext.tags;
+
+import android.text.Spannable;
+
+/**
+ * Represents a paragraph level markup like heading, paragraph or block quote. A block markup
+ * always spans a whole line (excluding the line break) and a line can have at most one block
+ * markup.
+ */
+public abstract class BlockMarkup extends Markup {
+
+    // Created when applied and released when removed.
+    private Object[] blockSpans;
+
+    /**
+     * Creates the android spans styling the line of this markup.
+     */
+    protected abstract Object[] createBlockSpans();
+
+    @Override
+    public boolean canExistWith(Class<? extends Markup> anotherType) {
+        return !BlockMarkup.class.isAssignableFrom(anotherType);
+    }
+
+    @Override
+    public void apply(Spannable text, int from, int to, int flags) {
+        if (blockSpans == null)
+            blockSpans = createBlockSpans();
+        for (Object blockSpan : blockSpans)
+            text.setSpan(blockSpan, from, to, flags);
+    }
+
+    @Override
+    public void remove(Spannable text) {
+        if (blockSpans != null) {
+            for (Object blockSpan : blockSpans)
+                text.removeSpan(blockSpan);
+            blockSpans = null;
+        }
+    }
+
+    @Override
+    public boolean isSplittable() {
+        return false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.gworks.richtext.tags;
+
+import android.text.style.QuoteSpan;
+
+import com.gworks.richtext.annotation.MarkupTag;
+import com.gworks.richtext.util.MarkupConverter;
+
+/**
+ * Block quote block markup.
+ */
+@MarkupTag(html = "blockquote", markdownOpen = "> ", markdownClose = "\n")
+public class BlockQuote extends BlockMarkup {
+
+    @Override
+    protected Object[] createBlockSpans() {
+        return new Object[]{new QuoteSpan()};
+    }
+
+    @Override
+    public void convert(StringBuilder sb, MarkupConverter converter, boolean begin) {
+        converter.convertMarkup(sb, this, begin);
+    }
+}
@@ -19,16 +19,19 @@ package com.gworks.richtext.tags;
 import android.graphics.Typeface;
 import android.text.style.StyleSpan;
 
+import com.gworks.richtext.annotation.MarkupTag;
 import com.gworks.richtext.util.MarkupConverter;
 
 /**
  * Created by Godwin Lewis on 5/9/2017.
  */
 
+@MarkupTag(html = "b", markdownOpen = "**", markdownClose = "**")
 public class Bold extends StyleMarkup {
 
-    public Bold() {
-        super(new StyleSpan(Typeface.BOLD));
+    @Override
+    protected Object createStyleSpan() {
+        return new StyleSpan(Typeface.BOLD);
     }
 
     @Override
@@ -5,23 +5,23 @@ import android.text.style.AbsoluteSizeSpan;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.TypefaceSpan;
 
+import com.gworks.richtext.annotation.MarkupTag;
 import com.gworks.richtext.util.MarkupConverter;
 
 /**
  * Created by durgadass on 15/7/17.
  */
 
+@MarkupTag(html = "span")
 public class Font extends BaseAttributedMarkup<Font.Attributes> {
 
+    // Created when applied and released when removed.
     private TypefaceSpan typefaceSpan;
     private AbsoluteSizeSpan sizeSpan;
     private ForegroundColorSpan colorSpan;
 
     public Font(Attributes attributes){
         super(attributes);
-        typefaceSpan = new TypefaceSpan(attributes.typeface);
-        sizeSpan = new AbsoluteSizeSpan(attributes.size, true);
-        colorSpan = new ForegroundColorSpan(attributes.color);
     }
 
     @Override
@@ -31,6 +31,12 @@ public class Font extends BaseAttributedMarkup<Font.Attributes> {
 
     @Override
     public void apply(Spannable text, int from, int to, int flags) {
+        if (typefaceSpan == null) {
+            Attributes attributes = getAttributes();
+            typefaceSpan = new TypefaceSpan(attributes.typeface);
+            sizeSpan = new AbsoluteSizeSpan(attributes.size, true);
+            colorSpan = new ForegroundColorSpan(attributes.color);
+        }
         text.setSpan(typefaceSpan, from, to, flags);
         text.setSpan(sizeSpan, from, to, flags);
         text.setSpan(colorSpan, from, to, flags);
@@ -38,9 +44,14 @@ public class Font extends BaseAttributedMarkup<Font.Attributes> {
 
     @Override
     public void remove(Spannable text) {
-        text.removeSpan(typefaceSpan);
-        text.removeSpan(sizeSpan);
-        text.removeSpan(colorSpan);
+        if (typefaceSpan != null) {
+            text.removeSpan(typefaceSpan);
+            text.removeSpan(sizeSpan);
+            text.removeSpan(colorSpan);
+            typefaceSpan = null;
+            sizeSpan = null;
+            colorSpan = null;
+        }
     }
 
     @Override
@@ -62,5 +73,24 @@ public class Font extends BaseAttributedMarkup<Font.Attributes> {
         public Attributes() {
             this(null, -1, 0);
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Attributes))
+                return false;
+            Attributes that = (Attributes) o;
+            return color == that.color && size == that.size
+                    && (typeface == null ? that.typeface == null : typeface.equals(that.typeface));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = color;
+            result = 31 * result + size;
+            result = 31 * result + (typeface != null ? typeface.hashCode() : 0);
+            return result;
+        }
     }
 }
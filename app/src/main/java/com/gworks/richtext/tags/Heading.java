@@ -0,0 +1,68 @@
+package com.gworks.richtext.tags;
+
+import android.graphics.Typeface;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import com.gworks.richtext.annotation.MarkupTag;
+import com.gworks.richtext.util.MarkupConverter;
+
+/**
+ * Heading block markup. Each heading level is a separate markup type, so all the headings of
+ * a level can be queried by type.
+ */
+public abstract class Heading extends BlockMarkup {
+
+    private static final float[] SIZES = {2f, 1.5f, 1.17f, 1f};
+
+    private final int level;
+
+    Heading(int level) {
+        this.level = level;
+    }
+
+    @Override
+    protected Object[] createBlockSpans() {
+        return new Object[]{new RelativeSizeSpan(SIZES[level - 1]), new StyleSpan(Typeface.BOLD)};
+    }
+
+    /**
+     * Returns the level of this heading from 1 to 4.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public void convert(StringBuilder sb, MarkupConverter converter, boolean begin) {
+        converter.convertMarkup(sb, this, begin);
+    }
+
+    @MarkupTag(html = "h1", markdownOpen = "# ")
+    public static class H1 extends Heading {
+        public H1() {
+            super(1);
+        }
+    }
+
+    @MarkupTag(html = "h2", markdownOpen = "## ")
+    public static class H2 extends Heading {
+        public H2() {
+            super(2);
+        }
+    }
+
+    @MarkupTag(html = "h3", markdownOpen = "### ")
+    public static class H3 extends Heading {
+        public H3() {
+            super(3);
+        }
+    }
+
+    @MarkupTag(html = "h4", markdownOpen = "#### ")
+    public static class H4 extends Heading {
+        public H4() {
+            super(4);
+        }
+    }
+}
@@ -19,13 +19,16 @@ package com.gworks.richtext.tags;
 import android.graphics.Typeface;
 import android.text.style.StyleSpan;
 
+import com.gworks.richtext.annotation.MarkupTag;
 import com.gworks.richtext.util.MarkupConverter;
 
 
+@MarkupTag(html = "i", markdownOpen = "_", markdownClose = "_")
 public class Italic extends StyleMarkup {
 
-    public Italic() {
-        super(new StyleSpan(Typeface.ITALIC));
+    @Override
+    protected Object createStyleSpan() {
+        return new StyleSpan(Typeface.ITALIC);
     }
 
     @Override
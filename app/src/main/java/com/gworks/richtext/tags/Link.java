@@ -18,16 +18,23 @@ package com.gworks.richtext.tags;
 
 import android.text.style.URLSpan;
 
+import com.gworks.richtext.annotation.MarkupTag;
 import com.gworks.richtext.util.MarkupConverter;
 
 /**
  * Created by Godwin Lewis on 5/11/2017.
  */
 
+@MarkupTag(html = "a", htmlAttribute = "href", markdownOpen = "[", markdownClose = "](%s)")
 public class Link extends SingleSpanAttributedMarkup<String> {
 
     public Link(String url) {
-        super(new URLSpan(url), url);
+        super(url);
+    }
+
+    @Override
+    protected Object createSpan() {
+        return new URLSpan(getAttributes());
     }
 
     @Override
@@ -0,0 +1,159 @@
+package com.gworks.richtext.tags;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.support.annotation.Nullable;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.style.BulletSpan;
+import android.text.style.LeadingMarginSpan;
+
+import com.gworks.richtext.annotation.MarkupTag;
+import com.gworks.richtext.util.MarkupConverter;
+
+/**
+ * Item of a bulleted or numbered list, applied to a line like the other block markups. The
+ * consecutive items form a list and the items of a deeper level following an item are nested
+ * in it. The numbers are not kept in the items, they are looked up from the
+ * {@link Numbering} of the text when drawn, so inserting an item does not renumber the
+ * following items.
+ */
+public abstract class ListItem extends BlockMarkup {
+
+    public static final int MAX_LEVEL = 4;
+
+    // Indent of each level and width of the numbers, in pixels.
+    private static final int INDENT = 48;
+
+    // Gap between the number and the text, in pixels.
+    private static final int NUMBER_GAP = 12;
+
+    /**
+     * Numbers of the numbered items of a text.
+     */
+    public interface Numbering {
+
+        /**
+         * Returns the number of the numbered item in the line at the given offset.
+         */
+        int getNumber(int offset);
+    }
+
+    private final boolean numbered;
+    private final int level;
+    private Numbering numbering;
+
+    ListItem(boolean numbered, int level) {
+        this.numbered = numbered;
+        this.level = level;
+    }
+
+    public boolean isNumbered() {
+        return numbered;
+    }
+
+    /**
+     * Returns the nesting level of this item from 1 to {@link #MAX_LEVEL}.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the numbering of the text this item is applied to, the number is not drawn without
+     * it.
+     */
+    public void setNumbering(@Nullable Numbering numbering) {
+        this.numbering = numbering;
+    }
+
+    @Override
+    protected Object[] createBlockSpans() {
+        Object marker = numbered ? new NumberSpan() : new BulletSpan(NUMBER_GAP);
+        if (level == 1)
+            return new Object[]{marker};
+        return new Object[]{new LeadingMarginSpan.Standard(INDENT * (level - 1)), marker};
+    }
+
+    @Override
+    public void convert(StringBuilder sb, MarkupConverter converter, boolean begin) {
+        converter.convertMarkup(sb, this, begin);
+    }
+
+    // Draws the number of the item in the margin before its first line.
+    private class NumberSpan implements LeadingMarginSpan {
+
+        @Override
+        public int getLeadingMargin(boolean first) {
+            return INDENT;
+        }
+
+        @Override
+        public void drawLeadingMargin(Canvas c, Paint p, int x, int dir, int top, int baseline, int bottom,
+                                      CharSequence text, int start, int end, boolean first, Layout layout) {
+            if (!first || numbering == null || !(text instanceof Spanned) || ((Spanned) text).getSpanStart(this) != start)
+                return;
+            String number = numbering.getNumber(start) + ".";
+            float width = p.measureText(number);
+            // Aligned to the text.
+            float left = dir > 0 ? x + INDENT - NUMBER_GAP - width : x - INDENT + NUMBER_GAP;
+            c.drawText(number, left, baseline, p);
+        }
+    }
+
+    @MarkupTag(html = "li", markdownOpen = "- ")
+    public static class Bullet1 extends ListItem {
+        public Bullet1() {
+            super(false, 1);
+        }
+    }
+
+    @MarkupTag(html = "li", markdownOpen = "  - ")
+    public static class Bullet2 extends ListItem {
+        public Bullet2() {
+            super(false, 2);
+        }
+    }
+
+    @MarkupTag(html = "li", markdownOpen = "    - ")
+    public static class Bullet3 extends ListItem {
+        public Bullet3() {
+            super(false, 3);
+        }
+    }
+
+    @MarkupTag(html = "li", markdownOpen = "      - ")
+    public static class Bullet4 extends ListItem {
+        public Bullet4() {
+            super(false, 4);
+        }
+    }
+
+    @MarkupTag(html = "li", markdownOpen = "1. ")
+    public static class Numbered1 extends ListItem {
+        public Numbered1() {
+            super(true, 1);
+        }
+    }
+
+    @MarkupTag(html = "li", markdownOpen = "   1. ")
+    public static class Numbered2 extends ListItem {
+        public Numbered2() {
+            super(true, 2);
+        }
+    }
+
+    @MarkupTag(html = "li", markdownOpen = "      1. ")
+    public static class Numbered3 extends ListItem {
+        public Numbered3() {
+            super(true, 3);
+        }
+    }
+
+    @MarkupTag(html = "li", markdownOpen = "         1. ")
+    public static class Numbered4 extends ListItem {
+        public Numbered4() {
+            super(true, 4);
+        }
+    }
+}
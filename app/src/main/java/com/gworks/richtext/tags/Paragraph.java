@@ -0,0 +1,23 @@
+package com.gworks.richtext.tags;
+
+import com.gworks.richtext.annotation.MarkupTag;
+import com.gworks.richtext.util.MarkupConverter;
+
+/**
+ * Paragraph block markup. It has no visual style of its own.
+ */
+@MarkupTag(html = "p", markdownClose = "\n")
+public class Paragraph extends BlockMarkup {
+
+    private static final Object[] NO_SPANS = {};
+
+    @Override
+    protected Object[] createBlockSpans() {
+        return NO_SPANS;
+    }
+
+    @Override
+    public void convert(StringBuilder sb, MarkupConverter converter, boolean begin) {
+        converter.convertMarkup(sb, this, begin);
+    }
+}
@@ -8,21 +8,31 @@ import android.text.Spannable;
 
 public abstract class SingleSpanAttributedMarkup<ATTR> extends BaseAttributedMarkup<ATTR> {
 
-    private final Object span;
+    // Created when applied and released when removed.
+    private Object span;
 
-    public SingleSpanAttributedMarkup(Object span, ATTR attributes) {
+    public SingleSpanAttributedMarkup(ATTR attributes) {
         super(attributes);
-        this.span = span;
     }
 
+    /**
+     * Creates the android span of this markup.
+     */
+    protected abstract Object createSpan();
+
     @Override
     public void apply(Spannable text, int from, int to, int flags) {
+        if (span == null)
+            span = createSpan();
         text.setSpan(span, from, to, flags);
     }
 
     @Override
     public void remove(Spannable text) {
-        text.removeSpan(span);
+        if (span != null) {
+            text.removeSpan(span);
+            span = null;
+        }
     }
 
 }
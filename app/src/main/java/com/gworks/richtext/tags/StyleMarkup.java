@@ -8,11 +8,13 @@ import android.text.Spannable;
 
 public abstract class StyleMarkup extends Markup {
 
+    // Created when applied and released when removed.
     private Object styleSpan;
 
-    public StyleMarkup(Object styleSpan) {
-        this.styleSpan = styleSpan;
-    }
+    /**
+     * Creates the android span styling the text of this markup.
+     */
+    protected abstract Object createStyleSpan();
 
     @Override
     public boolean canExistWith(Class<? extends Markup> anotherType) {
@@ -21,12 +23,17 @@ public abstract class StyleMarkup extends Markup {
 
     @Override
     public void apply(Spannable text, int from, int to, int flags) {
+        if (styleSpan == null)
+            styleSpan = createStyleSpan();
         text.setSpan(styleSpan, from, to, flags);
     }
 
     @Override
     public void remove(Spannable text) {
-        text.removeSpan(styleSpan);
+        if (styleSpan != null) {
+            text.removeSpan(styleSpan);
+            styleSpan = null;
+        }
     }
 
     @Override
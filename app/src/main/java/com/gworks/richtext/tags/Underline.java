@@ -18,16 +18,19 @@ package com.gworks.richtext.tags;
 
 import android.text.style.UnderlineSpan;
 
+import com.gworks.richtext.annotation.MarkupTag;
 import com.gworks.richtext.util.MarkupConverter;
 
 /**
  * Created by Godwin Lewis on 5/9/2017.
  */
 
+@MarkupTag(html = "u")
 public class Underline extends StyleMarkup {
 
-    public Underline() {
-        super(new UnderlineSpan());
+    @Override
+    protected Object createStyleSpan() {
+        return new UnderlineSpan();
     }
 
     @Override
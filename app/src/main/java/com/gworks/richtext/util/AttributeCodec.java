@@ -0,0 +1,17 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.Markup;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes the attributes of the attributed markups.
+ */
+public interface AttributeCodec {
+
+    void writeAttributes(DataOutput out, Object attributes) throws IOException;
+
+    Object readAttributes(DataInput in, Class<? extends Markup> markupType) throws IOException;
+}
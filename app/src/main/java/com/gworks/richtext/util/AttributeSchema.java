@@ -0,0 +1,114 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.Font;
+
+/**
+ * Describes how the attributes of a type are packed in an {@link AttributeStore}. The fields
+ * are declared as {@link AttributeValue}s of Integer, Boolean or String with their default
+ * values, and each field takes an int slot: the value, 0 or 1, or the handle of the string in
+ * the string pool of the store.
+ *
+ * @param <ATTR> type of the attributes
+ */
+public abstract class AttributeSchema<ATTR> {
+
+    public static final AttributeSchema<String> STRING = new AttributeSchema<String>(String.class,
+            new AttributeValue<>(String.class, null)) {
+        @Override
+        protected void pack(String attributes, Packer packer) {
+            packer.putString(attributes);
+        }
+
+        @Override
+        protected String unpack(Unpacker unpacker) {
+            return unpacker.getString();
+        }
+    };
+
+    public static final AttributeSchema<Integer> INTEGER = new AttributeSchema<Integer>(Integer.class,
+            new AttributeValue<>(Integer.class, 0)) {
+        @Override
+        protected void pack(Integer attributes, Packer packer) {
+            packer.putInt(attributes);
+        }
+
+        @Override
+        protected Integer unpack(Unpacker unpacker) {
+            return unpacker.getInt();
+        }
+    };
+
+    public static final AttributeSchema<Font.Attributes> FONT = new AttributeSchema<Font.Attributes>(Font.Attributes.class,
+            new AttributeValue<>(String.class, null), new AttributeValue<>(Integer.class, -1),
+            new AttributeValue<>(Integer.class, 0)) {
+        @Override
+        protected void pack(Font.Attributes attributes, Packer packer) {
+            packer.putString(attributes.typeface);
+            packer.putInt(attributes.size);
+            packer.putInt(attributes.color);
+        }
+
+        @Override
+        protected Font.Attributes unpack(Unpacker unpacker) {
+            String typeface = unpacker.getString();
+            int size = unpacker.getInt();
+            return new Font.Attributes(typeface, size, unpacker.getInt());
+        }
+    };
+
+    /**
+     * Writes the fields in the order of the schema.
+     */
+    public interface Packer {
+        void putInt(int value);
+        void putBoolean(boolean value);
+        void putString(String value);
+    }
+
+    /**
+     * Reads the fields in the order of the schema.
+     */
+    public interface Unpacker {
+        int getInt();
+        boolean getBoolean();
+        String getString();
+    }
+
+    private final Class<ATTR> attributesClass;
+    private final AttributeValue<?>[] fields;
+
+    protected AttributeSchema(Class<ATTR> attributesClass, AttributeValue<?>... fields) {
+        for (AttributeValue<?> field : fields) {
+            Class<?> valueClass = field.getValueClass();
+            if (valueClass != Integer.class && valueClass != Boolean.class && valueClass != String.class)
+                throw new IllegalArgumentException("Unsupported field type " + valueClass);
+        }
+        this.attributesClass = attributesClass;
+        this.fields = fields.clone();
+    }
+
+    public Class<ATTR> getAttributesClass() {
+        return attributesClass;
+    }
+
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    /**
+     * Returns the type and the default value of the given field.
+     */
+    public AttributeValue<?> getField(int field) {
+        return fields[field];
+    }
+
+    /**
+     * Writes the fields of the given attributes with the given packer.
+     */
+    protected abstract void pack(ATTR attributes, Packer packer);
+
+    /**
+     * Creates the attributes from the fields read with the given unpacker.
+     */
+    protected abstract ATTR unpack(Unpacker unpacker);
+}
@@ -0,0 +1,288 @@
+package com.gworks.richtext.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Interned storage of markup attributes. The attributes of the types having an
+ * {@link AttributeSchema} are packed into a single int array and the strings in them are
+ * interned in a pool, other attributes are pooled as objects by equality. Equal attributes get
+ * the same int handle, so comparing the attributes of two markups (for merging adjacent
+ * markups or deduplicating) is comparing two ints once interned.
+ * <p>
+ * Built in schemas are registered for strings, integers and font attributes. The store is not
+ * thread safe: interning grows the arrays read by the other methods.
+ */
+public class AttributeStore {
+
+    /**
+     * Handle of no (null) attributes.
+     */
+    public static final int NO_ATTRIBUTES = -1;
+
+    private static final int NO_STRING = -1;
+
+    // Schema id of the attributes pooled as objects, the slot is the index in the objects.
+    private static final int OBJECT = -1;
+
+    private final List<AttributeSchema<?>> schemas = new ArrayList<>();
+    private final HashMap<Class<?>, Integer> schemaIds = new HashMap<>();
+
+    private final List<String> strings = new ArrayList<>();
+    private final HashMap<String, Integer> stringHandles = new HashMap<>();
+
+    private final List<Object> objects = new ArrayList<>();
+    private final HashMap<Object, Integer> objectIndexes = new HashMap<>();
+
+    // Records of schema id followed by the fields, starting at the record starts.
+    private int[] slots = new int[64];
+    private int slotCount;
+    private int[] recordStarts = new int[16];
+    private int recordCount;
+
+    // Open addressing table of the handles by the hash of their records, -1 if empty.
+    private int[] table = newTable(32);
+
+    private final RecordPacker packer = new RecordPacker();
+
+    public AttributeStore() {
+        register(AttributeSchema.STRING);
+        register(AttributeSchema.INTEGER);
+        register(AttributeSchema.FONT);
+    }
+
+    /**
+     * Registers the given schema for packing its type of attributes, replacing the schema of
+     * the type if any. Register the schemas before interning.
+     */
+    public void register(AttributeSchema<?> schema) {
+        schemaIds.put(schema.getAttributesClass(), schemas.size());
+        schemas.add(schema);
+    }
+
+    /**
+     * Returns the handle of the given attributes, the same for equal attributes.
+     *
+     * @param attributes attributes or null
+     */
+    @SuppressWarnings("unchecked")
+    public int intern(Object attributes) {
+        if (attributes == null)
+            return NO_ATTRIBUTES;
+        Integer schemaId = schemaIds.get(attributes.getClass());
+        int start = slotCount;
+        if (schemaId == null) {
+            Integer index = objectIndexes.get(attributes);
+            if (index == null) {
+                index = objects.size();
+                objectIndexes.put(attributes, index);
+                objects.add(attributes);
+            }
+            ensureSlots(2);
+            slots[slotCount++] = OBJECT;
+            slots[slotCount++] = index;
+        } else {
+            AttributeSchema<Object> schema = (AttributeSchema<Object>) schemas.get(schemaId);
+            ensureSlots(1 + schema.getFieldCount());
+            slots[slotCount++] = schemaId;
+            packer.start(schema);
+            schema.pack(attributes, packer);
+            packer.finish();
+        }
+
+        int hash = hash(start, slotCount);
+        int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int handle = table[i];
+            if (handle == -1)
+                break;
+            if (isRecord(handle, start, slotCount)) {
+                // Already interned, drop the packed copy.
+                slotCount = start;
+                return handle;
+            }
+        }
+
+        if (recordCount == recordStarts.length)
+            recordStarts = Arrays.copyOf(recordStarts, recordCount * 2);
+        recordStarts[recordCount] = start;
+        int handle = recordCount++;
+        if (recordCount * 2 > table.length)
+            rehash();
+        else
+            insert(table, hash, handle);
+        return handle;
+    }
+
+    /**
+     * Returns the attributes of the given handle, unpacked as new attributes.
+     */
+    public Object get(int handle) {
+        if (handle == NO_ATTRIBUTES)
+            return null;
+        int start = recordStarts[handle];
+        if (slots[start] == OBJECT)
+            return objects.get(slots[start + 1]);
+        return schemas.get(slots[start]).unpack(new RecordUnpacker(start + 1));
+    }
+
+    /**
+     * Returns the given int field of the attributes of the given handle without unpacking
+     * them, the default value of the field if the handle has no attributes.
+     */
+    public int getInt(AttributeSchema<?> schema, int handle, int field) {
+        if (handle == NO_ATTRIBUTES)
+            return (Integer) schema.getField(field).getValue();
+        return slots[fieldSlot(schema, handle, field)];
+    }
+
+    /**
+     * Returns the given string field of the attributes of the given handle without unpacking
+     * them, the default value of the field if the handle has no attributes.
+     */
+    public String getString(AttributeSchema<?> schema, int handle, int field) {
+        if (handle == NO_ATTRIBUTES)
+            return (String) schema.getField(field).getValue();
+        int string = slots[fieldSlot(schema, handle, field)];
+        return string == NO_STRING ? null : strings.get(string);
+    }
+
+    /**
+     * Returns the number of distinct attributes interned.
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    private int fieldSlot(AttributeSchema<?> schema, int handle, int field) {
+        int start = recordStarts[handle];
+        if (slots[start] == OBJECT || schemas.get(slots[start]) != schema)
+            throw new IllegalArgumentException("Attributes of " + handle + " are not of the schema");
+        return start + 1 + field;
+    }
+
+    private int internString(String string) {
+        if (string == null)
+            return NO_STRING;
+        Integer handle = stringHandles.get(string);
+        if (handle == null) {
+            handle = strings.size();
+            stringHandles.put(string, handle);
+            strings.add(string);
+        }
+        return handle;
+    }
+
+    private void ensureSlots(int count) {
+        if (slotCount + count > slots.length)
+            slots = Arrays.copyOf(slots, Math.max(slots.length * 2, slotCount + count));
+    }
+
+    private int hash(int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + slots[i];
+        return hash ^ (hash >>> 16);
+    }
+
+    // Whether the record of the given handle has the slots in the given range.
+    private boolean isRecord(int handle, int start, int end) {
+        int recordStart = recordStarts[handle];
+        int recordEnd = handle + 1 < recordCount ? recordStarts[handle + 1] : start;
+        if (recordEnd - recordStart != end - start)
+            return false;
+        for (int i = 0; i < end - start; i++)
+            if (slots[recordStart + i] != slots[start + i])
+                return false;
+        return true;
+    }
+
+    private void rehash() {
+        table = newTable(table.length * 2);
+        for (int handle = 0; handle < recordCount; handle++) {
+            int start = recordStarts[handle];
+            int end = handle + 1 < recordCount ? recordStarts[handle + 1] : slotCount;
+            insert(table, hash(start, end), handle);
+        }
+    }
+
+    private static void insert(int[] table, int hash, int handle) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != -1)
+            i = (i + 1) & mask;
+        table[i] = handle;
+    }
+
+    private static int[] newTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    private class RecordPacker implements AttributeSchema.Packer {
+
+        private AttributeSchema<?> schema;
+        private int field;
+
+        void start(AttributeSchema<?> schema) {
+            this.schema = schema;
+            field = 0;
+        }
+
+        void finish() {
+            if (field != schema.getFieldCount())
+                throw new IllegalStateException("Not all the fields of " + schema.getAttributesClass() + " are packed");
+        }
+
+        @Override
+        public void putInt(int value) {
+            put(Integer.class, value);
+        }
+
+        @Override
+        public void putBoolean(boolean value) {
+            put(Boolean.class, value ? 1 : 0);
+        }
+
+        @Override
+        public void putString(String value) {
+            put(String.class, internString(value));
+        }
+
+        private void put(Class<?> valueClass, int slot) {
+            if (field == schema.getFieldCount() || schema.getField(field).getValueClass() != valueClass)
+                throw new IllegalStateException("Field " + field + " of " + schema.getAttributesClass()
+                        + " is not a " + valueClass.getSimpleName());
+            slots[slotCount++] = slot;
+            field++;
+        }
+    }
+
+    private class RecordUnpacker implements AttributeSchema.Unpacker {
+
+        private int position;
+
+        RecordUnpacker(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public int getInt() {
+            return slots[position++];
+        }
+
+        @Override
+        public boolean getBoolean() {
+            return slots[position++] != 0;
+        }
+
+        @Override
+        public String getString() {
+            int string = slots[position++];
+            return string == NO_STRING ? null : strings.get(string);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.gworks.richtext.util;
+
+import android.text.Spanned;
+
+import com.gworks.richtext.tags.BlockMarkup;
+import com.gworks.richtext.tags.ListItem;
+
+import java.util.List;
+
+/**
+ * Index of the line starts in the text and the block markup applied in each line. The lines are
+ * kept in a {@link LineTree}, so finding a line, typing in it, inserting or removing lines and
+ * listing the blocks of a type do not walk all the lines.
+ */
+public class BlockIndex implements ListItem.Numbering {
+
+    private final LineTree lines;
+
+    // List items of the lines, for numbering them.
+    private final ListIndex lists;
+
+    public BlockIndex(CharSequence text) {
+        int length = text.length();
+        int lineCount = 1;
+        for (int i = 0; i < length; i++)
+            if (text.charAt(i) == '\n')
+                lineCount++;
+        lines = new LineTree(lineCount);
+        lists = new ListIndex(lines, null, null);
+        int line = 0;
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == '\n') {
+                lines.setLength(line++, i + 1 - lineStart);
+                lineStart = i + 1;
+            }
+        }
+        lines.setLength(line, length - lineStart);
+    }
+
+    public int getLineCount() {
+        return lines.size();
+    }
+
+    /**
+     * Returns the start of the given line.
+     */
+    public int getLineStart(int line) {
+        return lines.getStart(line);
+    }
+
+    /**
+     * Returns the end of the given line excluding the line break.
+     */
+    public int getLineEnd(int line) {
+        int end = lines.getStart(line) + lines.getLength(line);
+        return line + 1 < lines.size() ? end - 1 : end;
+    }
+
+    /**
+     * Returns the line containing the given offset.
+     */
+    public int getLineOf(int offset) {
+        return lines.getLineOf(offset);
+    }
+
+    /**
+     * Returns the block markup applied in the given line or null if none.
+     */
+    public BlockMarkup getBlock(int line) {
+        return lines.getBlock(line);
+    }
+
+    /**
+     * Sets the block markup of the given line and returns the previous one.
+     */
+    public BlockMarkup setBlock(int line, BlockMarkup block) {
+        BlockMarkup previous = lines.setBlock(line, block);
+        if (block instanceof ListItem)
+            ((ListItem) block).setNumbering(this);
+        return previous;
+    }
+
+    /**
+     * Returns the block markups of the given type in the order of their lines.
+     */
+    public <T extends BlockMarkup> List<T> getBlocks(Class<T> blockType) {
+        return lines.getBlocks(blockType);
+    }
+
+    /**
+     * Returns the index of the list items of the lines.
+     */
+    public ListIndex getListIndex() {
+        return lists;
+    }
+
+    /**
+     * Returns the index of the list items of the lines finding the lines of the items in the
+     * given text, for exporting the text.
+     */
+    /*default*/ ListIndex getListIndex(Spanned text) {
+        return lists.forText(text);
+    }
+
+    /**
+     * Returns the number of nodes of the line tree visited and lines scanned so far, for the
+     * scaling tests.
+     */
+    /*default*/ long getSteps() {
+        return lines.getSteps();
+    }
+
+    /**
+     * Returns the number of the numbered list item in the line of the given offset.
+     */
+    @Override
+    public int getNumber(int offset) {
+        return lists.getNumber(getLineOf(offset));
+    }
+
+    /**
+     * Updates the index for the replacement of <code>before</code> characters at
+     * <code>start</code> with <code>count</code> characters of the given text. The lines
+     * created by the replacement have no block markup.
+     *
+     * @param text    text after the replacement
+     * @param removed block markups of the removed (merged) lines are added to this
+     */
+    public void replace(CharSequence text, int start, int before, int count, List<BlockMarkup> removed) {
+        int first = lines.getLineOf(start);
+        int last = lines.getLineOf(start + before);
+        int newLines = 0;
+        for (int i = start, end = start + count; i < end; i++)
+            if (text.charAt(i) == '\n')
+                newLines++;
+
+        if (first == last && newLines == 0) {
+            // Common case of typing in a line.
+            lines.addLength(first, count - before);
+            return;
+        }
+
+        int lineStart = lines.getStart(first);
+        // Length of the rest of the last line after the replaced range.
+        int tailLength = lines.getStart(last) + lines.getLength(last) - start - before;
+        lines.remove(first + 1, last - first, removed);
+        lines.insert(first + 1, newLines);
+
+        int line = first;
+        for (int i = start, end = start + count; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                lines.setLength(line++, i + 1 - lineStart);
+                lineStart = i + 1;
+            }
+        }
+        lines.setLength(line, start + count + tailLength - lineStart);
+    }
+}
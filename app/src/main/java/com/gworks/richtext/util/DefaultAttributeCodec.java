@@ -0,0 +1,62 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.Font;
+import com.gworks.richtext.tags.Markup;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes the attributes of the built in markups: strings (like the url of a link), integers
+ * and font attributes.
+ */
+public class DefaultAttributeCodec implements AttributeCodec {
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INTEGER = 2;
+    private static final int FONT = 3;
+
+    @Override
+    public void writeAttributes(DataOutput out, Object attributes) throws IOException {
+        if (attributes == null) {
+            out.writeByte(NULL);
+        } else if (attributes instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) attributes);
+        } else if (attributes instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) attributes);
+        } else if (attributes instanceof Font.Attributes) {
+            Font.Attributes font = (Font.Attributes) attributes;
+            out.writeByte(FONT);
+            out.writeBoolean(font.typeface != null);
+            if (font.typeface != null)
+                out.writeUTF(font.typeface);
+            out.writeInt(font.size);
+            out.writeInt(font.color);
+        } else {
+            throw new IllegalArgumentException("Unsupported attributes " + attributes.getClass());
+        }
+    }
+
+    @Override
+    public Object readAttributes(DataInput in, Class<? extends Markup> markupType) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readUTF();
+            case INTEGER:
+                return in.readInt();
+            case FONT:
+                String typeface = in.readBoolean() ? in.readUTF() : null;
+                int size = in.readInt();
+                return new Font.Attributes(typeface, size, in.readInt());
+            default:
+                throw new IOException("Unknown attributes " + type);
+        }
+    }
+}
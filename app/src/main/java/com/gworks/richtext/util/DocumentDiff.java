@@ -0,0 +1,131 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.Markup;
+
+import java.util.Arrays;
+
+/**
+ * Computes the {@link DocumentPatch} between two versions of a rich text document given as the
+ * text and its {@link SpanTable}.
+ * <p>
+ * The text is diffed first. The old markups are then remapped through the text edits and
+ * compared with the new markups, so only the markups touched by the edits or changed otherwise
+ * end up in the patch.
+ */
+public final class DocumentDiff {
+
+    private DocumentDiff() {
+    }
+
+    public static DocumentPatch diff(CharSequence oldText, SpanTable oldSpans, CharSequence newText, SpanTable newSpans) {
+        int[] edits = TextDiff.diff(oldText, newText);
+        int editCount = edits.length >> 2;
+        int[] editRanges = new int[editCount << 1];
+        int[] deltas = new int[editCount];
+        CharSequence[] replacements = new CharSequence[editCount];
+        int delta = 0;
+        for (int i = 0; i < editCount; i++) {
+            int oldStart = edits[i << 2];
+            int oldEnd = edits[(i << 2) + 1];
+            int newStart = edits[(i << 2) + 2];
+            int newEnd = edits[(i << 2) + 3];
+            editRanges[i << 1] = oldStart;
+            editRanges[(i << 1) + 1] = oldEnd;
+            replacements[i] = newText.subSequence(newStart, newEnd).toString();
+            delta += (newEnd - newStart) - (oldEnd - oldStart);
+            deltas[i] = delta;
+        }
+
+        Collector removed = new Collector(oldSpans.size());
+        Collector added = new Collector(newSpans.size());
+        boolean[] matched = new boolean[newSpans.size()];
+
+        int j = 0;
+        for (int i = 0; i < oldSpans.size(); i++) {
+            int start = remap(oldSpans.getStart(i), editRanges, deltas);
+            int end = remap(oldSpans.getEnd(i), editRanges, deltas);
+            if (start < 0 || end < 0) {
+                // Touched by the edits, the markup is removed and reapplied if still present.
+                removed.add(oldSpans, i);
+                continue;
+            }
+            // Skip the new markups ordered before this markup.
+            while (j < newSpans.size() && compare(newSpans.getStart(j), newSpans.getEnd(j), start, end) < 0) {
+                if (!matched[j])
+                    added.add(newSpans, j);
+                j++;
+            }
+            // Match with a new markup of the same range and type.
+            boolean found = false;
+            for (int k = j; k < newSpans.size() && newSpans.getStart(k) == start && newSpans.getEnd(k) == end; k++) {
+                if (!matched[k] && SpanTable.isSameMarkup(oldSpans.getMarkup(i), newSpans.getMarkup(k))) {
+                    matched[k] = true;
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                removed.add(oldSpans, i);
+        }
+        for (; j < newSpans.size(); j++)
+            if (!matched[j])
+                added.add(newSpans, j);
+
+        return new DocumentPatch(editRanges, replacements, removed.toSpanTable(), added.toSpanTable());
+    }
+
+    // Returns the index in the new text of the given index in the old text, or -1 if the index is
+    // inside or at the boundary of an edit, as its position then depends on the span flags.
+    private static int remap(int index, int[] editRanges, int[] deltas) {
+        int low = 0;
+        int high = deltas.length - 1;
+        int edit = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (editRanges[mid << 1] <= index) {
+                edit = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (edit < 0)
+            return index;
+        if (index <= editRanges[(edit << 1) + 1])
+            return -1;
+        return index + deltas[edit];
+    }
+
+    // Compares the ranges in the span table order.
+    private static int compare(int start1, int end1, int start2, int end2) {
+        if (start1 != start2)
+            return start1 < start2 ? -1 : 1;
+        return end1 == end2 ? 0 : (end1 > end2 ? -1 : 1);
+    }
+
+    // Collects the entries of span tables in order.
+    private static class Collector {
+        private final Markup[] markups;
+        private final int[] starts;
+        private final int[] ends;
+        private int size;
+
+        Collector(int capacity) {
+            markups = new Markup[capacity];
+            starts = new int[capacity];
+            ends = new int[capacity];
+        }
+
+        void add(SpanTable table, int index) {
+            markups[size] = table.getMarkup(index);
+            starts[size] = table.getStart(index);
+            ends[size++] = table.getEnd(index);
+        }
+
+        SpanTable toSpanTable() {
+            if (size == 0)
+                return SpanTable.EMPTY;
+            return new SpanTable(Arrays.copyOf(markups, size), Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+        }
+    }
+}
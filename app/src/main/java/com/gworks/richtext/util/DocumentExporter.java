@@ -0,0 +1,207 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.BlockMarkup;
+import com.gworks.richtext.tags.Markup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exports a document to several formats in a single traversal of its text runs and markup
+ * transitions, like the html, the markdown and the plain text when saving. Each format is a
+ * {@link MarkupConverter} writing to its own appendable, a plain {@link MarkupConverter}
+ * without an unknown markup handler gives the plain text. The crossing markups are closed and
+ * reopened at the crossing points so that the output is always well formed. This is the only
+ * traversal of the markups for exporting, {@link DocumentSnapshot#getHtml()} and
+ * {@link RichTexter#getHtml()} go through it too.
+ * <pre>
+ *     new DocumentExporter()
+ *             .add(new HtmlConverter(null), htmlWriter)
+ *             .add(new MarkdownConverter(null), markdownWriter)
+ *             .export(texter.snapshot());
+ * </pre>
+ */
+public class DocumentExporter {
+
+    // Output buffered for each sink before appending it to the sink.
+    private static final int FLUSH_LENGTH = 8192;
+
+    private final List<Sink> sinks = new ArrayList<>();
+
+    /**
+     * Adds a format to export.
+     *
+     * @param converter converter of the markups of the format
+     * @param out output of the format
+     * @return this exporter
+     */
+    public DocumentExporter add(MarkupConverter converter, Appendable out) {
+        return add(converter, out, null);
+    }
+
+    /**
+     * Adds a format to export, mapping the offsets of the text to the offsets of the output
+     * in the given builder.
+     */
+    /*default*/ DocumentExporter add(MarkupConverter converter, Appendable out, OffsetMap.Builder offsets) {
+        sinks.add(new Sink(converter, out, offsets));
+        return this;
+    }
+
+    /**
+     * Returns the html of the given text and its markups.
+     *
+     * @param lists index of the list items of the text, null to build it from the markups
+     * @param offsets builder of the map of the offsets of the text to the html, null if none
+     */
+    /*default*/ static String toHtml(CharSequence text, SpanTable spans, ListIndex lists,
+                                     MarkupConverter.UnknownMarkupHandler unknownMarkupHandler,
+                                     OffsetMap.Builder offsets) {
+        StringBuilder html = new StringBuilder(text.length());
+        try {
+            new DocumentExporter()
+                    .add(new HtmlConverter(unknownMarkupHandler), html, offsets)
+                    .export(text, spans, lists != null ? lists : ListIndex.of(text, spans));
+        } catch (IOException e) {
+            // Not thrown by the string builder.
+            throw new IllegalStateException(e);
+        }
+        return html.toString();
+    }
+
+    /**
+     * Exports the given snapshot to all the formats added.
+     */
+    public void export(DocumentSnapshot snapshot) throws IOException {
+        export(snapshot.getText(), snapshot.getSpanTable());
+    }
+
+    /**
+     * Exports the given text and its markups to all the formats added.
+     */
+    public void export(CharSequence text, SpanTable spans) throws IOException {
+        export(text, spans, ListIndex.of(text, spans));
+    }
+
+    /*default*/ void export(CharSequence text, SpanTable spans, ListIndex lists) throws IOException {
+        int size = spans.size();
+        Sink[] sinks = this.sinks.toArray(new Sink[this.sinks.size()]);
+        for (Sink sink : sinks) {
+            sink.reset();
+            sink.converter.setListIndex(lists);
+        }
+
+        // Indexes of the spans sorted by end.
+        long[] byEnd = new long[size];
+        for (int i = 0; i < size; i++)
+            byEnd[i] = (long) spans.getEnd(i) << 32 | i;
+        Arrays.sort(byEnd);
+
+        List<Markup> endingSpans = new ArrayList<>();
+        int nextStart = 0;
+        int nextEnd = 0;
+        int index = 0;
+        int end = text.length();
+        while (true) {
+            endingSpans.clear();
+            for (; nextEnd < size && (int) (byEnd[nextEnd] >> 32) == index; nextEnd++)
+                endingSpans.add(spans.getMarkup((int) byEnd[nextEnd]));
+            if (!endingSpans.isEmpty())
+                for (Sink sink : sinks)
+                    sink.openSpans.close(endingSpans, sink.buffer, sink.converter);
+
+            int first = nextStart;
+            while (nextStart < size && spans.getStart(nextStart) == index)
+                nextStart++;
+            // Block markups are opened before the other markups starting here.
+            for (int i = first; i < nextStart; i++)
+                if (spans.getMarkup(i) instanceof BlockMarkup)
+                    open(spans, i, sinks);
+            for (int i = first; i < nextStart; i++)
+                if (!(spans.getMarkup(i) instanceof BlockMarkup))
+                    open(spans, i, sinks);
+
+            for (Sink sink : sinks)
+                if (sink.offsets != null)
+                    sink.offsets.add(index, sink.length());
+            if (index >= end)
+                break;
+
+            int nextIndex = end;
+            if (nextStart < size)
+                nextIndex = Math.min(nextIndex, spans.getStart(nextStart));
+            if (nextEnd < size)
+                nextIndex = Math.min(nextIndex, (int) (byEnd[nextEnd] >> 32));
+            for (Sink sink : sinks) {
+                sink.convertText(text, index, nextIndex);
+                if (sink.buffer.length() >= FLUSH_LENGTH)
+                    sink.flush();
+            }
+            index = nextIndex;
+        }
+        for (Sink sink : sinks)
+            sink.flush();
+    }
+
+    private static void open(SpanTable spans, int i, Sink[] sinks) {
+        Markup markup = spans.getMarkup(i);
+        boolean empty = spans.getEnd(i) == spans.getStart(i);
+        for (Sink sink : sinks) {
+            if (empty) {
+                // Empty span, open and close immediately.
+                sink.converter.convert(sink.buffer, markup, true);
+                sink.converter.convert(sink.buffer, markup, false);
+            } else {
+                sink.openSpans.open(markup, sink.buffer, sink.converter);
+            }
+        }
+    }
+
+    private static class Sink {
+        final MarkupConverter converter;
+        final Appendable out;
+        final OffsetMap.Builder offsets;
+        final StringBuilder buffer = new StringBuilder();
+        OpenMarkupStack openSpans;
+        // Length of the output flushed to out.
+        int flushed;
+
+        Sink(MarkupConverter converter, Appendable out, OffsetMap.Builder offsets) {
+            this.converter = converter;
+            this.out = out;
+            this.offsets = offsets;
+        }
+
+        void reset() {
+            buffer.setLength(0);
+            openSpans = new OpenMarkupStack();
+            flushed = 0;
+        }
+
+        int length() {
+            return flushed + buffer.length();
+        }
+
+        void convertText(CharSequence text, int start, int end) {
+            int bufferStart = buffer.length();
+            converter.convertText(buffer, text, start, end);
+            if (offsets == null || buffer.length() - bufferStart == end - start)
+                return;
+            // Some characters are escaped, each character gets its own run in the map.
+            buffer.setLength(bufferStart);
+            for (int i = start; i < end; i++) {
+                if (i > start)
+                    offsets.add(i, length());
+                converter.convertText(buffer, text, i, i + 1);
+            }
+        }
+
+        void flush() throws IOException {
+            out.append(buffer);
+            flushed += buffer.length();
+            buffer.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.gworks.richtext.util;
+
+/**
+ * A patch turning a rich text document into another. It is made of the text edits and the
+ * markups removed and added around them. Apply it with {@link RichEditTexter#applyPatch(DocumentPatch)}.
+ * <p>
+ * The patch is applied in the order: the removed markups are removed (looked up by their ranges
+ * in the old text), the text edits are applied and then the added markups are applied (in the
+ * ranges of the new text).
+ *
+ * @see DocumentDiff
+ */
+public class DocumentPatch {
+
+    // Ranges of the old text replaced by the edits, as (start, end) pairs sorted by offset.
+    private final int[] editRanges;
+
+    // Texts replacing the edit ranges.
+    private final CharSequence[] replacements;
+
+    private final SpanTable removedSpans;
+
+    private final SpanTable addedSpans;
+
+    /*default*/ DocumentPatch(int[] editRanges, CharSequence[] replacements, SpanTable removedSpans, SpanTable addedSpans) {
+        this.editRanges = editRanges;
+        this.replacements = replacements;
+        this.removedSpans = removedSpans;
+        this.addedSpans = addedSpans;
+    }
+
+    public boolean isEmpty() {
+        return replacements.length == 0 && removedSpans.size() == 0 && addedSpans.size() == 0;
+    }
+
+    public int getEditCount() {
+        return replacements.length;
+    }
+
+    /**
+     * Returns the start of the range of the old text replaced by the given edit.
+     */
+    public int getEditStart(int edit) {
+        return editRanges[edit << 1];
+    }
+
+    /**
+     * Returns the end of the range of the old text replaced by the given edit.
+     */
+    public int getEditEnd(int edit) {
+        return editRanges[(edit << 1) + 1];
+    }
+
+    /**
+     * Returns the text replacing the given edit range.
+     */
+    public CharSequence getReplacement(int edit) {
+        return replacements[edit];
+    }
+
+    /**
+     * Returns the markups to be removed, in the ranges of the old text.
+     */
+    public SpanTable getRemovedSpans() {
+        return removedSpans;
+    }
+
+    /**
+     * Returns the markups to be added, in the ranges of the new text.
+     */
+    public SpanTable getAddedSpans() {
+        return addedSpans;
+    }
+}
@@ -0,0 +1,64 @@
+package com.gworks.richtext.util;
+
+/**
+ * Immutable snapshot of the text and the markups of a {@link RichTexter}. Taking a snapshot
+ * costs O(1) as it shares the persistent rope kept by the texter, so it can be taken on every
+ * change and read (exported, indexed, saved) on any thread while the user keeps typing.
+ */
+public class DocumentSnapshot {
+
+    private final Rope rope;
+    private final long version;
+
+    // Built on first use.
+    private SpanTable spanTable;
+
+    /*default*/ DocumentSnapshot(Rope rope, long version) {
+        this.rope = rope;
+        this.version = version;
+    }
+
+    /**
+     * Returns the version of the document in this snapshot. The version of a document changes
+     * whenever its text or markups change, so it can key the data computed from a snapshot.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the text of this snapshot.
+     */
+    public CharSequence getText() {
+        return rope;
+    }
+
+    public String getPlainText() {
+        return rope.toString();
+    }
+
+    /**
+     * Returns the table of all the markups in this snapshot.
+     */
+    public synchronized SpanTable getSpanTable() {
+        if (spanTable == null)
+            spanTable = rope.getSpanTable();
+        return spanTable;
+    }
+
+    /**
+     * Returns the html equivalent of this snapshot.
+     */
+    public String getHtml() {
+        return getHtml(null);
+    }
+
+    /**
+     * Returns the html equivalent of this snapshot, exported by the {@link DocumentExporter}.
+     *
+     * @param unknownMarkupHandler the handler to handle the unknown markups.
+     */
+    public String getHtml(MarkupConverter.UnknownMarkupHandler unknownMarkupHandler) {
+        return DocumentExporter.toHtml(rope, getSpanTable(), null, unknownMarkupHandler, null);
+    }
+}
@@ -1,9 +1,16 @@
 package com.gworks.richtext.util;
 
+import com.gworks.richtext.markup.HtmlWriter;
+import com.gworks.richtext.tags.BlockQuote;
 import com.gworks.richtext.tags.Bold;
 import com.gworks.richtext.tags.Font;
+import com.gworks.richtext.tags.Heading;
 import com.gworks.richtext.tags.Italic;
 import com.gworks.richtext.tags.Link;
+import com.gworks.richtext.tags.ListItem;
+import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.tags.MarkupRegistry;
+import com.gworks.richtext.tags.Paragraph;
 import com.gworks.richtext.tags.Underline;
 
 /**
@@ -16,13 +23,22 @@ public class HtmlConverter extends MarkupConverter {
     public static final String ITALIC = "i";
     public static final String UNDERLINE = "u";
     public static final String LINK = "a";
+    public static final String SPAN = "span";
     public static final String H1 = "h1";
     public static final String H2 = "h2";
     public static final String H3 = "h3";
     public static final String H4 = "h4";
+    public static final String PARAGRAPH = "p";
+    public static final String BLOCKQUOTE = "blockquote";
+    public static final String ORDERED_LIST = "ol";
+    public static final String UNORDERED_LIST = "ul";
+    public static final String LIST_ITEM = "li";
+
+    private static final String[] HEADINGS = {H1, H2, H3, H4};
 
     public static final String ATTR_URL = "href";
     public static final String ATTR_SRC = "src";
+    public static final String ATTR_STYLE = "style";
 
     public static final String LT = "<";
     public static final String _LT = "</";
@@ -47,25 +63,120 @@ public class HtmlConverter extends MarkupConverter {
 
     @Override
     public boolean convertMarkup(StringBuilder sb, Font fontMarkup, boolean begin) {
-        sb.append(makeTag(UNDERLINE, begin));
+        if (!begin) {
+            sb.append(makeTag(SPAN, false));
+            return true;
+        }
+        Font.Attributes attributes = fontMarkup.getAttributes();
+        StringBuilder style = new StringBuilder();
+        if (attributes.typeface != null)
+            style.append("font-family:").append(attributes.typeface).append(';');
+        if (attributes.size > 0)
+            style.append("font-size:").append(attributes.size).append("px;");
+        if (attributes.color != 0)
+            style.append("color:").append(String.format("#%06x", attributes.color & 0xffffff)).append(';');
+        sb.append(LT).append(SPAN).append(' ').append(ATTR_STYLE).append("=\"");
+        HtmlWriter.escape(style, 0, style.length(), sb);
+        sb.append('"').append(GT);
         return true;
     }
 
     @Override
     public boolean convertMarkup(StringBuilder sb, Underline underlineMarkup, boolean begin) {
-        return super.convertMarkup(sb, underlineMarkup, begin);
+        sb.append(makeTag(UNDERLINE, begin));
+        return true;
     }
 
     @Override
     public boolean convertMarkup(StringBuilder sb, Link linkMarkup, boolean begin) {
-        sb.append(begin ? LT : _LT);
-        sb.append(LINK);
-        if (begin)
-            sb.append(" " + ATTR_URL + "=" + linkMarkup.getAttributes());
-        sb.append(GT);
+        // Written by the registry with the url quoted and escaped.
+        return MarkupRegistry.writeHtml(sb, linkMarkup, begin);
+    }
+
+    @Override
+    public boolean convertMarkup(StringBuilder sb, Heading headingMarkup, boolean begin) {
+        sb.append(makeTag(HEADINGS[headingMarkup.getLevel() - 1], begin));
         return true;
     }
 
+    @Override
+    public boolean convertMarkup(StringBuilder sb, Paragraph paragraphMarkup, boolean begin) {
+        sb.append(makeTag(PARAGRAPH, begin));
+        return true;
+    }
+
+    @Override
+    public boolean convertMarkup(StringBuilder sb, BlockQuote blockQuoteMarkup, boolean begin) {
+        sb.append(makeTag(BLOCKQUOTE, begin));
+        return true;
+    }
+
+    /**
+     * Converts the list item to li, opening and closing the ol and ul of its lists around it
+     * as found in the list index. A nested list is written in the li of the item before it,
+     * which is left open until the nested list ends, and the levels skipped by a nested list
+     * get an li of their own. Without the index only the li is written.
+     */
+    @Override
+    public boolean convertMarkup(StringBuilder sb, ListItem listItemMarkup, boolean begin) {
+        ListIndex lists = getListIndex();
+        int line = lists != null ? lists.getLine(listItemMarkup) : -1;
+        if (line < 0) {
+            sb.append(makeTag(LIST_ITEM, begin));
+            return true;
+        }
+        int level = lists.getLevel(line);
+        if (begin) {
+            int previousLevel = line > 0 ? lists.getLevel(line - 1) : 0;
+            if (previousLevel < level) {
+                for (int l = previousLevel + 1; l <= level; l++) {
+                    sb.append(makeTag(listTag(lists.isNumbered(line)), true));
+                    if (l < level)
+                        sb.append(makeTag(LIST_ITEM, true));
+                }
+            } else if (lists.isNumberedList(line - 1, level) != lists.isNumbered(line)) {
+                // The list of the other kind ends here.
+                sb.append(makeTag(listTag(!lists.isNumbered(line)), false));
+                sb.append(makeTag(listTag(lists.isNumbered(line)), true));
+            }
+            sb.append(makeTag(LIST_ITEM, true));
+        } else {
+            int nextLevel = line + 1 < lists.getLineCount() ? lists.getLevel(line + 1) : 0;
+            // The li stays open for the nested list following it.
+            if (nextLevel > level)
+                return true;
+            sb.append(makeTag(LIST_ITEM, false));
+            for (int l = level; l > nextLevel; l--) {
+                sb.append(makeTag(listTag(lists.isNumberedList(line, l)), false));
+                // The li of the level above containing the list.
+                if (l > 1)
+                    sb.append(makeTag(LIST_ITEM, false));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends the text with the html special characters escaped like the {@link HtmlWriter}
+     * of the command line converter.
+     */
+    @Override
+    public void convertText(StringBuilder sb, CharSequence text, int start, int end) {
+        HtmlWriter.escape(text, start, end, sb);
+    }
+
+    @Override
+    protected boolean convertRegistered(StringBuilder sb, Markup markup, boolean begin) {
+        // Subclasses overriding the overloads are converted through them.
+        // The list items are converted with their lists and the fonts with their style.
+        return getClass() == HtmlConverter.class && !(markup instanceof ListItem) && !(markup instanceof Font)
+                && MarkupRegistry.writeHtml(sb, markup, begin);
+    }
+
+    private static String listTag(boolean numbered) {
+        return numbered ? ORDERED_LIST : UNORDERED_LIST;
+    }
+
     private static String makeTag(String name, boolean begin){
         return (begin ? LT : _LT) + name + GT;
     }
@@ -0,0 +1,161 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.markup.HtmlParser;
+import com.gworks.richtext.markup.MarkupHandler;
+import com.gworks.richtext.markup.Tag;
+import com.gworks.richtext.tags.BlockQuote;
+import com.gworks.richtext.tags.Bold;
+import com.gworks.richtext.tags.Heading;
+import com.gworks.richtext.tags.Italic;
+import com.gworks.richtext.tags.Link;
+import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.tags.Paragraph;
+import com.gworks.richtext.tags.Underline;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Imports untrusted html as a {@link RichFragment} to insert with
+ * {@link RichEditTexter#insertFragment(int, RichFragment)}. Only the tags of the built in
+ * markups and the href of the links (with a safe scheme) are kept, the other tags are dropped
+ * keeping their text, and the content of scripts and styles is dropped.
+ * <p>
+ * The html is parsed by the {@link HtmlParser} shared with the command line converter, in a
+ * single pass which never goes back, and the elements nested deeper than the maximum depth are
+ * ignored, so the import takes linear time in the length of the html whatever its content. The memory is bounded by the limits on the length of the html,
+ * the length of the attributes and the number of markups.
+ */
+public class HtmlImporter {
+
+    public static final int DEFAULT_MAX_LENGTH = 1 << 20;
+    public static final int DEFAULT_MAX_DEPTH = 32;
+    public static final int DEFAULT_MAX_ATTRIBUTE_LENGTH = 2048;
+    public static final int DEFAULT_MAX_MARKUPS = 10000;
+
+    // Markup type of each tag, by ordinal.
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends Markup>[] MARKUP_TYPES = new Class[]{Bold.class, Italic.class,
+            Underline.class, Link.class, Heading.H1.class, Heading.H2.class, Heading.H3.class, Heading.H4.class,
+            Paragraph.class, BlockQuote.class};
+
+    private int maxLength = DEFAULT_MAX_LENGTH;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int maxAttributeLength = DEFAULT_MAX_ATTRIBUTE_LENGTH;
+    private int maxMarkups = DEFAULT_MAX_MARKUPS;
+
+    /**
+     * Sets the maximum length of the html, longer html is not imported.
+     */
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Sets the maximum nesting depth of the elements, the tags of the deeper elements are
+     * ignored.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Sets the maximum length of the attributes, the longer attributes are dropped.
+     */
+    public void setMaxAttributeLength(int maxAttributeLength) {
+        this.maxAttributeLength = maxAttributeLength;
+    }
+
+    /**
+     * Sets the maximum number of markups, the markups after the maximum are dropped.
+     */
+    public void setMaxMarkups(int maxMarkups) {
+        this.maxMarkups = maxMarkups;
+    }
+
+    /**
+     * Imports the given html.
+     *
+     * @throws IllegalArgumentException if the html is longer than the maximum length
+     */
+    public RichFragment importHtml(String html) {
+        if (html.length() > maxLength)
+            throw new IllegalArgumentException("Html is longer than " + maxLength + " characters");
+        Builder builder = new Builder(html.length());
+        try {
+            new HtmlParser(new StringReader(html), builder, maxDepth, maxAttributeLength).parse();
+        } catch (IOException e) {
+            // Not thrown by the string reader.
+            throw new IllegalStateException(e);
+        }
+        return builder.build();
+    }
+
+    // Builds the fragment from the markups and the text parsed.
+    private class Builder implements MarkupHandler {
+
+        private final StringBuilder text;
+
+        // Start and attributes of the open markups.
+        private final int[] starts = new int[maxDepth];
+        private final String[] urls = new String[maxDepth];
+        private int depth;
+
+        private Markup[] markups = new Markup[16];
+        private int[] markupStarts = new int[16];
+        private int[] markupEnds = new int[16];
+        private int markupCount;
+
+        Builder(int capacity) {
+            text = new StringBuilder(capacity);
+        }
+
+        @Override
+        public void open(Tag tag, String attributes) {
+            starts[depth] = text.length();
+            urls[depth] = attributes;
+            depth++;
+        }
+
+        @Override
+        public void close(Tag tag) {
+            depth--;
+            int start = starts[depth];
+            int end = text.length();
+            // Block markups do not include the line break.
+            if (tag.block && end > start && text.charAt(end - 1) == '\n')
+                end--;
+            if (end > start)
+                addMarkup(tag, urls[depth], start, end);
+            urls[depth] = null;
+        }
+
+        @Override
+        public void text(char c) {
+            text.append(c);
+        }
+
+        RichFragment build() {
+            return new RichFragment(text.toString(), SpanTable.of(markups, markupStarts, markupEnds, markupCount));
+        }
+
+        private void addMarkup(Tag tag, String url, int start, int end) {
+            if (markupCount == maxMarkups)
+                return;
+            Markup markup = Util.createMarkup(MARKUP_TYPES[tag.ordinal()], url);
+            if (markup == null)
+                return;
+            if (markupCount == markups.length) {
+                int capacity = Math.min(maxMarkups, markupCount * 2);
+                markups = Arrays.copyOf(markups, capacity);
+                markupStarts = Arrays.copyOf(markupStarts, capacity);
+                markupEnds = Arrays.copyOf(markupEnds, capacity);
+            }
+            markups[markupCount] = markup;
+            markupStarts[markupCount] = start;
+            markupEnds[markupCount] = end;
+            markupCount++;
+        }
+    }
+}
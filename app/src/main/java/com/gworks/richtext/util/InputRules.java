@@ -0,0 +1,211 @@
+package com.gworks.richtext.util;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.EditText;
+
+import com.gworks.richtext.tags.Bold;
+import com.gworks.richtext.tags.Italic;
+import com.gworks.richtext.tags.Link;
+import com.gworks.richtext.tags.Markup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Turns markdown like shortcuts into markups as the user types, like <code>**bold**</code>
+ * into {@link Bold}. The closing delimiters of the rules are kept reversed in a trie, so an
+ * edit is matched by walking back from its end only as far as the longest delimiter, and the
+ * opening delimiter is looked up only within {@link #WINDOW} characters of the line. So the
+ * cost of a keystroke does not depend on the size of the text.
+ */
+public class InputRules {
+
+    // Characters before the closing delimiter searched for the opening delimiter.
+    private static final int WINDOW = 256;
+
+    private final RichEditTexter texter;
+
+    // Trie of the reversed closing delimiters.
+    private final Node closings = new Node();
+
+    // Set while the matched delimiters are being replaced.
+    private boolean applying;
+
+    public InputRules(RichEditTexter texter) {
+        this.texter = texter;
+        // Added after the watcher of the texter, so the texter is updated before the rules run.
+        texter.getRichTextView().addTextChangedListener(textWatcher);
+    }
+
+    /**
+     * Creates the rules of <code>**bold**</code>, <code>_italic_</code> and
+     * <code>[text](url)</code> for the given texter.
+     */
+    public static InputRules markdown(RichEditTexter texter) {
+        InputRules inputRules = new InputRules(texter);
+        inputRules.addRule("**", "**", Bold.class);
+        inputRules.addRule("_", "_", Italic.class);
+        inputRules.addRule("[", "](", ")", Link.class);
+        return inputRules;
+    }
+
+    /**
+     * Adds a rule applying a markup of the given type to the text typed between the given
+     * delimiters. The delimiters are removed.
+     */
+    public void addRule(String open, String close, Class<? extends Markup> markupType) {
+        addRule(open, null, close, markupType);
+    }
+
+    /**
+     * Adds a rule applying a markup of the given type to the text typed between the open and
+     * the separator delimiters, with the text between the separator and the close delimiters
+     * as its attributes (like a link and its url).
+     */
+    public void addRule(String open, String separator, String close, Class<? extends Markup> markupType) {
+        if (open.isEmpty() || close.isEmpty() || (separator != null && separator.isEmpty()))
+            throw new IllegalArgumentException("Delimiters can not be empty");
+        Node node = closings;
+        for (int i = close.length() - 1; i >= 0; i--) {
+            char c = close.charAt(i);
+            Node child = node.children.get(c);
+            if (child == null) {
+                child = new Node();
+                node.children.put(c, child);
+            }
+            node = child;
+        }
+        node.rules.add(new Rule(open, separator, close, markupType));
+    }
+
+    /**
+     * Stops applying the rules.
+     */
+    public void detach() {
+        texter.getRichTextView().removeTextChangedListener(textWatcher);
+    }
+
+    private void onTextTyped(Editable text, int end) {
+        // Walk back along the closing delimiters ending at the end of the edit, the longest
+        // delimiter is tried first.
+        List<Rule> candidates = new ArrayList<>();
+        Node node = closings;
+        for (int i = end - 1; i >= 0; i--) {
+            node = node.children.get(text.charAt(i));
+            if (node == null)
+                break;
+            candidates.addAll(0, node.rules);
+        }
+        for (Rule rule : candidates)
+            if (match(text, rule, end))
+                return;
+    }
+
+    private boolean match(Editable text, Rule rule, int end) {
+        int closeStart = end - rule.close.length();
+        int limit = Math.max(0, closeStart - WINDOW);
+        // The rules do not span lines.
+        for (int i = closeStart - 1; i >= limit; i--) {
+            if (text.charAt(i) == '\n') {
+                limit = i + 1;
+                break;
+            }
+        }
+
+        int contentEnd = closeStart;
+        String attributes = null;
+        if (rule.separator != null) {
+            contentEnd = lastIndexOf(text, rule.separator, limit, closeStart);
+            if (contentEnd < 0)
+                return false;
+            attributes = text.subSequence(contentEnd + rule.separator.length(), closeStart).toString();
+            if (attributes.trim().isEmpty())
+                return false;
+        }
+        // The content is not empty, so the open delimiter ends before the content end.
+        int openStart = lastIndexOf(text, rule.open, limit, contentEnd - 1);
+        if (openStart < 0)
+            return false;
+        int contentStart = openStart + rule.open.length();
+        // Not inside a word, like the underscores of snake_case_names.
+        if (openStart > 0 && Character.isLetterOrDigit(text.charAt(openStart - 1)))
+            return false;
+        if (Character.isWhitespace(text.charAt(contentStart)) || Character.isWhitespace(text.charAt(contentEnd - 1)))
+            return false;
+
+        Markup markup = Util.createMarkup(rule.markupType, attributes);
+        if (markup == null)
+            return false;
+
+        EditText editText = texter.getRichTextView();
+        applying = true;
+        editText.beginBatchEdit();
+        try {
+            // From the last so that the offsets before stay valid.
+            text.delete(contentEnd, end);
+            text.delete(openStart, contentStart);
+            texter.apply(markup, openStart, openStart + contentEnd - contentStart);
+        } finally {
+            editText.endBatchEdit();
+            applying = false;
+        }
+        return true;
+    }
+
+    // Start of the last occurrence of the given string ending at or before the given end, but
+    // starting at or after the given limit, -1 if none.
+    private static int lastIndexOf(CharSequence text, String string, int limit, int end) {
+        for (int start = end - string.length(); start >= limit; start--) {
+            int i = 0;
+            while (i < string.length() && text.charAt(start + i) == string.charAt(i))
+                i++;
+            if (i == string.length())
+                return start;
+        }
+        return -1;
+    }
+
+    private TextWatcher textWatcher = new TextWatcher() {
+        private int end = -1;
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            // Only typed or pasted text can complete a rule.
+            end = applying || count == 0 ? -1 : start + count;
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            if (end >= 0) {
+                int typedEnd = end;
+                end = -1;
+                onTextTyped(s, typedEnd);
+            }
+        }
+    };
+
+    private static class Node {
+        final HashMap<Character, Node> children = new HashMap<>();
+        final List<Rule> rules = new ArrayList<>(1);
+    }
+
+    private static class Rule {
+        final String open;
+        final String separator;
+        final String close;
+        final Class<? extends Markup> markupType;
+
+        Rule(String open, String separator, String close, Class<? extends Markup> markupType) {
+            this.open = open;
+            this.separator = separator;
+            this.close = close;
+            this.markupType = markupType;
+        }
+    }
+}
@@ -0,0 +1,642 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.BlockMarkup;
+import com.gworks.richtext.tags.ListItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Lines of a text with the length (including the line break) and the block markup of each
+ * line, kept in chunks in the nodes of a treap ordered by position. Every node keeps the
+ * number of lines and chars of its subtree and the types of the block markups in it, so
+ * finding the line of an offset or the start of a line, inserting and removing lines and
+ * setting the length or the block of a line cost O(log n) (and the length of the chunk), and
+ * the blocks of a type are listed in O(k log n).
+ * <p>
+ * The level and the kind of the list item of each line are kept too, and every node counts by
+ * level the lines breaking the lists of the level (not items or items of a lower level) and
+ * the bulleted and numbered items of the level in its subtree, so the lines of a kind are
+ * counted and found in O(log n) for numbering the items.
+ */
+/*default*/ class LineTree {
+
+    // Lines of a chunk, a chunk growing to twice this is split.
+    private static final int CHUNK = 64;
+
+    // The types after the first 63 share the last bit.
+    private static final int MAX_TYPE_BITS = 64;
+
+    private static final int LEVELS = ListItem.MAX_LEVEL;
+
+    /**
+     * Kinds of the lines counted for each level, see {@link #counter(int, int)}.
+     */
+    static final int BREAK = 0;
+    static final int BULLET = 1;
+    static final int NUMBER = 2;
+    private static final int KINDS = 3;
+
+    private final Random random = new Random();
+
+    // Bit of each type of block markup in the type masks.
+    private final HashMap<Class<?>, Long> typeBits = new HashMap<>();
+
+    private Node root;
+
+    // Nodes visited and lines scanned, see getSteps().
+    private long steps;
+
+    /**
+     * Creates the tree of the given number of empty lines.
+     */
+    LineTree(int lineCount) {
+        for (int i = 0; i < lineCount; i += CHUNK)
+            root = insertNode(root, i, newNode(Math.min(CHUNK, lineCount - i)));
+    }
+
+    int size() {
+        return lines(root);
+    }
+
+    /**
+     * Returns the number of nodes visited and lines scanned so far. A deterministic measure of
+     * the work, for the scaling tests.
+     */
+    long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns the length of the text.
+     */
+    int length() {
+        return chars(root);
+    }
+
+    /**
+     * Returns the start of the given line.
+     */
+    int getStart(int line) {
+        int start = 0;
+        Node node = root;
+        while (true) {
+            steps++;
+            int leftLines = lines(node.left);
+            if (line < leftLines) {
+                node = node.left;
+                continue;
+            }
+            line -= leftLines;
+            start += chars(node.left);
+            if (line < node.count) {
+                for (int i = 0; i < line; i++)
+                    start += node.lengths[i];
+                steps += line;
+                return start;
+            }
+            line -= node.count;
+            start += node.chars;
+            node = node.right;
+        }
+    }
+
+    /**
+     * Returns the length of the given line including its line break.
+     */
+    int getLength(int line) {
+        Node node = find(line);
+        return node.lengths[foundIndex];
+    }
+
+    /**
+     * Returns the line containing the given offset, the last line for the length of the text.
+     */
+    int getLineOf(int offset) {
+        int line = 0;
+        Node node = root;
+        while (node != null) {
+            steps++;
+            int leftChars = chars(node.left);
+            if (offset < leftChars) {
+                node = node.left;
+                continue;
+            }
+            offset -= leftChars;
+            line += lines(node.left);
+            if (offset < node.chars) {
+                for (int i = 0; ; i++) {
+                    steps++;
+                    if (offset < node.lengths[i])
+                        return line + i;
+                    offset -= node.lengths[i];
+                }
+            }
+            offset -= node.chars;
+            line += node.count;
+            node = node.right;
+        }
+        return line - 1;
+    }
+
+    /**
+     * Adds the given delta to the length of the given line.
+     */
+    void addLength(int line, int delta) {
+        Node node = root;
+        while (true) {
+            steps++;
+            // The line is in the subtree of every node on the way.
+            node.subtreeChars += delta;
+            int leftLines = lines(node.left);
+            if (line < leftLines) {
+                node = node.left;
+                continue;
+            }
+            line -= leftLines;
+            if (line < node.count) {
+                node.lengths[line] += delta;
+                node.chars += delta;
+                return;
+            }
+            line -= node.count;
+            node = node.right;
+        }
+    }
+
+    void setLength(int line, int length) {
+        addLength(line, length - getLength(line));
+    }
+
+    BlockMarkup getBlock(int line) {
+        Node node = find(line);
+        return node.blocks[foundIndex];
+    }
+
+    /**
+     * Sets the block markup of the given line and returns the previous one.
+     */
+    BlockMarkup setBlock(int line, BlockMarkup block) {
+        Node node = find(line);
+        BlockMarkup previous = node.blocks[foundIndex];
+        node.blocks[foundIndex] = block;
+        node.items[foundIndex] = itemCode(block);
+        if (block != null)
+            typeBit(block.getClass());
+        refreshChunk(node);
+        refreshPath(root, line);
+        return previous;
+    }
+
+    /**
+     * Returns the level of the list item of the given line, 0 if the line is not a list item.
+     */
+    int getItemLevel(int line) {
+        Node node = find(line);
+        return node.items[foundIndex] >> 1;
+    }
+
+    /**
+     * Returns whether the line is a numbered list item.
+     */
+    boolean isNumberedItem(int line) {
+        Node node = find(line);
+        return (node.items[foundIndex] & 1) != 0;
+    }
+
+    /**
+     * Returns the number of list items.
+     */
+    int getItemCount() {
+        int count = 0;
+        if (root != null)
+            for (int level = 1; level <= LEVELS; level++)
+                count += root.subtreeCounts[counter(level, BULLET)] + root.subtreeCounts[counter(level, NUMBER)];
+        return count;
+    }
+
+    /**
+     * Returns the counter of the lines of the given kind for the given level.
+     */
+    static int counter(int level, int kind) {
+        return (level - 1) * KINDS + kind;
+    }
+
+    /**
+     * Returns the number of the lines before the given line counted by the given counter.
+     */
+    int count(int line, int counter) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            int leftLines = lines(node.left);
+            if (line <= leftLines) {
+                node = node.left;
+                continue;
+            }
+            if (node.left != null)
+                count += node.left.subtreeCounts[counter];
+            line -= leftLines;
+            if (line <= node.count) {
+                for (int i = 0; i < line; i++)
+                    if (isCounted(node.items[i], counter))
+                        count++;
+                return count;
+            }
+            count += node.counts[counter];
+            line -= node.count;
+            node = node.right;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the last line before the given line counted by either of the given counters
+     * (the second may be -1), -1 if none.
+     */
+    int lastBefore(int line, int counter, int otherCounter) {
+        int rank = count(line, counter) + (otherCounter < 0 ? 0 : count(line, otherCounter));
+        if (rank == 0)
+            return -1;
+        // Descends to the rank-th counted line.
+        int start = 0;
+        Node node = root;
+        while (true) {
+            int leftCount = counted(node.left, counter, otherCounter);
+            if (rank <= leftCount) {
+                node = node.left;
+                continue;
+            }
+            rank -= leftCount;
+            start += lines(node.left);
+            int chunkCount = node.counts[counter] + (otherCounter < 0 ? 0 : node.counts[otherCounter]);
+            if (rank <= chunkCount) {
+                for (int i = 0; ; i++) {
+                    if (isCounted(node.items[i], counter) || (otherCounter >= 0 && isCounted(node.items[i], otherCounter)))
+                        if (--rank == 0)
+                            return start + i;
+                }
+            }
+            rank -= chunkCount;
+            start += node.count;
+            node = node.right;
+        }
+    }
+
+    /**
+     * Returns the block markups of the given type in the order of their lines.
+     */
+    @SuppressWarnings("unchecked")
+    <T extends BlockMarkup> List<T> getBlocks(Class<T> blockType) {
+        long mask = 0;
+        for (Map.Entry<Class<?>, Long> entry : typeBits.entrySet())
+            if (blockType.isAssignableFrom(entry.getKey()))
+                mask |= entry.getValue();
+        List<T> blocks = new ArrayList<>();
+        collectBlocks(root, mask, blockType, (List<BlockMarkup>) blocks);
+        return blocks;
+    }
+
+    /**
+     * Inserts the given number of empty lines without block markups before the given line.
+     */
+    void insert(int line, int count) {
+        if (count == 0)
+            return;
+        Node node = root;
+        int local = line;
+        int chunkStart = 0;
+        while (true) {
+            steps++;
+            node.subtreeLines += count;
+            // The new lines are not items, so they break the lists of every level.
+            for (int level = 1; level <= LEVELS; level++)
+                node.subtreeCounts[counter(level, BREAK)] += count;
+            int leftLines = lines(node.left);
+            if (local < leftLines) {
+                node = node.left;
+                continue;
+            }
+            local -= leftLines;
+            chunkStart += leftLines;
+            if (local <= node.count || node.right == null)
+                break;
+            local -= node.count;
+            chunkStart += node.count;
+            node = node.right;
+        }
+        node.ensureCapacity(node.count + count);
+        System.arraycopy(node.lengths, local, node.lengths, local + count, node.count - local);
+        System.arraycopy(node.blocks, local, node.blocks, local + count, node.count - local);
+        System.arraycopy(node.items, local, node.items, local + count, node.count - local);
+        for (int i = local; i < local + count; i++) {
+            node.lengths[i] = 0;
+            node.blocks[i] = null;
+            node.items[i] = 0;
+        }
+        node.count += count;
+        for (int level = 1; level <= LEVELS; level++)
+            node.counts[counter(level, BREAK)] += count;
+        if (node.count >= 2 * CHUNK)
+            splitChunk(node, chunkStart);
+    }
+
+    /**
+     * Removes the given number of lines from the given line.
+     *
+     * @param removed block markups of the removed lines are added to this if not null
+     */
+    void remove(int line, int count, List<BlockMarkup> removed) {
+        if (count > 0)
+            root = remove(root, line, line + count, removed);
+    }
+
+    // Moves the lines of the given chunk after the first CHUNK lines to new nodes.
+    private void splitChunk(Node node, int chunkStart) {
+        List<Node> tail = new ArrayList<>();
+        for (int i = CHUNK; i < node.count; i += CHUNK) {
+            Node piece = newNode(Math.min(CHUNK, node.count - i));
+            System.arraycopy(node.lengths, i, piece.lengths, 0, piece.count);
+            System.arraycopy(node.blocks, i, piece.blocks, 0, piece.count);
+            System.arraycopy(node.items, i, piece.items, 0, piece.count);
+            refreshChunk(piece);
+            tail.add(piece);
+        }
+        for (int i = CHUNK; i < node.count; i++)
+            node.blocks[i] = null;
+        node.count = CHUNK;
+        refreshChunk(node);
+        refreshPath(root, chunkStart);
+        for (int i = 0; i < tail.size(); i++)
+            root = insertNode(root, chunkStart + (i + 1) * CHUNK, tail.get(i));
+    }
+
+    // Removes the lines [from, to) of the given subtree and returns its new root.
+    private Node remove(Node node, int from, int to, List<BlockMarkup> removed) {
+        int leftLines = lines(node.left);
+        int count = node.count;
+        if (from < leftLines)
+            node.left = remove(node.left, from, Math.min(to, leftLines), removed);
+
+        int chunkFrom = Math.max(0, from - leftLines);
+        int chunkTo = Math.min(count, to - leftLines);
+        if (chunkFrom < chunkTo) {
+            if (removed != null) {
+                for (int i = chunkFrom; i < chunkTo; i++)
+                    if (node.blocks[i] != null)
+                        removed.add(node.blocks[i]);
+            }
+            System.arraycopy(node.lengths, chunkTo, node.lengths, chunkFrom, count - chunkTo);
+            System.arraycopy(node.blocks, chunkTo, node.blocks, chunkFrom, count - chunkTo);
+            System.arraycopy(node.items, chunkTo, node.items, chunkFrom, count - chunkTo);
+            node.count -= chunkTo - chunkFrom;
+            for (int i = node.count; i < count; i++)
+                node.blocks[i] = null;
+            refreshChunk(node);
+        }
+
+        int rightFrom = Math.max(0, from - leftLines - count);
+        int rightTo = to - leftLines - count;
+        if (rightTo > rightFrom)
+            node.right = remove(node.right, rightFrom, rightTo, removed);
+
+        if (node.count == 0)
+            return merge(node.left, node.right);
+        update(node);
+        return node;
+    }
+
+    // Inserts the given node at the given line of the given subtree, which must be at the
+    // boundary of the chunks, and returns the new root of the subtree.
+    private Node insertNode(Node node, int line, Node inserted) {
+        if (node == null) {
+            update(inserted);
+            return inserted;
+        }
+        int leftLines = lines(node.left);
+        if (line <= leftLines) {
+            node.left = insertNode(node.left, line, inserted);
+            if (node.left.priority > node.priority)
+                return rotateRight(node);
+        } else {
+            node.right = insertNode(node.right, line - leftLines - node.count, inserted);
+            if (node.right.priority > node.priority)
+                return rotateLeft(node);
+        }
+        update(node);
+        return node;
+    }
+
+    // Updates the subtree summaries on the way to the chunk of the given line after the chunk
+    // changes.
+    private void refreshPath(Node node, int line) {
+        int leftLines = lines(node.left);
+        if (line < leftLines)
+            refreshPath(node.left, line);
+        else if (line >= leftLines + node.count && node.right != null)
+            refreshPath(node.right, line - leftLines - node.count);
+        update(node);
+    }
+
+    private void collectBlocks(Node node, long mask, Class<?> blockType, List<BlockMarkup> blocks) {
+        if (node == null || (node.subtreeTypes & mask) == 0)
+            return;
+        collectBlocks(node.left, mask, blockType, blocks);
+        if ((node.types & mask) != 0) {
+            for (int i = 0; i < node.count; i++)
+                if (blockType.isInstance(node.blocks[i]))
+                    blocks.add(node.blocks[i]);
+        }
+        collectBlocks(node.right, mask, blockType, blocks);
+    }
+
+    // Returns the node of the given line and sets foundIndex to the index of the line in it.
+    private int foundIndex;
+
+    private Node find(int line) {
+        Node node = root;
+        while (true) {
+            steps++;
+            int leftLines = lines(node.left);
+            if (line < leftLines) {
+                node = node.left;
+                continue;
+            }
+            line -= leftLines;
+            if (line < node.count) {
+                foundIndex = line;
+                return node;
+            }
+            line -= node.count;
+            node = node.right;
+        }
+    }
+
+    private long typeBit(Class<?> type) {
+        Long bit = typeBits.get(type);
+        if (bit == null) {
+            bit = 1L << Math.min(typeBits.size(), MAX_TYPE_BITS - 1);
+            typeBits.put(type, bit);
+        }
+        return bit;
+    }
+
+    // Recomputes the chars, the types and the list counts of the chunk of the given node.
+    private void refreshChunk(Node node) {
+        int chars = 0;
+        long types = 0;
+        int[] counts = node.counts;
+        Arrays.fill(counts, 0);
+        steps += node.count;
+        for (int i = 0; i < node.count; i++) {
+            chars += node.lengths[i];
+            if (node.blocks[i] != null)
+                types |= typeBit(node.blocks[i].getClass());
+            int item = node.items[i];
+            int itemLevel = item >> 1;
+            for (int level = itemLevel + 1; level <= LEVELS; level++)
+                counts[counter(level, BREAK)]++;
+            if (itemLevel > 0)
+                counts[counter(itemLevel, (item & 1) != 0 ? NUMBER : BULLET)]++;
+        }
+        node.chars = chars;
+        node.types = types;
+    }
+
+    // Level of the item times 2 plus 1 if numbered, 0 if not an item.
+    private static byte itemCode(BlockMarkup block) {
+        if (!(block instanceof ListItem))
+            return 0;
+        ListItem item = (ListItem) block;
+        int level = Math.max(1, Math.min(LEVELS, item.getLevel()));
+        return (byte) (level << 1 | (item.isNumbered() ? 1 : 0));
+    }
+
+    // Whether the line of the given item code is counted by the given counter.
+    private static boolean isCounted(int item, int counter) {
+        int level = counter / KINDS + 1;
+        int kind = counter % KINDS;
+        int itemLevel = item >> 1;
+        if (kind == BREAK)
+            return itemLevel < level;
+        return itemLevel == level && ((item & 1) != 0) == (kind == NUMBER);
+    }
+
+    private static int counted(Node node, int counter, int otherCounter) {
+        if (node == null)
+            return 0;
+        return node.subtreeCounts[counter] + (otherCounter < 0 ? 0 : node.subtreeCounts[otherCounter]);
+    }
+
+    private Node newNode(int count) {
+        Node node = new Node(random.nextInt(), count);
+        update(node);
+        return node;
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        update(node);
+        left.right = node;
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        update(node);
+        right.left = node;
+        update(right);
+        return right;
+    }
+
+    private static void update(Node node) {
+        node.subtreeLines = node.count + lines(node.left) + lines(node.right);
+        node.subtreeChars = node.chars + chars(node.left) + chars(node.right);
+        node.subtreeTypes = node.types | types(node.left) | types(node.right);
+        for (int i = 0; i < node.counts.length; i++)
+            node.subtreeCounts[i] = node.counts[i] + (node.left != null ? node.left.subtreeCounts[i] : 0)
+                    + (node.right != null ? node.right.subtreeCounts[i] : 0);
+    }
+
+    private static int lines(Node node) {
+        return node == null ? 0 : node.subtreeLines;
+    }
+
+    private static int chars(Node node) {
+        return node == null ? 0 : node.subtreeChars;
+    }
+
+    private static long types(Node node) {
+        return node == null ? 0 : node.subtreeTypes;
+    }
+
+    private static final class Node {
+        final int priority;
+        Node left;
+        Node right;
+
+        // Lines of the chunk.
+        int count;
+        int[] lengths;
+        BlockMarkup[] blocks;
+        byte[] items;
+        int chars;
+        long types;
+        // By counter, the lines of the chunk counted.
+        final int[] counts = new int[LEVELS * KINDS];
+
+        // Summaries of the subtree.
+        int subtreeLines;
+        int subtreeChars;
+        long subtreeTypes;
+        final int[] subtreeCounts = new int[LEVELS * KINDS];
+
+        Node(int priority, int count) {
+            this.priority = priority;
+            this.count = count;
+            lengths = new int[Math.max(CHUNK, count)];
+            blocks = new BlockMarkup[lengths.length];
+            items = new byte[lengths.length];
+            // The lines are not items.
+            for (int level = 1; level <= LEVELS; level++)
+                counts[counter(level, BREAK)] = count;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > lengths.length) {
+                int newCapacity = Math.max(capacity, lengths.length << 1);
+                int[] newLengths = new int[newCapacity];
+                System.arraycopy(lengths, 0, newLengths, 0, count);
+                lengths = newLengths;
+                BlockMarkup[] newBlocks = new BlockMarkup[newCapacity];
+                System.arraycopy(blocks, 0, newBlocks, 0, count);
+                blocks = newBlocks;
+                byte[] newItems = new byte[newCapacity];
+                System.arraycopy(items, 0, newItems, 0, count);
+                items = newItems;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.gworks.richtext.util;
+
+import android.support.annotation.Nullable;
+import android.text.Spanned;
+
+import com.gworks.richtext.tags.ListItem;
+import com.gworks.richtext.tags.Markup;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Index of the list items of the lines of a text, for numbering the items and exporting the
+ * lists. A list is broken by a line which is not an item, an item of a lower level or an item
+ * of the same level but of the other kind, the items of deeper levels are nested in it.
+ * <p>
+ * The items are kept in the {@link LineTree} of the lines, which counts by level the lines
+ * breaking the lists of the level and the bulleted and numbered items of the level, so the
+ * number of an item and the kind of the list containing a line are found in O(log n), and
+ * changing the item of a line or inserting and removing lines cost O(log n) too.
+ */
+public class ListIndex {
+
+    private final LineTree lines;
+
+    // Text the items are applied to, for finding the lines of the items.
+    @Nullable
+    private final Spanned text;
+
+    // Lines of the items, for the index created from a span table.
+    @Nullable
+    private final IdentityHashMap<ListItem, Integer> itemLines;
+
+    /*default*/ ListIndex(LineTree lines, @Nullable Spanned text, @Nullable IdentityHashMap<ListItem, Integer> itemLines) {
+        this.lines = lines;
+        this.text = text;
+        this.itemLines = itemLines;
+    }
+
+    /**
+     * Returns the index of the list items of the given text and markups, or null if there are
+     * no list items.
+     */
+    @Nullable
+    public static ListIndex of(CharSequence text, SpanTable spans) {
+        int[] lineStarts = null;
+        int lineCount = 0;
+        LineTree lines = null;
+        IdentityHashMap<ListItem, Integer> itemLines = null;
+        for (int i = 0; i < spans.size(); i++) {
+            Markup markup = spans.getMarkup(i);
+            if (!(markup instanceof ListItem))
+                continue;
+            if (lines == null) {
+                lineStarts = new int[16];
+                lineStarts[lineCount++] = 0;
+                for (int j = 0; j < text.length(); j++) {
+                    if (text.charAt(j) == '\n') {
+                        if (lineCount == lineStarts.length)
+                            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                        lineStarts[lineCount++] = j + 1;
+                    }
+                }
+                lines = new LineTree(lineCount);
+                // The lengths of the lines are kept for numbering the items by offset.
+                for (int j = 0; j < lineCount; j++)
+                    lines.setLength(j, (j + 1 < lineCount ? lineStarts[j + 1] : text.length()) - lineStarts[j]);
+                itemLines = new IdentityHashMap<>();
+            }
+            int line = Arrays.binarySearch(lineStarts, 0, lineCount, spans.getStart(i));
+            if (line < 0)
+                line = -line - 2;
+            lines.setBlock(line, (ListItem) markup);
+            itemLines.put((ListItem) markup, line);
+        }
+        return lines == null ? null : new ListIndex(lines, null, itemLines);
+    }
+
+    /**
+     * Returns this index finding the lines of the items in the given text, which must be the
+     * text of the lines.
+     */
+    /*default*/ ListIndex forText(Spanned text) {
+        return new ListIndex(lines, text, null);
+    }
+
+    /**
+     * Returns the numbering of the items by the offsets of the text of this index, for the
+     * copies of the items applied to a copy of the text, which must not change.
+     */
+    /*default*/ ListItem.Numbering getNumbering() {
+        return new ListItem.Numbering() {
+            @Override
+            public int getNumber(int offset) {
+                return ListIndex.this.getNumber(lines.getLineOf(offset));
+            }
+        };
+    }
+
+    public int getLineCount() {
+        return lines.size();
+    }
+
+    public boolean isEmpty() {
+        return lines.getItemCount() == 0;
+    }
+
+    /**
+     * Returns the level of the item of the given line, 0 if the line is not a list item.
+     */
+    public int getLevel(int line) {
+        return lines.getItemLevel(line);
+    }
+
+    public boolean isNumbered(int line) {
+        return lines.isNumberedItem(line);
+    }
+
+    /**
+     * Returns the number of the numbered item of the given line in its list, 0 if the line is
+     * not a numbered item.
+     */
+    public int getNumber(int line) {
+        int level = lines.getItemLevel(line);
+        if (level == 0 || !lines.isNumberedItem(line))
+            return 0;
+        int start = lines.lastBefore(line, LineTree.counter(level, LineTree.BREAK),
+                LineTree.counter(level, LineTree.BULLET));
+        int numbers = LineTree.counter(level, LineTree.NUMBER);
+        return lines.count(line + 1, numbers) - lines.count(start + 1, numbers);
+    }
+
+    /**
+     * Returns whether the list of the given level containing the given line is numbered. The
+     * line must be an item of the level or deeper.
+     */
+    public boolean isNumberedList(int line, int level) {
+        int start = lines.lastBefore(line + 1, LineTree.counter(level, LineTree.BREAK), -1);
+        int item = lines.lastBefore(line + 1, LineTree.counter(level, LineTree.BULLET),
+                LineTree.counter(level, LineTree.NUMBER));
+        // The lists of the levels above the first item are of its kind.
+        return lines.isNumberedItem(item > start ? item : start + 1);
+    }
+
+    /**
+     * Returns the line of the given item, -1 if it is not an item of this index.
+     */
+    /*default*/ int getLine(ListItem item) {
+        if (itemLines != null) {
+            Integer line = itemLines.get(item);
+            return line != null ? line : -1;
+        }
+        if (text == null)
+            return -1;
+        int start = item.getSpanStart(text);
+        if (start < 0)
+            return -1;
+        int line = lines.getLineOf(start);
+        return lines.getBlock(line) == item ? line : -1;
+    }
+}
@@ -0,0 +1,311 @@
+package com.gworks.richtext.util;
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.util.LruCache;
+
+import com.gworks.richtext.tags.ListItem;
+import com.gworks.richtext.tags.Markup;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Read only document in a memory mapped file, for viewing documents too large to load in the
+ * heap. The text is a char sequence over the mapped file and the markups are read from the
+ * span table in the file only for the windows of the text shown, so the heap used depends on
+ * the size of the windows and not of the document. Shown by
+ * {@link com.gworks.richtext.widget.MappedTextView}.
+ * <p>
+ * The span table entries are sorted by start in pages, and the first start and the largest end
+ * of the markups of each page are kept in the heap. The last page starting in a window is found
+ * by binary search of the first starts and the pages before it ending in the window by a max
+ * tree of the largest ends, so only the pages with markups in a window are read. The attributes
+ * are decoded when first used and cached.
+ */
+public class MappedDocument {
+
+    private static final int MAGIC = 0x52544d44;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int PAGE_SIZE = 256;
+
+    // Ints of an entry: kind, start, end and attribute index.
+    private static final int ENTRY_SIZE = 4;
+
+    private static final int ATTRIBUTE_CACHE_SIZE = 256;
+
+    private final CharBuffer text;
+    private final List<Class<? extends Markup>> types;
+    private final AttributeCodec attributeCodec;
+
+    // The attributes are read from the buffer at their offsets.
+    private final ByteBuffer buffer;
+    private final int[] attributeOffsets;
+    private final int[] attributeKinds;
+    private final LruCache<Integer, Object> attributes = new LruCache<>(ATTRIBUTE_CACHE_SIZE);
+
+    private final int entryCount;
+    private final int entriesOffset;
+    private final int[] pageStarts;
+    // Max tree of the largest ends of the pages: node i has the children 2i and 2i + 1, and the
+    // pages are the leaves from treeLeaves, the leaves after the last page are -1.
+    private final int[] maxEnds;
+    private final int treeLeaves;
+
+    private MappedDocument(ByteBuffer buffer, AttributeCodec attributeCodec) throws IOException {
+        this.buffer = buffer;
+        this.attributeCodec = attributeCodec;
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+                throw new IOException("Not a document file");
+            int textLength = buffer.getInt();
+
+            int typeCount = buffer.getInt();
+            types = new ArrayList<>();
+            for (int i = 0; i < typeCount; i++) {
+                byte[] name = new byte[buffer.getShort() & 0xffff];
+                buffer.get(name);
+                types.add(Util.getMarkupType(new String(name, "UTF-8")));
+            }
+
+            int attributeCount = buffer.getInt();
+            attributeOffsets = new int[attributeCount];
+            attributeKinds = new int[attributeCount];
+            for (int i = 0; i < attributeCount; i++) {
+                attributeKinds[i] = buffer.getInt();
+                if (attributeKinds[i] < 0 || attributeKinds[i] >= types.size())
+                    throw new IOException("Malformed document file");
+                int length = buffer.getInt();
+                attributeOffsets[i] = buffer.position();
+                buffer.position(buffer.position() + length);
+            }
+
+            entryCount = buffer.getInt();
+            entriesOffset = buffer.position();
+            buffer.position(entriesOffset + entryCount * ENTRY_SIZE * 4);
+            int pageCount = (entryCount + PAGE_SIZE - 1) / PAGE_SIZE;
+            int leaves = 1;
+            while (leaves < pageCount)
+                leaves <<= 1;
+            treeLeaves = leaves;
+            maxEnds = new int[2 * leaves];
+            Arrays.fill(maxEnds, -1);
+            for (int i = 0; i < pageCount; i++)
+                maxEnds[leaves + i] = buffer.getInt();
+            for (int i = leaves - 1; i > 0; i--)
+                maxEnds[i] = Math.max(maxEnds[2 * i], maxEnds[2 * i + 1]);
+            pageStarts = new int[pageCount];
+            for (int i = 0; i < pageCount; i++)
+                pageStarts[i] = getEntry(i * PAGE_SIZE, 1);
+
+            ByteBuffer textBuffer = buffer.slice();
+            if (textBuffer.remaining() < textLength * 2)
+                throw new IOException("Malformed document file");
+            textBuffer.limit(textLength * 2);
+            text = textBuffer.asCharBuffer();
+        } catch (RuntimeException e) {
+            // Buffer underflows and illegal positions of truncated files.
+            throw new IOException("Malformed document file", e);
+        }
+    }
+
+    /**
+     * Maps the given document file written by {@link #write(File, CharSequence, SpanTable, AttributeCodec)}.
+     * The file must not be modified while mapped.
+     */
+    public static MappedDocument open(File file, AttributeCodec attributeCodec) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping is valid after the file is closed.
+            return new MappedDocument(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), attributeCodec);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes the given text and markups (like of a {@link DocumentSnapshot}) to the given file.
+     */
+    public static void write(File file, CharSequence text, SpanTable spanTable, AttributeCodec attributeCodec) throws IOException {
+        PackedSpanTable spans = PackedSpanTable.of(spanTable);
+        List<Class<? extends Markup>> types = new ArrayList<>();
+        HashMap<Class<? extends Markup>, Integer> kinds = new HashMap<>();
+        int[] entryKinds = new int[spans.size()];
+        for (int i = 0; i < spans.size(); i++) {
+            Integer kind = kinds.get(spans.getType(i));
+            if (kind == null) {
+                kind = types.size();
+                kinds.put(spans.getType(i), kind);
+                types.add(spans.getType(i));
+            }
+            entryKinds[i] = kind;
+        }
+        AttributeStore attributes = spans.getAttributeStore();
+        int[] attributeKinds = new int[attributes.size()];
+        for (int i = 0; i < spans.size(); i++)
+            if (spans.getAttributesHandle(i) != AttributeStore.NO_ATTRIBUTES)
+                attributeKinds[spans.getAttributesHandle(i)] = entryKinds[i];
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(text.length());
+
+            out.writeInt(types.size());
+            for (Class<? extends Markup> type : types)
+                out.writeUTF(type.getName());
+
+            out.writeInt(attributes.size());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int i = 0; i < attributes.size(); i++) {
+                bytes.reset();
+                attributeCodec.writeAttributes(new DataOutputStream(bytes), attributes.get(i));
+                out.writeInt(attributeKinds[i]);
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+            }
+
+            out.writeInt(spans.size());
+            for (int i = 0; i < spans.size(); i++) {
+                out.writeInt(entryKinds[i]);
+                out.writeInt(spans.getStart(i));
+                out.writeInt(spans.getEnd(i));
+                out.writeInt(spans.getAttributesHandle(i));
+            }
+            for (int page = 0; page * PAGE_SIZE < spans.size(); page++) {
+                int maxEnd = 0;
+                for (int i = page * PAGE_SIZE; i < Math.min(spans.size(), (page + 1) * PAGE_SIZE); i++)
+                    maxEnd = Math.max(maxEnd, spans.getEnd(i));
+                out.writeInt(maxEnd);
+            }
+
+            for (int i = 0; i < text.length(); i++)
+                out.writeChar(text.charAt(i));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the text, read from the mapped file as needed.
+     */
+    public CharSequence getText() {
+        return text.duplicate();
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    /**
+     * Returns the given range of the text with new markups of the range applied, the markups
+     * outside the range are clipped. The numbered list items are numbered from the window start.
+     *
+     * @param from inclusive
+     * @param to exclusive
+     */
+    public Spanned getWindow(int from, int to) {
+        if (from < 0 || to < from || to > length())
+            throw new IndexOutOfBoundsException("Invalid window (" + from + ", " + to + ")");
+        SpannableStringBuilder window = new SpannableStringBuilder(text.subSequence(from, to).toString());
+        // The last page starting in the window.
+        int low = 0;
+        int high = pageStarts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pageStarts[mid] <= to)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        applyPages(window, from, to, low - 1, 1, 0, treeLeaves);
+        // The list items are numbered by the lines of the window.
+        SpanTable items = SpanTable.of(window, ListItem.class);
+        ListIndex lists = ListIndex.of(window, items);
+        if (lists != null) {
+            ListItem.Numbering numbering = lists.getNumbering();
+            for (int i = 0; i < items.size(); i++)
+                ((ListItem) items.getMarkup(i)).setNumbering(numbering);
+        }
+        return window;
+    }
+
+    // Applies the markups in the window of the pages of the given node up to the given last
+    // page, skipping the nodes whose pages all end before the window.
+    private void applyPages(SpannableStringBuilder window, int from, int to, int lastPage, int node,
+                            int firstPage, int pageCount) {
+        if (firstPage > lastPage || maxEnds[node] < from)
+            return;
+        if (pageCount > 1) {
+            int half = pageCount / 2;
+            applyPages(window, from, to, lastPage, 2 * node, firstPage, half);
+            applyPages(window, from, to, lastPage, 2 * node + 1, firstPage + half, half);
+            return;
+        }
+        int first = firstPage * PAGE_SIZE;
+        int last = Math.min(entryCount, first + PAGE_SIZE);
+        for (int i = first; i < last; i++) {
+            int start = getEntry(i, 1);
+            int end = getEntry(i, 2);
+            if (start > to)
+                break;
+            // Like getSpans, the non empty markups just touching the window are left out.
+            if (end < from || (start != end && (end == from || start == to)))
+                continue;
+            Markup markup = createMarkup(i);
+            if (markup != null)
+                markup.applyInternal(window, Math.max(start, from) - from, Math.min(end, to) - from,
+                        start == end ? Spanned.SPAN_MARK_MARK : Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
+    private Markup createMarkup(int entry) {
+        int attributeIndex = getEntry(entry, 3);
+        Object value = null;
+        if (attributeIndex != AttributeStore.NO_ATTRIBUTES) {
+            value = attributes.get(attributeIndex);
+            if (value == null) {
+                value = readAttributes(attributeIndex);
+                if (value != null)
+                    attributes.put(attributeIndex, value);
+            }
+        }
+        return Util.createMarkup(types.get(getEntry(entry, 0)), value);
+    }
+
+    private Object readAttributes(int index) {
+        int offset = attributeOffsets[index];
+        // The length is before the attributes.
+        byte[] bytes = new byte[buffer.getInt(offset - 4)];
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset);
+        record.get(bytes);
+        try {
+            return attributeCodec.readAttributes(new DataInputStream(new ByteArrayInputStream(bytes)), types.get(attributeKinds[index]));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private int getEntry(int entry, int field) {
+        return buffer.getInt(entriesOffset + (entry * ENTRY_SIZE + field) * 4);
+    }
+}
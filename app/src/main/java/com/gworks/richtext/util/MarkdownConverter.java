@@ -0,0 +1,32 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.markup.MarkdownWriter;
+import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.tags.MarkupRegistry;
+
+/**
+ * Converts the markups to markdown. Only the markups registered with their markdown in the
+ * generated {@link MarkupRegistry} are converted, the others are left to the unknown markup
+ * handler.
+ */
+public class MarkdownConverter extends MarkupConverter {
+
+    public MarkdownConverter(UnknownMarkupHandler unknownMarkupHandler) {
+        super(unknownMarkupHandler);
+    }
+
+    @Override
+    protected boolean convertRegistered(StringBuilder sb, Markup markup, boolean begin) {
+        return MarkupRegistry.writeMarkdown(sb, markup, begin);
+    }
+
+    /**
+     * Appends the text with the markdown characters escaped like the {@link MarkdownWriter} of
+     * the command line converter.
+     */
+    @Override
+    public void convertText(StringBuilder sb, CharSequence text, int start, int end) {
+        boolean lineStart = start == 0 || text.charAt(start - 1) == '\n';
+        MarkdownWriter.escape(text, start, end, lineStart, sb);
+    }
+}
@@ -1,10 +1,15 @@
 package com.gworks.richtext.util;
 
+import com.gworks.richtext.tags.BlockQuote;
 import com.gworks.richtext.tags.Bold;
 import com.gworks.richtext.tags.Font;
+import com.gworks.richtext.tags.Heading;
 import com.gworks.richtext.tags.Italic;
 import com.gworks.richtext.tags.Link;
+import com.gworks.richtext.tags.ListItem;
 import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.tags.MarkupRegistry;
+import com.gworks.richtext.tags.Paragraph;
 import com.gworks.richtext.tags.Underline;
 
 /**
@@ -15,6 +20,9 @@ public class MarkupConverter {
 
     private final UnknownMarkupHandler unknownMarkupHandler;
 
+    // Lists of the text converted if it has list items.
+    private ListIndex listIndex;
+
     public MarkupConverter(UnknownMarkupHandler unknownMarkupHandler){
         this.unknownMarkupHandler = unknownMarkupHandler;
     }
@@ -39,6 +47,62 @@ public class MarkupConverter {
         return false;
     }
 
+    public boolean convertMarkup(StringBuilder sb, Heading headingMarkup, boolean begin){
+        return false;
+    }
+
+    public boolean convertMarkup(StringBuilder sb, Paragraph paragraphMarkup, boolean begin){
+        return false;
+    }
+
+    public boolean convertMarkup(StringBuilder sb, BlockQuote blockQuoteMarkup, boolean begin){
+        return false;
+    }
+
+    public boolean convertMarkup(StringBuilder sb, ListItem listItemMarkup, boolean begin){
+        return false;
+    }
+
+    /**
+     * Appends the given range of the text, escaped as the format needs. The plain text is
+     * appended as is.
+     */
+    public void convertText(StringBuilder sb, CharSequence text, int start, int end) {
+        sb.append(text, start, end);
+    }
+
+    /**
+     * Sets the index of the list items of the text converted, created from its span table.
+     */
+    /*default*/ void setListIndex(ListIndex listIndex) {
+        this.listIndex = listIndex;
+    }
+
+    /**
+     * Returns the index of the list items of the text converted or null if it has none.
+     */
+    protected ListIndex getListIndex() {
+        return listIndex;
+    }
+
+    /**
+     * Converts the given markup. The markups registered in the generated {@link MarkupRegistry}
+     * are converted by {@link #convertRegistered(StringBuilder, Markup, boolean)} and the others
+     * through their overloads above.
+     */
+    public final void convert(StringBuilder sb, Markup markup, boolean begin) {
+        if (!convertRegistered(sb, markup, begin))
+            markup.convert(sb, this, begin);
+    }
+
+    /**
+     * Converts the given markup by its id in the generated {@link MarkupRegistry}. Returns false
+     * if not converted, then the markup is converted through its overload.
+     */
+    protected boolean convertRegistered(StringBuilder sb, Markup markup, boolean begin) {
+        return false;
+    }
+
     public final boolean convertMarkup(StringBuilder sb, Markup markup, boolean begin){
         if (unknownMarkupHandler != null)
             return unknownMarkupHandler.handleMarkup(sb, markup, begin);
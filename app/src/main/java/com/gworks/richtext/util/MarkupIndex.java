@@ -0,0 +1,224 @@
+package com.gworks.richtext.util;
+
+import android.text.Spanned;
+
+import com.gworks.richtext.tags.Markup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Posting lists of the applied markups by type, each sorted by start. The positions are read
+ * from the text: an edit shifts the markups after it together, so only the markups touching
+ * the edit can move out of order and they are removed before the edit and added again after it.
+ * <p>
+ * Adding and removing cost O(1), the changes are merged into the list of the type in one pass
+ * when the list is next read, so loading many markups costs one merge.
+ * <p>
+ * The markups of a type which can not exist with itself do not overlap, so their ends are
+ * sorted too and the markups in a range are found by binary search.
+ */
+/*default*/ class MarkupIndex {
+
+    private final HashMap<Class<? extends Markup>, PostingList> lists;
+
+    MarkupIndex() {
+        lists = new HashMap<>();
+    }
+
+    /**
+     * Adds the given markup applied in the text, if not added already.
+     */
+    void add(Markup markup) {
+        PostingList list = lists.get(markup.getClass());
+        if (list == null) {
+            list = new PostingList(markup);
+            lists.put(markup.getClass(), list);
+        }
+        if (list.pending.containsKey(markup) || (list.members.containsKey(markup) && !list.removed.containsKey(markup)))
+            return;
+        list.pending.put(markup, Boolean.TRUE);
+    }
+
+    /**
+     * Removes the given markup.
+     */
+    void remove(Markup markup) {
+        PostingList list = lists.get(markup.getClass());
+        if (list != null) {
+            list.pending.remove(markup);
+            if (list.members.containsKey(markup))
+                list.removed.put(markup, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Returns the types of the markups indexed.
+     */
+    Set<Class<? extends Markup>> getTypes() {
+        return lists.keySet();
+    }
+
+    /**
+     * Returns a markup of the given type indexed at some time, which may not be applied any more,
+     * for the checks depending only on the type (like {@link Markup#canExistWith(Class)}). Null
+     * if no markup of the type was indexed.
+     */
+    Markup getSample(Class<? extends Markup> markupType) {
+        PostingList list = lists.get(markupType);
+        return list == null ? null : list.sample;
+    }
+
+    /**
+     * Returns the markups of the given type in the given range, matching the markups returned by
+     * {@link Spanned#getSpans(int, int, Class)}.
+     */
+    @SuppressWarnings("unchecked")
+    <T extends Markup> List<T> get(Class<T> markupType, int from, int to, Spanned text) {
+        PostingList list = lists.get(markupType);
+        if (list == null)
+            return Collections.emptyList();
+        list.flush(text);
+        List<Markup> markups = list.markups;
+        int size = markups.size();
+
+        int first = 0;
+        if (list.endsSorted) {
+            // First markup ending at or after from.
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (markups.get(mid).getSpanEnd(text) < from)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            first = low;
+        }
+
+        List<T> result = new ArrayList<>();
+        for (int i = first; i < size; i++) {
+            Markup markup = markups.get(i);
+            int start = markup.getSpanStart(text);
+            if (start > to)
+                break;
+            int end = markup.getSpanEnd(text);
+            if (end < from)
+                continue;
+            // Like getSpans, the non empty markups just touching the non empty range are left out.
+            if (start != end && from != to && (start == to || end == from))
+                continue;
+            result.add((T) markup);
+        }
+        return result;
+    }
+
+    private static class PostingList {
+
+        final Markup sample;
+
+        // Sorted by start.
+        ArrayList<Markup> markups;
+
+        // The markups in the list, to tell the pending removals from the pending adds.
+        final IdentityHashMap<Markup, Boolean> members;
+
+        // Changes not merged into the list yet.
+        final IdentityHashMap<Markup, Boolean> pending;
+        final IdentityHashMap<Markup, Boolean> removed;
+
+        // Whether the ends of the markups are sorted too, i.e. the markups do not overlap.
+        boolean endsSorted;
+
+        PostingList(Markup sample) {
+            this.sample = sample;
+            markups = new ArrayList<>();
+            members = new IdentityHashMap<>();
+            pending = new IdentityHashMap<>();
+            removed = new IdentityHashMap<>();
+            endsSorted = true;
+        }
+
+        // Merges the pending changes into the list.
+        void flush(Spanned text) {
+            if (pending.isEmpty() && removed.isEmpty())
+                return;
+
+            // The markups to add, sorted by start. The markups dropped by the text are left out.
+            int addCount = 0;
+            Markup[] added = new Markup[pending.size()];
+            final int[] addedStarts = new int[added.length];
+            for (Markup markup : pending.keySet()) {
+                int start = markup.getSpanStart(text);
+                if (start >= 0) {
+                    added[addCount] = markup;
+                    addedStarts[addCount++] = start;
+                }
+            }
+            Integer[] order = new Integer[addCount];
+            for (int i = 0; i < addCount; i++)
+                order[i] = i;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return addedStarts[i1] - addedStarts[i2];
+                }
+            });
+
+            ArrayList<Markup> kept = markups;
+            if (!removed.isEmpty()) {
+                kept = new ArrayList<>(markups.size());
+                for (int i = 0, n = markups.size(); i < n; i++) {
+                    Markup markup = markups.get(i);
+                    if (removed.containsKey(markup))
+                        members.remove(markup);
+                    else
+                        kept.add(markup);
+                }
+                if (!endsSorted) {
+                    // The removed markups may have been the overlapping ones.
+                    endsSorted = true;
+                    for (int i = 1, n = kept.size(); i < n && endsSorted; i++)
+                        endsSorted = kept.get(i - 1).getSpanEnd(text) <= kept.get(i).getSpanEnd(text);
+                }
+            }
+
+            // The added markups are placed by binary search, so only their neighbours are read.
+            ArrayList<Markup> merged = addCount == 0 ? kept : new ArrayList<Markup>(kept.size() + addCount);
+            int copied = 0;
+            for (int i = 0; i < addCount; i++) {
+                Markup markup = added[order[i]];
+                int start = addedStarts[order[i]];
+                int low = copied;
+                int high = kept.size();
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (kept.get(mid).getSpanStart(text) <= start)
+                        low = mid + 1;
+                    else
+                        high = mid;
+                }
+                merged.addAll(kept.subList(copied, low));
+                copied = low;
+                int end = markup.getSpanEnd(text);
+                if ((!merged.isEmpty() && merged.get(merged.size() - 1).getSpanEnd(text) > end)
+                        || (low < kept.size() && kept.get(low).getSpanEnd(text) < end))
+                    endsSorted = false;
+                merged.add(markup);
+                members.put(markup, Boolean.TRUE);
+            }
+            if (addCount > 0)
+                merged.addAll(kept.subList(copied, kept.size()));
+            markups = merged;
+            pending.clear();
+            removed.clear();
+        }
+    }
+}
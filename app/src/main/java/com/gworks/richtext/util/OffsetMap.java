@@ -0,0 +1,82 @@
+package com.gworks.richtext.util;
+
+import java.util.Arrays;
+
+/**
+ * Maps the offsets of the plain text to the offsets of its html and back. The map has a
+ * (plain offset, html offset) pair for each run of text between the tags, both sorted, so a
+ * lookup in either direction is a binary search.
+ */
+public class OffsetMap {
+
+    private final int[] plainOffsets;
+    private final int[] htmlOffsets;
+    private final int size;
+
+    private OffsetMap(int[] plainOffsets, int[] htmlOffsets, int size) {
+        this.plainOffsets = plainOffsets;
+        this.htmlOffsets = htmlOffsets;
+        this.size = size;
+    }
+
+    /**
+     * Returns the offset in the html of the given offset of the plain text. The offsets at
+     * tags map to after the tags.
+     */
+    public int toHtmlOffset(int plainOffset) {
+        int run = findRun(plainOffsets, plainOffset);
+        if (run < 0)
+            return 0;
+        return htmlOffsets[run] + plainOffset - plainOffsets[run];
+    }
+
+    /**
+     * Returns the offset in the plain text of the given offset of the html. The offsets inside
+     * a tag map to the offset of the tag.
+     */
+    public int toPlainOffset(int htmlOffset) {
+        int run = findRun(htmlOffsets, htmlOffset);
+        if (run < 0)
+            return 0;
+        int runLength = run + 1 < size ? plainOffsets[run + 1] - plainOffsets[run] : 0;
+        return plainOffsets[run] + Math.min(htmlOffset - htmlOffsets[run], runLength);
+    }
+
+    // Index of the last run starting at or before the given offset, -1 if none.
+    private int findRun(int[] offsets, int offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (offsets[mid] <= offset)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low - 1;
+    }
+
+    /*default*/ static class Builder {
+
+        private int[] plainOffsets = new int[16];
+        private int[] htmlOffsets = new int[16];
+        private int size;
+
+        /**
+         * Adds the start of a run of text, called in the order of the offsets.
+         */
+        void add(int plainOffset, int htmlOffset) {
+            if (size == plainOffsets.length) {
+                plainOffsets = Arrays.copyOf(plainOffsets, size * 2);
+                htmlOffsets = Arrays.copyOf(htmlOffsets, size * 2);
+            }
+            plainOffsets[size] = plainOffset;
+            htmlOffsets[size] = htmlOffset;
+            size++;
+        }
+
+        OffsetMap build() {
+            return new OffsetMap(Arrays.copyOf(plainOffsets, size), Arrays.copyOf(htmlOffsets, size), size);
+        }
+    }
+}
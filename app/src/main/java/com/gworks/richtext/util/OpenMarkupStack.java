@@ -0,0 +1,99 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.Markup;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Array backed stack of the markups opened (but not yet closed) while exporting the rich text.
+ * The depth of every open markup is indexed, so closing a set of markups costs only the number
+ * of markups popped off the stack and not the number of open markups.
+ * <p>
+ * When the markups are not well formed (i.e. they cross each other like Bold [0,10) and
+ * Italic [5,15)) the markups opened above the closing markup are closed first and reopened
+ * after it, so that the output is always well formed.
+ */
+/*default*/ class OpenMarkupStack {
+
+    private Markup[] stack;
+
+    // Whether the markup at the corresponding depth closes in the current transition.
+    private boolean[] closing;
+
+    // The depth of each markup in the stack.
+    private final IdentityHashMap<Markup, Integer> depths;
+
+    private int size;
+
+    OpenMarkupStack() {
+        stack = new Markup[8];
+        closing = new boolean[8];
+        depths = new IdentityHashMap<>();
+    }
+
+    /**
+     * Opens the given markup on top of the stack.
+     */
+    void open(Markup markup, StringBuilder sb, MarkupConverter converter) {
+        converter.convert(sb, markup, true);
+        push(markup);
+    }
+
+    /**
+     * Closes the given markups. The markups which are not open are ignored. The markups opened
+     * above the lowest closing markup are closed and reopened in their original order.
+     *
+     * @param markups markups to close
+     */
+    void close(List<Markup> markups, StringBuilder sb, MarkupConverter converter) {
+        int lowest = size;
+        for (int i = 0, n = markups.size(); i < n; i++) {
+            Integer depth = depths.get(markups.get(i));
+            if (depth != null) {
+                closing[depth] = true;
+                if (depth < lowest)
+                    lowest = depth;
+            }
+        }
+        if (lowest == size)
+            return;
+
+        // Close from the top till the lowest closing markup.
+        for (int i = size - 1; i >= lowest; i--)
+            converter.convert(sb, stack[i], false);
+
+        // Reopen the markups which are not closing, keeping their relative order.
+        int top = size;
+        size = lowest;
+        for (int i = lowest; i < top; i++) {
+            Markup markup = stack[i];
+            stack[i] = null;
+            depths.remove(markup);
+            if (closing[i]) {
+                closing[i] = false;
+            } else {
+                converter.convert(sb, markup, true);
+                push(markup);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void push(Markup markup) {
+        if (size == stack.length) {
+            int capacity = size << 1;
+            Markup[] newStack = new Markup[capacity];
+            System.arraycopy(stack, 0, newStack, 0, size);
+            stack = newStack;
+            boolean[] newClosing = new boolean[capacity];
+            System.arraycopy(closing, 0, newClosing, 0, size);
+            closing = newClosing;
+        }
+        depths.put(markup, size);
+        stack[size++] = markup;
+    }
+}
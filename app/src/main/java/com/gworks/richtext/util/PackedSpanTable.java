@@ -0,0 +1,221 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.Markup;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact form of a {@link SpanTable} for keeping the markups of documents which are not being
+ * edited (saved, off screen or in history). Each entry is packed as kind, start, end and
+ * attribute handle in a single int array, the kinds index a table of the markup types and the
+ * attribute handles an {@link AttributeStore} of the distinct attributes. So the table has a
+ * fixed number of objects regardless of the number of markups, instead of a markup and its
+ * spans per entry.
+ */
+public class PackedSpanTable {
+
+    private static final int KIND = 0;
+    private static final int START = 1;
+    private static final int END = 2;
+    private static final int ATTRIBUTES = 3;
+    private static final int ENTRY_SIZE = 4;
+
+    private static final int NO_ATTRIBUTES = AttributeStore.NO_ATTRIBUTES;
+
+    private final List<Class<? extends Markup>> types;
+    private final AttributeStore attributes;
+    private final int[] entries;
+
+    /*default*/ PackedSpanTable(List<Class<? extends Markup>> types, AttributeStore attributes, int[] entries) {
+        this.types = types;
+        this.attributes = attributes;
+        this.entries = entries;
+    }
+
+    /**
+     * Packs the given table. Equal attributes are stored once.
+     */
+    public static PackedSpanTable of(SpanTable spanTable) {
+        int size = spanTable.size();
+        int[] entries = new int[size * ENTRY_SIZE];
+        List<Class<? extends Markup>> types = new ArrayList<>();
+        HashMap<Class<? extends Markup>, Integer> kinds = new HashMap<>();
+        AttributeStore attributes = new AttributeStore();
+        for (int i = 0; i < size; i++) {
+            Markup markup = spanTable.getMarkup(i);
+            Integer kind = kinds.get(markup.getClass());
+            if (kind == null) {
+                kind = types.size();
+                kinds.put(markup.getClass(), kind);
+                types.add(markup.getClass());
+            }
+            int entry = i * ENTRY_SIZE;
+            entries[entry + KIND] = kind;
+            entries[entry + START] = spanTable.getStart(i);
+            entries[entry + END] = spanTable.getEnd(i);
+            entries[entry + ATTRIBUTES] = attributes.intern(Util.getAttributes(markup));
+        }
+        return new PackedSpanTable(types, attributes, entries);
+    }
+
+    /**
+     * Writes this table to the given output. The markup types are written by name and the
+     * numbers as variable length integers, the starts as deltas and the ends relative to the
+     * starts, so most entries take a few bytes.
+     */
+    public void write(DataOutput out, AttributeCodec attributeCodec) throws IOException {
+        writeVarInt(out, types.size());
+        for (Class<? extends Markup> type : types)
+            out.writeUTF(type.getName());
+
+        // The kind of a markup using each attribute, for decoding it.
+        int[] attributeKinds = new int[attributes.size()];
+        for (int entry = 0; entry < entries.length; entry += ENTRY_SIZE)
+            if (entries[entry + ATTRIBUTES] != NO_ATTRIBUTES)
+                attributeKinds[entries[entry + ATTRIBUTES]] = entries[entry + KIND];
+        writeVarInt(out, attributes.size());
+        for (int i = 0; i < attributes.size(); i++) {
+            writeVarInt(out, attributeKinds[i]);
+            attributeCodec.writeAttributes(out, attributes.get(i));
+        }
+
+        writeVarInt(out, size());
+        int previousStart = 0;
+        for (int entry = 0; entry < entries.length; entry += ENTRY_SIZE) {
+            // Starts are sorted, so written as deltas and ends relative to the start.
+            writeVarInt(out, entries[entry + KIND]);
+            writeVarInt(out, entries[entry + START] - previousStart);
+            writeVarInt(out, entries[entry + END] - entries[entry + START]);
+            // Shifted so that no attributes is 0.
+            writeVarInt(out, entries[entry + ATTRIBUTES] - NO_ATTRIBUTES);
+            previousStart = entries[entry + START];
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #write(DataOutput, AttributeCodec)}.
+     *
+     * @throws IOException if the input is malformed or has unknown markup types
+     */
+    public static PackedSpanTable read(DataInput in, AttributeCodec attributeCodec) throws IOException {
+        int typeCount = readVarInt(in);
+        List<Class<? extends Markup>> types = new ArrayList<>();
+        for (int i = 0; i < typeCount; i++)
+            types.add(Util.getMarkupType(in.readUTF()));
+
+        AttributeStore attributes = new AttributeStore();
+        // Handles of the attributes in the order written.
+        int[] handles = new int[readVarInt(in)];
+        for (int i = 0; i < handles.length; i++) {
+            int kind = readVarInt(in);
+            if (kind >= types.size())
+                throw new IOException("Malformed span table");
+            handles[i] = attributes.intern(attributeCodec.readAttributes(in, types.get(kind)));
+        }
+
+        int size = readVarInt(in);
+        if (size > Integer.MAX_VALUE / ENTRY_SIZE)
+            throw new IOException("Malformed span table");
+        int[] entries = new int[size * ENTRY_SIZE];
+        int previousStart = 0;
+        for (int entry = 0; entry < entries.length; entry += ENTRY_SIZE) {
+            entries[entry + KIND] = readVarInt(in);
+            entries[entry + START] = previousStart + readVarInt(in);
+            entries[entry + END] = entries[entry + START] + readVarInt(in);
+            int attributeIndex = readVarInt(in) + NO_ATTRIBUTES;
+            previousStart = entries[entry + START];
+            if (entries[entry + KIND] >= types.size() || entries[entry + START] < 0 || entries[entry + END] < 0
+                    || attributeIndex >= handles.length)
+                throw new IOException("Malformed span table");
+            entries[entry + ATTRIBUTES] = attributeIndex == NO_ATTRIBUTES ? NO_ATTRIBUTES : handles[attributeIndex];
+        }
+        return new PackedSpanTable(types, attributes, entries);
+    }
+
+    // Writes the given non negative int in 7 bit groups, the low group first.
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0)
+                    throw new IOException("Malformed span table");
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    public int size() {
+        return entries.length / ENTRY_SIZE;
+    }
+
+    public Class<? extends Markup> getType(int index) {
+        return types.get(entries[index * ENTRY_SIZE + KIND]);
+    }
+
+    public int getStart(int index) {
+        return entries[index * ENTRY_SIZE + START];
+    }
+
+    public int getEnd(int index) {
+        return entries[index * ENTRY_SIZE + END];
+    }
+
+    /**
+     * Returns the attributes of the markup at the given index or null if it has none.
+     */
+    public Object getAttributes(int index) {
+        return attributes.get(getAttributesHandle(index));
+    }
+
+    /**
+     * Returns the handle of the attributes of the markup at the given index in
+     * {@link #getAttributeStore()}. The markups with equal attributes have the same handle.
+     */
+    public int getAttributesHandle(int index) {
+        return entries[index * ENTRY_SIZE + ATTRIBUTES];
+    }
+
+    public AttributeStore getAttributeStore() {
+        return attributes;
+    }
+
+    /**
+     * Creates a new markup for the entry at the given index.
+     */
+    public Markup createMarkup(int index) {
+        return Util.createMarkup(getType(index), getAttributes(index));
+    }
+
+    /**
+     * Returns the span table of new markups for all the entries.
+     */
+    public SpanTable unpack() {
+        int size = size();
+        Markup[] markups = new Markup[size];
+        int[] starts = new int[size];
+        int[] ends = new int[size];
+        for (int i = 0; i < size; i++) {
+            markups[i] = createMarkup(i);
+            starts[i] = getStart(i);
+            ends[i] = getEnd(i);
+        }
+        // Already sorted.
+        return new SpanTable(markups, starts, ends);
+    }
+}
@@ -0,0 +1,119 @@
+package com.gworks.richtext.util;
+
+/**
+ * Sorted starts of consecutive partitions of the text (like lines or chunks), the first one
+ * starting at 0.
+ * <p>
+ * To keep the updates cheap while typing, the shift of the starts after an edit is not applied
+ * at once. Instead the starts after the step partition are offset by a pending step length,
+ * which is applied lazily as the edits move across the partitions.
+ */
+/*default*/ class Partitioning {
+
+    // The starts after the step partition are yet to be offset by the step length.
+    private int[] starts;
+
+    private int count;
+
+    private int stepPartition;
+
+    private int stepLength;
+
+    // Starts offset or moved and partitions searched, see getSteps().
+    private long steps;
+
+    Partitioning() {
+        starts = new int[16];
+        count = 1;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of starts offset or moved and of partitions searched so far. A
+     * deterministic measure of the work, for the scaling tests.
+     */
+    long getSteps() {
+        return steps;
+    }
+
+    int getStart(int partition) {
+        return partition > stepPartition ? starts[partition] + stepLength : starts[partition];
+    }
+
+    void setStart(int partition, int start) {
+        starts[partition] = partition > stepPartition ? start - stepLength : start;
+    }
+
+    /**
+     * Returns the partition containing the given offset.
+     */
+    int find(int offset) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            steps++;
+            int mid = (low + high + 1) >>> 1;
+            if (getStart(mid) <= offset)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Offsets the starts of all the partitions after the given partition by the given delta.
+     */
+    void shift(int partition, int delta) {
+        if (partition >= stepPartition)
+            applyStep(partition);
+        else
+            backStep(partition);
+        stepLength += delta;
+    }
+
+    /**
+     * Replaces the given number of partitions starting from the given partition with the given
+     * number of new partitions. The starts of the new partitions are to be set by the caller.
+     */
+    void replace(int partition, int removeCount, int insertCount) {
+        applyStep(count - 1);
+        int newCount = count + insertCount - removeCount;
+        if (newCount > starts.length) {
+            int[] newStarts = new int[Math.max(newCount, starts.length << 1)];
+            System.arraycopy(starts, 0, newStarts, 0, count);
+            starts = newStarts;
+        }
+        System.arraycopy(starts, partition + removeCount, starts, partition + insertCount,
+                count - partition - removeCount);
+        steps += count - partition - removeCount;
+        count = newCount;
+        stepPartition = count - 1;
+        stepLength = 0;
+    }
+
+    // Applies the step length to the partitions till the given partition.
+    private void applyStep(int partition) {
+        if (stepLength != 0) {
+            for (int i = stepPartition + 1; i <= partition; i++)
+                starts[i] += stepLength;
+            steps += Math.max(0, partition - stepPartition);
+        }
+        stepPartition = partition;
+        if (stepPartition == count - 1)
+            stepLength = 0;
+    }
+
+    // Removes the step length from the partitions after the given partition.
+    private void backStep(int partition) {
+        if (stepLength != 0) {
+            for (int i = partition + 1; i <= stepPartition; i++)
+                starts[i] -= stepLength;
+            steps += Math.max(0, stepPartition - partition);
+        }
+        stepPartition = partition;
+    }
+}
@@ -0,0 +1,237 @@
+package com.gworks.richtext.util;
+
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.v4.view.ViewCompat;
+import android.text.Editable;
+import android.text.Spanned;
+import android.widget.EditText;
+
+import com.gworks.richtext.tags.BlockMarkup;
+import com.gworks.richtext.tags.Markup;
+
+/**
+ * Paste of a large fragment over several frames, so the editor stays responsive. The text is
+ * inserted in chunks, then the markups are applied in batches, each frame doing as much as
+ * fits in its time budget. The pasted text can be edited meanwhile, the remaining chunks are
+ * inserted at the end of the pasted text and the markups are clipped to it.
+ * <p>
+ * Created by {@link RichEditTexter#paste(int, int, RichFragment, Callback)}. Cancelling the
+ * task removes the pasted text with every markup in it, including the copies made by the
+ * edits meanwhile, and restores the replaced fragment.
+ */
+public class PasteTask {
+
+    public interface Callback {
+
+        /**
+         * Called after each frame of the paste.
+         *
+         * @param done number of the chars and the markups pasted
+         * @param total number of the chars and the markups of the fragment
+         */
+        void onProgress(PasteTask task, int done, int total);
+
+        void onFinished(PasteTask task);
+
+        /**
+         * Called when the paste is cancelled, or stopped because the pasted text is deleted.
+         */
+        void onCancelled(PasteTask task);
+    }
+
+    private static final int CHUNK_LENGTH = 8192;
+
+    // Number of the markups applied between the checks of the time.
+    private static final int MARKUP_BATCH = 64;
+
+    // Time of a frame spent in pasting.
+    private static final long FRAME_BUDGET_MS = 8;
+
+    private final RichEditTexter texter;
+    private final int offset;
+    private final RichFragment fragment;
+    private final RichFragment replaced;
+    @Nullable
+    private final Callback callback;
+
+    // Span over the pasted text, set after the first chunk.
+    private final Object pastedRange = new Object();
+    private int insertedLength;
+    private int nextMarkup;
+    // Block of the line the text is pasted in, restored on cancel.
+    @Nullable
+    private BlockMarkup lineBlock;
+    private boolean done;
+
+    private final Runnable frameCallback = new Runnable() {
+        @Override
+        public void run() {
+            if (!done)
+                paste(SystemClock.uptimeMillis() + FRAME_BUDGET_MS);
+        }
+    };
+
+    /*default*/ PasteTask(RichEditTexter texter, int from, int to, RichFragment fragment, @Nullable Callback callback) {
+        this.texter = texter;
+        this.offset = from;
+        this.fragment = fragment;
+        this.callback = callback;
+        replaced = texter.extractFragment(from, to);
+    }
+
+    /*default*/ void start() {
+        texter.getRichTextView().getText().delete(offset, offset + replaced.length());
+        BlockIndex blockIndex = texter.getBlockIndex();
+        lineBlock = blockIndex.getBlock(blockIndex.getLineOf(offset));
+        paste(SystemClock.uptimeMillis() + FRAME_BUDGET_MS);
+    }
+
+    /**
+     * Pastes the rest of the fragment now.
+     */
+    @MainThread
+    public void complete() {
+        if (!done)
+            paste(Long.MAX_VALUE);
+    }
+
+    /**
+     * Stops the paste, removing the pasted text and markups and restoring the replaced
+     * fragment.
+     */
+    @MainThread
+    public void cancel() {
+        if (done)
+            return;
+        EditText editText = texter.getRichTextView();
+        Editable text = editText.getText();
+        int start = insertedLength > 0 ? text.getSpanStart(pastedRange) : offset;
+        int end = insertedLength > 0 ? text.getSpanEnd(pastedRange) : offset;
+        editText.beginBatchEdit();
+        texter.beginMarkupBatch();
+        try {
+            if (start >= 0) {
+                // The markups are rolled back by the range, the markups split by the edits are
+                // copies of the pasted ones.
+                for (Markup markup : text.getSpans(start, end, Markup.class))
+                    if (text.getSpanStart(markup) >= start && text.getSpanEnd(markup) <= end)
+                        texter.removeMarkup(markup);
+                text.delete(start, end);
+                // The blocks pasted in the lines at the ends of the range reach out of it.
+                BlockIndex blockIndex = texter.getBlockIndex();
+                BlockMarkup block = blockIndex.getBlock(blockIndex.getLineOf(start));
+                if (block != lineBlock) {
+                    if (lineBlock != null)
+                        texter.apply(lineBlock, start, start);
+                    else
+                        texter.removeMarkup(block);
+                }
+                texter.insertFragment(start, replaced);
+            }
+        } finally {
+            texter.endMarkupBatch();
+            editText.endBatchEdit();
+        }
+        finish(false);
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public int getTotal() {
+        return fragment.length() + fragment.getSpanTable().size();
+    }
+
+    public int getDone() {
+        return insertedLength + nextMarkup;
+    }
+
+    // Pastes until the given time, then schedules the next frame unless finished.
+    private void paste(long deadline) {
+        EditText editText = texter.getRichTextView();
+        Editable text = editText.getText();
+        SpanTable spans = fragment.getSpanTable();
+        editText.beginBatchEdit();
+        try {
+            while (insertedLength < fragment.length()) {
+                int position = insertedLength == 0 ? offset : text.getSpanEnd(pastedRange);
+                if (position < 0) {
+                    // The pasted text is deleted.
+                    finish(false);
+                    return;
+                }
+                int chunkEnd = Math.min(fragment.length(), insertedLength + CHUNK_LENGTH);
+                // Surrogate pairs are not split.
+                if (chunkEnd < fragment.length() && Character.isHighSurrogate(fragment.getText().charAt(chunkEnd - 1)))
+                    chunkEnd++;
+                text.insert(position, fragment.getText(), insertedLength, chunkEnd);
+                // The range does not grow with the text inserted at its end.
+                int start = insertedLength == 0 ? position : text.getSpanStart(pastedRange);
+                text.setSpan(pastedRange, start, position + chunkEnd - insertedLength, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                insertedLength = chunkEnd;
+                if (SystemClock.uptimeMillis() >= deadline) {
+                    scheduleNextFrame();
+                    return;
+                }
+            }
+
+            // The markups of each frame are indexed and anchored in one batch.
+            texter.beginMarkupBatch();
+            try {
+                while (nextMarkup < spans.size()) {
+                    int start = text.getSpanStart(pastedRange);
+                    int end = text.getSpanEnd(pastedRange);
+                    if (start < 0) {
+                        finish(false);
+                        return;
+                    }
+                    // The markups are clipped to the pasted text, which may have been edited.
+                    for (int count = 0; count < MARKUP_BATCH && nextMarkup < spans.size(); count++, nextMarkup++) {
+                        Markup markup = Util.copyMarkup(spans.getMarkup(nextMarkup));
+                        if (markup == null)
+                            continue;
+                        texter.apply(markup, Math.min(end, start + spans.getStart(nextMarkup)),
+                                Math.min(end, start + spans.getEnd(nextMarkup)));
+                    }
+                    if (nextMarkup < spans.size() && SystemClock.uptimeMillis() >= deadline) {
+                        scheduleNextFrame();
+                        return;
+                    }
+                }
+            } finally {
+                texter.endMarkupBatch();
+            }
+        } finally {
+            editText.endBatchEdit();
+        }
+        // Like a paste, the caret is put after the pasted text.
+        int end = text.getSpanEnd(pastedRange);
+        if (end >= 0)
+            editText.setSelection(end);
+        finish(true);
+    }
+
+    private void scheduleNextFrame() {
+        if (callback != null)
+            callback.onProgress(this, getDone(), getTotal());
+        ViewCompat.postOnAnimation(texter.getRichTextView(), frameCallback);
+    }
+
+    private void finish(boolean finished) {
+        if (done)
+            return;
+        done = true;
+        texter.getRichTextView().getText().removeSpan(pastedRange);
+        lineBlock = null;
+        texter.onPasteDone(this);
+        if (callback != null) {
+            if (finished)
+                callback.onFinished(this);
+            else
+                callback.onCancelled(this);
+        }
+    }
+}
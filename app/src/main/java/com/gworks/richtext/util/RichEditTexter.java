@@ -24,16 +24,32 @@ import android.text.TextWatcher;
 import android.widget.EditText;
 
 import com.gworks.richtext.tags.AttributedMarkup;
+import com.gworks.richtext.tags.BlockMarkup;
+import com.gworks.richtext.tags.ListItem;
 import com.gworks.richtext.tags.Markup;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 public class RichEditTexter extends RichTexter {
 
     private static final String TAG = "@RichEditTexter";
 
+    // Created on the first search and updated as the text changes.
+    private SearchIndex searchIndex;
+
+    // Created when first needed.
+    private StyleStateTracker styleStateTracker;
+
+    // The paste in progress if any.
+    private PasteTask pasteTask;
+
     public RichEditTexter(EditText editText) {
-        super(editText);
+        super(editText, false);
         editText.addTextChangedListener(textWatcher);
     }
 
@@ -42,14 +58,32 @@ public class RichEditTexter extends RichTexter {
         return (EditText) super.getRichTextView();
     }
 
+    /**
+     * Returns the tracker of the markups active in the selection, for updating the toolbars.
+     */
+    public StyleStateTracker getStyleStateTracker() {
+        if (styleStateTracker == null)
+            styleStateTracker = new StyleStateTracker(this);
+        return styleStateTracker;
+    }
+
+    /**
+     * Call this when the selection of the edit text changes, like from
+     * {@link android.widget.TextView#onSelectionChanged(int, int)}.
+     */
+    public void onSelectionChanged(int selStart, int selEnd) {
+        if (styleStateTracker != null)
+            styleStateTracker.onSelectionChanged(selStart, selEnd);
+    }
+
     public void apply(Class<? extends Markup> markupType, Object value) {
         EditText editText = getRichTextView();
-        applyInternal(createMarkup(markupType, value), editText.getSelectionStart(), editText.getSelectionEnd());
+        apply(Util.createMarkup(markupType, value), editText.getSelectionStart(), editText.getSelectionEnd());
     }
 
     public void apply(Markup markup) {
         EditText editText = getRichTextView();
-        applyInternal(markup, editText.getSelectionStart(), editText.getSelectionEnd());
+        apply(markup, editText.getSelectionStart(), editText.getSelectionEnd());
     }
 
     /**
@@ -60,7 +94,10 @@ public class RichEditTexter extends RichTexter {
      * @param to exclusive
      */
     public void apply(Markup markup, int from, int to) {
-        applyInternal(markup, from, to);
+        if (markup instanceof BlockMarkup)
+            applyBlock((BlockMarkup) markup, from, to);
+        else
+            applyInternal(markup, from, to);
     }
 
     /**
@@ -72,9 +109,50 @@ public class RichEditTexter extends RichTexter {
      */
     private void applyInternal(Markup markup, int from, int to) {
         EditText editText = getRichTextView();
-        markup.applyInternal(editText.getText(), from, to,
-                from == to ? Spannable.SPAN_MARK_MARK : Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        Editable text = editText.getText();
+        int oldStart = markup.getSpanStart(text);
+        if (oldStart >= 0) {
+            // Applying an applied markup moves it.
+            int oldEnd = markup.getSpanEnd(text);
+            removeFromSpanTransitions(markup, oldStart, oldEnd);
+            getMarkupIndex().remove(markup);
+            removeAnchors(markup, oldStart, oldEnd);
+        }
+        int flags;
+        if (markup instanceof BlockMarkup)
+            // Block markups grow with the text typed in their line.
+            flags = Spanned.SPAN_INCLUSIVE_INCLUSIVE;
+        else
+            flags = from == to ? Spannable.SPAN_MARK_MARK : Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+        markup.applyInternal(text, from, to, flags);
         addToSpanTransitions(markup, from, to);
+        getMarkupIndex().add(markup);
+        addAnchors(markup, from, to);
+        if (styleStateTracker != null)
+            styleStateTracker.invalidate();
+    }
+
+    /**
+     * Applies the given block markup to all the lines in the given range. Each line gets its own
+     * instance of the block markup, replacing the block markup applied in the line if any.
+     *
+     * @param markup markup to apply in the first line
+     * @param from inclusive
+     * @param to inclusive
+     */
+    private void applyBlock(BlockMarkup markup, int from, int to) {
+        BlockIndex blockIndex = getBlockIndex();
+        int firstLine = blockIndex.getLineOf(from);
+        int lastLine = blockIndex.getLineOf(to);
+        for (int line = firstLine; line <= lastLine; line++) {
+            BlockMarkup block = line == firstLine ? markup : (BlockMarkup) Util.copyMarkup(markup);
+            removeInternal(blockIndex.getBlock(line), 0, 0);
+            blockIndex.setBlock(line, block);
+            applyInternal(block, blockIndex.getLineStart(line), blockIndex.getLineEnd(line));
+        }
+        if (!blockIndex.getListIndex().isEmpty())
+            // The numbers of the following items may change.
+            getRichTextView().invalidate();
     }
 
     public void remove(Class<? extends Markup> markupType) {
@@ -83,9 +161,225 @@ public class RichEditTexter extends RichTexter {
     }
 
     public void remove(Class<? extends Markup> markupType, int from, int to) {
-        for (Markup appliedMarkup : getAppliedMarkups(from, to))
-            if (appliedMarkup.getClass() == markupType)
-                removeInternal(appliedMarkup, from, to);
+        for (Markup appliedMarkup : getAppliedMarkups(markupType, from, to))
+            removeInternal(appliedMarkup, from, to);
+    }
+
+    /**
+     * Applies a markup of the given type without attributes in all the given ranges.
+     *
+     * @see #apply(Class, Object, int[])
+     */
+    public void apply(Class<? extends Markup> markupType, int[] ranges) {
+        apply(markupType, null, ranges);
+    }
+
+    /**
+     * Applies a markup of the given type in all the given ranges (like all the search hits) in
+     * a single batch edit. The ranges are sorted and merged first. The markup is merged with
+     * the markups of the same type and equal attributes it overlaps or touches, so each merged
+     * range has a single markup. The markups of the same type with other attributes are
+     * replaced in the ranges. The attributes are compared by their handles in the
+     * {@link AttributeStore} of the document.
+     *
+     * @param ranges (start, end) pairs in any order, the empty ranges are ignored
+     */
+    public void apply(Class<? extends Markup> markupType, @Nullable Object value, int[] ranges) {
+        int[] merged = mergeRanges(ranges);
+        if (merged.length == 0)
+            return;
+        Markup markup = Util.createMarkup(markupType, value);
+        if (markup == null)
+            return;
+
+        EditText editText = getRichTextView();
+        editText.beginBatchEdit();
+        beginMarkupBatch();
+        try {
+            if (markup instanceof BlockMarkup) {
+                for (int i = 0; i < merged.length; i += 2)
+                    apply(i == 0 ? markup : Util.copyMarkup(markup), merged[i], merged[i + 1]);
+            } else if (markup instanceof AttributedMarkup) {
+                int handle = getAttributesHandle(markup);
+                removeRanges(markupType, merged, true, handle);
+                applyMerged(markup, merged, true, handle);
+            } else {
+                applyMerged(markup, merged, false, AttributeStore.NO_ATTRIBUTES);
+            }
+        } finally {
+            endMarkupBatch();
+            editText.endBatchEdit();
+        }
+    }
+
+    /**
+     * Removes the markups of the given type from all the given ranges in a single batch edit.
+     * The splittable markups are retained outside the ranges like in
+     * {@link #remove(Class, int, int)}.
+     *
+     * @param ranges (start, end) pairs in any order, the empty ranges are ignored
+     */
+    public void remove(Class<? extends Markup> markupType, int[] ranges) {
+        int[] merged = mergeRanges(ranges);
+        if (merged.length == 0)
+            return;
+        EditText editText = getRichTextView();
+        editText.beginBatchEdit();
+        beginMarkupBatch();
+        try {
+            removeRanges(markupType, merged, false, AttributeStore.NO_ATTRIBUTES);
+        } finally {
+            endMarkupBatch();
+            editText.endBatchEdit();
+        }
+    }
+
+    // Applies the given markup in the given merged ranges, merging with the applied markups of
+    // its type in one sweep of the ranges and the markups sorted by start. If the attributes
+    // are compared, only the markups with the attributes of the given handle are merged.
+    private void applyMerged(Markup markup, int[] merged, boolean compareAttributes, int handle) {
+        Editable text = getRichTextView().getText();
+        int rangeCount = merged.length / 2;
+        // Including the markups just touching the first and the last range.
+        List<? extends Markup> applied = getAppliedMarkups(markup.getClass(), Math.max(0, merged[0] - 1),
+                Math.min(text.length(), merged[merged.length - 1] + 1));
+
+        List<Markup> touching = new ArrayList<>();
+        int[] starts = new int[rangeCount + applied.size()];
+        int[] ends = new int[starts.length];
+        for (int i = 0; i < rangeCount; i++) {
+            starts[i] = merged[2 * i];
+            ends[i] = merged[2 * i + 1];
+        }
+        int range = 0;
+        for (Markup appliedMarkup : applied) {
+            if (compareAttributes && getAttributesHandle(appliedMarkup) != handle)
+                continue;
+            int start = appliedMarkup.getSpanStart(text);
+            int end = appliedMarkup.getSpanEnd(text);
+            while (range < rangeCount && merged[2 * range + 1] < start)
+                range++;
+            if (range < rangeCount && merged[2 * range] <= end) {
+                starts[rangeCount + touching.size()] = start;
+                ends[rangeCount + touching.size()] = end;
+                touching.add(appliedMarkup);
+            }
+        }
+
+        int count = rangeCount + touching.size();
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++)
+            order[i] = (long) starts[i] << 32 | i;
+        Arrays.sort(order);
+
+        boolean markupUsed = false;
+        int k = 0;
+        while (k < count) {
+            int i = (int) order[k];
+            int from = starts[i];
+            int to = ends[i];
+            // An applied markup in the union is moved to the union, the others are removed.
+            Markup union = i >= rangeCount ? touching.get(i - rangeCount) : null;
+            for (k++; k < count && starts[(int) order[k]] <= to; k++) {
+                int j = (int) order[k];
+                to = Math.max(to, ends[j]);
+                if (j >= rangeCount) {
+                    Markup other = touching.get(j - rangeCount);
+                    if (union == null)
+                        union = other;
+                    else
+                        removeInternal(other, starts[j], ends[j]);
+                }
+            }
+            if (union == null) {
+                union = markupUsed ? Util.copyMarkup(markup) : markup;
+                markupUsed = true;
+            } else if (union.getSpanStart(text) == from && union.getSpanEnd(text) == to) {
+                continue;
+            }
+            applyInternal(union, from, to);
+        }
+    }
+
+    // Removes the markups of the given type from the given merged ranges in one sweep of the
+    // ranges and the markups sorted by start. If the attributes are compared, the markups with
+    // the attributes of the given handle are kept.
+    private void removeRanges(Class<? extends Markup> markupType, int[] merged,
+                              boolean compareAttributes, int keptHandle) {
+        Editable text = getRichTextView().getText();
+        int rangeCount = merged.length / 2;
+        List<? extends Markup> applied = getAppliedMarkups(markupType, merged[0], merged[merged.length - 1]);
+        List<Integer> pieces = new ArrayList<>();
+        int range = 0;
+        for (Markup markup : applied) {
+            if (compareAttributes && getAttributesHandle(markup) == keptHandle)
+                continue;
+            int start = markup.getSpanStart(text);
+            int end = markup.getSpanEnd(text);
+            while (range < rangeCount && merged[2 * range + 1] < start)
+                range++;
+
+            // The parts of the markup outside the ranges.
+            pieces.clear();
+            boolean overlaps = false;
+            int position = start;
+            for (int i = range; i < rangeCount && merged[2 * i] <= end; i++) {
+                int from = merged[2 * i];
+                int to = merged[2 * i + 1];
+                // Like getSpans, the non empty markups just touching a range are left out.
+                if (start != end && (to == start || from == end))
+                    continue;
+                overlaps = true;
+                if (from > position) {
+                    pieces.add(position);
+                    pieces.add(from);
+                }
+                position = Math.max(position, to);
+            }
+            if (!overlaps)
+                continue;
+            if (position < end) {
+                pieces.add(position);
+                pieces.add(end);
+            }
+
+            removeInternal(markup, start, end);
+            if (markup.isSplittable()) {
+                for (int i = 0; i < pieces.size(); i += 2)
+                    applyInternal(i == 0 ? markup : Util.copyMarkup(markup), pieces.get(i), pieces.get(i + 1));
+            }
+        }
+    }
+
+    // Sorts the given (start, end) pairs by start and merges the overlapping or touching pairs.
+    private static int[] mergeRanges(int[] ranges) {
+        if (ranges.length % 2 != 0)
+            throw new IllegalArgumentException("Ranges must be (start, end) pairs");
+        long[] sorted = new long[ranges.length / 2];
+        int count = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            int start = ranges[i];
+            int end = ranges[i + 1];
+            if (start < 0 || end < start)
+                throw new IllegalArgumentException("Invalid range (" + start + ", " + end + ")");
+            if (start < end)
+                sorted[count++] = (long) start << 32 | end;
+        }
+        Arrays.sort(sorted, 0, count);
+
+        int[] merged = new int[count * 2];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int start = (int) (sorted[i] >>> 32);
+            int end = (int) sorted[i];
+            if (size > 0 && start <= merged[size - 1]) {
+                merged[size - 1] = Math.max(merged[size - 1], end);
+            } else {
+                merged[size++] = start;
+                merged[size++] = end;
+            }
+        }
+        return Arrays.copyOf(merged, size);
     }
 
     /**
@@ -128,7 +422,16 @@ public class RichEditTexter extends RichTexter {
 
                 //First remove from the old range and reapply if splittable.
                 removeFromSpanTransitions(markup, start, end);
+                getMarkupIndex().remove(markup);
+                removeAnchors(markup, start, end);
                 markup.removeInternal(text);
+                if (markup instanceof BlockMarkup)
+                    getBlockIndex().setBlock(getBlockIndex().getLineOf(start), null);
+                if (markup instanceof ListItem)
+                    // The numbers of the following items may change.
+                    getRichTextView().invalidate();
+                if (styleStateTracker != null)
+                    styleStateTracker.invalidate();
 
                 //If the markup is splittable apply in the outer region.
                 if (markup.isSplittable()) {
@@ -139,9 +442,8 @@ public class RichEditTexter extends RichTexter {
                         reused = true;
                     }
                     if (end > to) {
-                        Object value = markup instanceof AttributedMarkup ? ((AttributedMarkup) markup).getAttributes() : null;
                         //If not reused above reuse here.
-                        applyInternal(reused ? createMarkup(markup.getClass(), value) : markup, to, end);
+                        applyInternal(reused ? Util.copyMarkup(markup) : markup, to, end);
                     }
                 }
             }
@@ -165,10 +467,17 @@ public class RichEditTexter extends RichTexter {
         int start = editText.getSelectionStart();
         int end = editText.getSelectionEnd();
         boolean toggled = false;
-        for (Markup existing : getAppliedMarkups(start, end)) {
-            if (!existing.canExistWith(markupType)) {
+        MarkupIndex markupIndex = getMarkupIndex();
+        // Whether a markup can exist with another depends only on their types, so only the
+        // markups of the conflicting types are looked up.
+        List<Class<? extends Markup>> types = new ArrayList<>(markupIndex.getTypes());
+        for (Class<? extends Markup> type : types) {
+            Markup sample = markupIndex.getSample(type);
+            if (sample == null || sample.canExistWith(markupType))
+                continue;
+            for (Markup existing : getAppliedMarkups(type, start, end)) {
                 removeInternal(existing, start, end);
-                if (existing.getClass() == markupType)
+                if (type == markupType)
                     // If it can not exist with itself toggle.
                     toggled = true;
             }
@@ -178,30 +487,193 @@ public class RichEditTexter extends RichTexter {
             apply(markupType, value);
     }
 
-    private Markup createMarkup(Class<? extends Markup> markupType, Object value) {
+    /**
+     * Applies the given patch (usually computed by {@link DocumentDiff} on another device) in a
+     * single batch edit. The markups are indexed and anchored in one pass at the end.
+     *
+     * @param patch patch to apply
+     */
+    public void applyPatch(DocumentPatch patch) {
+        EditText editText = getRichTextView();
+        Editable text = editText.getText();
+        editText.beginBatchEdit();
+        beginMarkupBatch();
         try {
-            //TODO Add reflection code to create an instance for attributed markups.
-            return markupType.newInstance();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+            // All the markups to remove are looked up before removing any, so the posting lists
+            // are merged once.
+            SpanTable removedSpans = patch.getRemovedSpans();
+            Set<Markup> removed = Collections.newSetFromMap(new IdentityHashMap<Markup, Boolean>());
+            for (int i = 0; i < removedSpans.size(); i++) {
+                int start = removedSpans.getStart(i);
+                int end = removedSpans.getEnd(i);
+                Markup removedMarkup = removedSpans.getMarkup(i);
+                for (Markup markup : getAppliedMarkups(removedMarkup.getClass(), start, end)) {
+                    if (markup.getSpanStart(text) == start && markup.getSpanEnd(text) == end
+                            && SpanTable.isSameMarkup(markup, removedMarkup) && removed.add(markup))
+                        break;
+                }
+            }
+            for (Markup markup : removed)
+                removeInternal(markup, markup.getSpanStart(text), markup.getSpanEnd(text));
+
+            // Apply the edits from the last so that the ranges of the old text stay valid.
+            for (int i = patch.getEditCount() - 1; i >= 0; i--)
+                text.replace(patch.getEditStart(i), patch.getEditEnd(i), patch.getReplacement(i));
+
+            SpanTable addedSpans = patch.getAddedSpans();
+            applyCopies(addedSpans, 0, addedSpans.size(), 0, text.length());
+        } finally {
+            endMarkupBatch();
+            editText.endBatchEdit();
+        }
+    }
+
+    /**
+     * Applies copies of the markups [from, to) of the given table shifted by the given offset
+     * and clipped to the given limit, in one markup batch.
+     */
+    /*default*/ void applyCopies(SpanTable spans, int from, int to, int offset, int limit) {
+        beginMarkupBatch();
+        try {
+            for (int i = from; i < to; i++) {
+                Markup markup = Util.copyMarkup(spans.getMarkup(i));
+                if (markup != null)
+                    apply(markup, Math.min(limit, offset + spans.getStart(i)), Math.min(limit, offset + spans.getEnd(i)));
+            }
+        } finally {
+            endMarkupBatch();
+        }
+    }
+
+    /**
+     * Inserts the given fragment at the given offset in a single batch edit. The markups of the
+     * fragment are copied, so the fragment can be inserted again, and are indexed in one batch.
+     *
+     * @param offset offset to insert at
+     * @param fragment fragment to insert
+     */
+    public void insertFragment(int offset, RichFragment fragment) {
+        EditText editText = getRichTextView();
+        editText.beginBatchEdit();
+        try {
+            editText.getText().insert(offset, fragment.getText());
+            SpanTable spans = fragment.getSpanTable();
+            applyCopies(spans, 0, spans.size(), offset, offset + fragment.length());
+        } finally {
+            editText.endBatchEdit();
+        }
+    }
+
+    /**
+     * Replaces the given range with the given fragment over several frames, for pasting large
+     * fragments without blocking the editor. A paste in progress is completed first.
+     *
+     * @param callback callback to get the progress or null
+     * @return the task, to cancel the paste
+     */
+    public PasteTask paste(int from, int to, RichFragment fragment, @Nullable PasteTask.Callback callback) {
+        if (pasteTask != null)
+            pasteTask.complete();
+        pasteTask = new PasteTask(this, from, to, fragment, callback);
+        pasteTask.start();
+        return pasteTask;
+    }
+
+    /*default*/ void onPasteDone(PasteTask task) {
+        if (pasteTask == task)
+            pasteTask = null;
+    }
+
+    /**
+     * Removes the given markup entirely if applied.
+     */
+    /*default*/ void removeMarkup(Markup markup) {
+        removeInternal(markup, 0, getRichTextView().getText().length());
+    }
+
+    /**
+     * Searches the given query in the text ignoring case.
+     *
+     * @return the matching ranges as (start, end) pairs sorted by start
+     */
+    public int[] search(String query) {
+        return search(query, null);
+    }
+
+    /**
+     * Searches the given query ignoring case, only inside the markups of the given type (like
+     * the occurrences of a word inside links). Each match is inside a single markup, a match
+     * crossing two adjacent markups is not returned.
+     *
+     * @param markupType type of the markups to search in, null to search the whole text
+     * @return the matching ranges as (start, end) pairs sorted by start
+     */
+    public int[] search(String query, @Nullable Class<? extends Markup> markupType) {
+        Editable text = getRichTextView().getText();
+        if (searchIndex == null)
+            searchIndex = new SearchIndex(text);
+        if (markupType == null)
+            return searchIndex.search(text, query, 0, text.length());
+
+        // The markups are read from the posting lists of the type and its subtypes.
+        MarkupIndex markupIndex = getMarkupIndex();
+        SearchIndex.RangeList matches = new SearchIndex.RangeList();
+        for (Class<? extends Markup> type : new ArrayList<>(markupIndex.getTypes())) {
+            if (!markupType.isAssignableFrom(type))
+                continue;
+            for (Markup markup : markupIndex.get(type, 0, text.length(), text))
+                matches.addAll(searchIndex.search(text, query, markup.getSpanStart(text), markup.getSpanEnd(text)));
         }
-        return null;
+
+        // A match inside overlapping markups is found once per markup.
+        int[] found = matches.toArray();
+        long[] sorted = new long[found.length / 2];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = (long) found[2 * i] << 32 | found[2 * i + 1];
+        Arrays.sort(sorted);
+        SearchIndex.RangeList unique = new SearchIndex.RangeList();
+        for (int i = 0; i < sorted.length; i++)
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                unique.add((int) (sorted[i] >>> 32), (int) sorted[i]);
+        return unique.toArray();
     }
 
     private TextWatcher textWatcher = new TextWatcher() {
         private List<Markup> markupMarks;
         private int replacedLength;
+        private int changeStart;
+        private int changeEnd;
+        private boolean linesChanged;
+        private final List<BlockMarkup> removedBlocks = new ArrayList<>();
+        // Markups touching the changed range, their anchors are set again after the change.
+        private final Set<Markup> touchedMarkups = Collections.newSetFromMap(new IdentityHashMap<Markup, Boolean>());
 
         @Override
         public void beforeTextChanged(CharSequence s, int start, int count, int after) {
 
             //TODO need to remove the spans in text to be removed
 
+            Spanned spanned = (Spanned) s;
+            int end = start + count;
+            Collections.addAll(touchedMarkups, spanned.getSpans(start, end, Markup.class));
+            Collections.addAll(touchedMarkups, spanned.getSpans(start, start, Markup.class));
+            Collections.addAll(touchedMarkups, spanned.getSpans(end, end, Markup.class));
+            // Only the markups touching the change can move out of order in the index.
+            for (Markup markup : touchedMarkups) {
+                int markupStart = markup.getSpanStart(spanned);
+                int markupEnd = markup.getSpanEnd(spanned);
+                getMarkupIndex().remove(markup);
+                removeAnchors(markup, markupStart, markupEnd);
+                removeFromSpanTransitions(markup, markupStart, markupEnd);
+            }
+
             if (count == 0) {
                 //Only 0 -length markups need to be replaced
-                markupMarks = getAppliedMarkups(start, start + count);
+                markupMarks = new ArrayList<>();
+                Spanned text = (Spanned) s;
+                for (Markup markup : getAppliedMarkups(start, start))
+                    if (!(markup instanceof BlockMarkup) && markup.getSpanStart(text) == markup.getSpanEnd(text))
+                        markupMarks.add(markup);
                 replacedLength = after;
             }
         }
@@ -209,6 +681,17 @@ public class RichEditTexter extends RichTexter {
         @Override
         public void onTextChanged(CharSequence s, int start, int before, int count) {
             //TODO need to handle the spans in newly added text
+            if (searchIndex != null)
+                searchIndex.onTextChanged(s, start, before, count);
+            replaceSnapshotText(start, start + before, s.subSequence(start, start + count));
+            // Only the touched markups, removed before the change, had transitions in the range.
+            shiftSpanTransitions(start + before, count - before);
+            BlockIndex blockIndex = getBlockIndex();
+            int lineCount = blockIndex.getLineCount();
+            blockIndex.replace(s, start, before, count, removedBlocks);
+            linesChanged = lineCount != blockIndex.getLineCount() || !removedBlocks.isEmpty();
+            changeStart = start;
+            changeEnd = start + count;
         }
 
         @Override
@@ -216,12 +699,61 @@ public class RichEditTexter extends RichTexter {
             if (markupMarks != null) {
                 for (Markup markup : markupMarks) {
                     int spanStart = markup.getSpanStart(s);
-                    s.removeSpan(markup);
-                    s.setSpan(markup, spanStart, replacedLength, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    markup.removeInternal(s);
+                    markup.applyInternal(s, spanStart, spanStart + replacedLength, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
                 }
                 markupMarks = null;
             }
+            if (linesChanged) {
+                updateBlocks(s, changeStart, changeEnd);
+                if (!getBlockIndex().getListIndex().isEmpty())
+                    getRichTextView().invalidate();
+            }
+            // The markups inserted with the text (like on paste) are indexed too.
+            Collections.addAll(touchedMarkups, s.getSpans(changeStart, changeEnd, Markup.class));
+            for (Markup markup : touchedMarkups) {
+                int start = markup.getSpanStart(s);
+                if (start >= 0) {
+                    int end = markup.getSpanEnd(s);
+                    getMarkupIndex().add(markup);
+                    addAnchors(markup, start, end);
+                    addToSpanTransitions(markup, start, end);
+                }
+            }
+            touchedMarkups.clear();
+            if (styleStateTracker != null)
+                styleStateTracker.invalidate();
+        }
+
+        // Fits the block markups to their lines after the lines are split or merged.
+        private void updateBlocks(Editable s, int start, int end) {
+            for (BlockMarkup removedBlock : removedBlocks) {
+                getMarkupIndex().remove(removedBlock);
+                removedBlock.removeInternal(s);
+            }
+            removedBlocks.clear();
+
+            BlockIndex blockIndex = getBlockIndex();
+            int firstLine = blockIndex.getLineOf(start);
+            int lastLine = blockIndex.getLineOf(end);
+            BlockMarkup firstBlock = blockIndex.getBlock(firstLine);
+            // A line split in the middle continues the block of the line.
+            if (firstBlock != null && lastLine > firstLine && blockIndex.getBlock(lastLine) == null
+                    && blockIndex.getLineEnd(lastLine) > blockIndex.getLineStart(lastLine)) {
+                BlockMarkup block = (BlockMarkup) Util.copyMarkup(firstBlock);
+                blockIndex.setBlock(lastLine, block);
+                touchedMarkups.add(block);
+            }
+
+            for (int line = firstLine; line <= lastLine; line++) {
+                BlockMarkup block = blockIndex.getBlock(line);
+                if (block != null) {
+                    block.applyInternal(s, blockIndex.getLineStart(line), blockIndex.getLineEnd(line),
+                            Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+                    getMarkupIndex().add(block);
+                }
+            }
         }
     };
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package com.gworks.richtext.util;
+
+/**
+ * Immutable piece of rich text (like the clipboard contents): the text and the table of its
+ * markups with offsets relative to the start of the fragment. The markups in the table are not
+ * applied anywhere, so a fragment can be inserted any number of times.
+ */
+public class RichFragment {
+
+    private final String text;
+    private final SpanTable spanTable;
+
+    public RichFragment(String text, SpanTable spanTable) {
+        this.text = text;
+        this.spanTable = spanTable;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public SpanTable getSpanTable() {
+        return spanTable;
+    }
+
+    public int length() {
+        return text.length();
+    }
+}
@@ -1,17 +1,21 @@
 package com.gworks.richtext.util;
 
 import android.support.annotation.Nullable;
+import android.text.Editable;
 import android.text.Spanned;
-import android.util.SparseArray;
+import android.text.TextWatcher;
 import android.widget.TextView;
 
+import com.gworks.richtext.tags.BlockMarkup;
 import com.gworks.richtext.tags.Markup;
 
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
 
 /**
  * Created by durgadass on 6/1/18.
@@ -25,11 +29,94 @@ public class RichTexter {
     private TextView textView;
 
     //Mapping between the index and its span transitions in the text.
-    private SparseArray<SpanTransition> spanTransitions;
+    private ShiftingSparseArray<SpanTransition> spanTransitions;
+
+    // Whether the span transitions are in sync with the text. The offsets of the span transitions
+    // are not shifted while editing, instead they are rebuilt when needed after the text changes.
+    private boolean spanTransitionsValid;
+
+    //Index of the lines and the block markups in them.
+    private BlockIndex blockIndex;
+
+    //Posting lists of the markups by type.
+    private MarkupIndex markupIndex;
+
+    //Persistent copy of the text and the markups shared by the snapshots.
+    private Rope rope;
+
+    //Offset map of the html, built when first needed after a change.
+    private OffsetMap offsetMap;
+
+    //Incremented on every change of the text or the markups.
+    private long version;
+
+    //Nesting depth of the markup batches, see beginMarkupBatch().
+    private int markupBatchDepth;
+
+    //Anchors removed and markups applied in the batch, put in the rope in one pass at its end.
+    private Rope.AnchorList batchRemovedAnchors;
+    private IdentityHashMap<Markup, Long> batchAddedMarkups;
+
+    //Interned attributes of the document and the handles of the attributed markups compared.
+    private final AttributeStore attributeStore = new AttributeStore();
+    private final IdentityHashMap<Markup, Integer> attributeHandles = new IdentityHashMap<>();
+    //Number of handles kept by the last pruning of the handles of the removed markups.
+    private int keptHandles;
 
     public RichTexter(TextView textView) {
+        this(textView, true);
+    }
+
+    /**
+     * @param watchText whether to rebuild the indexes when the text is set or changed, the
+     *                  editor keeps them in sync with the edits instead
+     */
+    /*default*/ RichTexter(TextView textView, boolean watchText) {
         this.textView = textView;
-        spanTransitions = new SparseArray<>();
+        spanTransitions = new ShiftingSparseArray<>();
+        rebuild();
+        if (watchText)
+            textView.addTextChangedListener(new TextWatcher() {
+                @Override
+                public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                }
+
+                @Override
+                public void onTextChanged(CharSequence s, int start, int before, int count) {
+                    rebuild();
+                }
+
+                @Override
+                public void afterTextChanged(Editable s) {
+                }
+            });
+    }
+
+    /**
+     * Rebuilds the indexes of the lines and the markups and the snapshot text from the text
+     * of the text view.
+     */
+    /*default*/ void rebuild() {
+        CharSequence cs = textView.getText();
+        blockIndex = new BlockIndex(cs);
+        markupIndex = new MarkupIndex();
+        rope = Rope.of(cs);
+        if (cs instanceof Spanned) {
+            Spanned text = (Spanned) cs;
+            beginMarkupBatch();
+            for (Markup markup : text.getSpans(0, text.length(), Markup.class)) {
+                int start = markup.getSpanStart(text);
+                if (markup instanceof BlockMarkup)
+                    blockIndex.setBlock(blockIndex.getLineOf(start), (BlockMarkup) markup);
+                markupIndex.add(markup);
+                addAnchors(markup, start, markup.getSpanEnd(text));
+            }
+            endMarkupBatch();
+        }
+        offsetMap = null;
+        version++;
+        // Built from the text when first needed.
+        spanTransitionsValid = false;
     }
 
     public TextView getRichTextView(){
@@ -80,6 +167,21 @@ public class RichTexter {
         return Collections.emptyList();
     }
 
+    /**
+     * Returns the markups of exactly the given type applied in the given range, sorted by start.
+     * Only the markups of the given type are looked at.
+     *
+     * @param markupType type of the markups
+     * @param from from inclusive
+     * @param to to exclusive
+     */
+    public <T extends Markup> List<T> getAppliedMarkups(Class<T> markupType, int from, int to) {
+        CharSequence cs = textView.getText();
+        if (cs instanceof Spanned)
+            return markupIndex.get(markupType, from, to, (Spanned) cs);
+        return Collections.emptyList();
+    }
+
     /**
      * Returns the markups starting at the given index.
      *
@@ -102,16 +204,137 @@ public class RichTexter {
         return spans == null ? Collections.<Markup>emptyList() : Collections.unmodifiableList(spans);
     }
 
+    /**
+     * Returns the block markup applied in the line containing the given offset.
+     *
+     * @param offset offset in the text
+     * @return block markup or null if the line has no block markup
+     */
+    @Nullable
+    public BlockMarkup getBlockAt(int offset) {
+        return blockIndex.getBlock(blockIndex.getLineOf(offset));
+    }
+
+    /**
+     * Returns all the block markups of the given type (like all the H2 headings) in the order
+     * they appear in the text.
+     *
+     * @param blockType type of the block markup
+     */
+    public <T extends BlockMarkup> List<T> getBlocks(Class<T> blockType) {
+        return blockIndex.getBlocks(blockType);
+    }
+
+    /*default*/ BlockIndex getBlockIndex() {
+        return blockIndex;
+    }
+
+    /*default*/ MarkupIndex getMarkupIndex() {
+        return markupIndex;
+    }
+
+    /**
+     * Returns the handle of the attributes of the given markup in the attribute store of this
+     * document. The attributes of a markup do not change, so they are interned once per markup
+     * and equal attributes have equal handles.
+     */
+    /*default*/ int getAttributesHandle(Markup markup) {
+        Integer handle = attributeHandles.get(markup);
+        if (handle == null) {
+            if (attributeHandles.size() > 2 * keptHandles + 64)
+                pruneAttributeHandles();
+            handle = attributeStore.intern(Util.getAttributes(markup));
+            attributeHandles.put(markup, handle);
+        }
+        return handle;
+    }
+
+    // Drops the handles of the markups not applied any more, amortized over the handles added.
+    private void pruneAttributeHandles() {
+        CharSequence cs = textView.getText();
+        Iterator<Markup> markups = attributeHandles.keySet().iterator();
+        while (markups.hasNext()) {
+            Markup markup = markups.next();
+            if (!(cs instanceof Spanned) || markup.getSpanStart((Spanned) cs) < 0)
+                markups.remove();
+        }
+        keptHandles = attributeHandles.size();
+    }
+
     @Nullable
     private List<Markup> spansStartingAt(int index) {
-        SpanTransition transition = spanTransitions.get(index);
-        return (transition != null) ? transition.startingSpans : null;
+        SpanTransition transition = getSpanTransitions().get(index);
+        return (transition != null) ? transition.getStartingSpans() : null;
     }
 
     @Nullable
     private List<Markup> spansEndingAt(int index) {
-        SpanTransition transition = spanTransitions.get(index);
-        return (transition != null) ? transition.endingSpans : null;
+        SpanTransition transition = getSpanTransitions().get(index);
+        return (transition != null) ? transition.getEndingSpans() : null;
+    }
+
+    /*default*/ ShiftingSparseArray<SpanTransition> getSpanTransitions() {
+        if (!spanTransitionsValid) {
+            spanTransitions.clear();
+            CharSequence cs = textView.getText();
+            if (cs instanceof Spanned) {
+                Spanned text = (Spanned) cs;
+                for (Markup markup : text.getSpans(0, text.length(), Markup.class))
+                    putSpanTransitions(markup, markup.getSpanStart(text), markup.getSpanEnd(text));
+            }
+            spanTransitionsValid = true;
+        }
+        return spanTransitions;
+    }
+
+    /**
+     * Returns the table of all the markups applied in the text.
+     */
+    public SpanTable getSpanTable() {
+        CharSequence cs = textView.getText();
+        return cs instanceof Spanned ? SpanTable.of((Spanned) cs) : SpanTable.EMPTY;
+    }
+
+    /**
+     * Returns an immutable snapshot of the text and the markups which can be read on any
+     * thread. This costs O(1), so take one whenever the document has to be read off the
+     * main thread (like for exporting or saving).
+     */
+    public DocumentSnapshot snapshot() {
+        flushAnchors();
+        return new DocumentSnapshot(rope, version);
+    }
+
+    /**
+     * Returns the text and the markups in the given range as a fragment. The markups crossing
+     * the range are cut to it and the fragment has copies of the markups.
+     *
+     * @param from from inclusive
+     * @param to to exclusive
+     */
+    public RichFragment extractFragment(int from, int to) {
+        CharSequence cs = textView.getText();
+        String fragmentText = cs.subSequence(from, to).toString();
+        if (!(cs instanceof Spanned))
+            return new RichFragment(fragmentText, SpanTable.EMPTY);
+
+        Spanned text = (Spanned) cs;
+        Markup[] markups = text.getSpans(from, to, Markup.class);
+        int[] starts = new int[markups.length];
+        int[] ends = new int[markups.length];
+        int size = 0;
+        for (Markup markup : markups) {
+            int start = Math.max(from, markup.getSpanStart(text));
+            int end = Math.min(to, markup.getSpanEnd(text));
+            // The empty markups just outside the range are left out.
+            if (start > end)
+                continue;
+            markups[size] = Util.copyMarkup(markup);
+            starts[size] = start - from;
+            ends[size] = end - from;
+            size++;
+        }
+        return new RichFragment(fragmentText, SpanTable.of(markups, starts, ends, size));
     }
 
     /**
@@ -129,104 +352,259 @@ public class RichTexter {
     }
 
     /**
-     * Returns the html equivalent of the rich text in the text view.
+     * Returns the html equivalent of the rich text in the text view, exported by the
+     * {@link DocumentExporter}.
      *
      * @param unknownMarkupHandler the handler to handle the unknown markups.
      */
     public String getHtml(MarkupConverter.UnknownMarkupHandler unknownMarkupHandler) {
+        return getHtml(unknownMarkupHandler, null);
+    }
 
-        CharSequence cs = textView.getText();
-        if (!(cs instanceof Spanned))
-            return cs.toString();
+    /**
+     * Returns the map between the offsets of the plain text and the html returned by
+     * {@link #getHtml()}. The map is built on first use and kept until the text or the markups
+     * change.
+     */
+    public OffsetMap getOffsetMap() {
+        if (offsetMap == null) {
+            OffsetMap.Builder builder = new OffsetMap.Builder();
+            getHtml(null, builder);
+            offsetMap = builder.build();
+        }
+        return offsetMap;
+    }
 
-        Spanned text = (Spanned) cs;
-        StringBuilder html = new StringBuilder(text.length());
-        HtmlConverter htmlConverter = new HtmlConverter(unknownMarkupHandler);
-        List<Markup> openSpans = new LinkedList<>();
-
-        int processed = 0;
-        int end = text.length();
-        while (processed < end) {
-            // Get the next span transition.
-            int transitionIndex = text.nextSpanTransition(processed, end, null);
-            if (transitionIndex > processed)
-                html.append(text.subSequence(processed, transitionIndex));
-
-            List<Markup> startingSpans = spansStartingAt(transitionIndex);
-            if(startingSpans != null) {
-                for (Markup startingSpan : startingSpans) {
-                    startingSpan.convert(html, htmlConverter, true);
-                    // Consider a starting span as an opening span.
-                    openSpans.add(startingSpan);
-                }
+    private String getHtml(MarkupConverter.UnknownMarkupHandler unknownMarkupHandler, OffsetMap.Builder offsets) {
+        CharSequence text = textView.getText();
+        ListIndex lists = text instanceof Spanned ? getBlockIndex().getListIndex((Spanned) text) : null;
+        return DocumentExporter.toHtml(text, getSpanTable(), lists, unknownMarkupHandler, offsets);
+    }
+
+    /**
+     * Moves the span transitions at or after the given index by the given delta. Call this when
+     * the text changes, with the markups touching the change removed from the transitions.
+     */
+    /*default*/ void shiftSpanTransitions(int from, int delta) {
+        if (spanTransitionsValid)
+            spanTransitions.shift(from, delta);
+    }
+
+    /**
+     * Returns the version of the text and the markups, incremented on every change.
+     */
+    /*default*/ long getVersion() {
+        return version;
+    }
+
+    /**
+     * Starts a batch of markup changes. Until the batch ends the anchors of the markups are
+     * collected and put in the rope in one pass, and the span transitions are rebuilt when next
+     * used instead of being updated per markup. Batches may nest.
+     */
+    /*default*/ void beginMarkupBatch() {
+        if (markupBatchDepth++ == 0) {
+            if (batchRemovedAnchors == null) {
+                batchRemovedAnchors = new Rope.AnchorList();
+                batchAddedMarkups = new IdentityHashMap<>();
             }
+            spanTransitionsValid = false;
+        }
+    }
 
-            // Iterate all ending spans at the transition index.
-            List<Markup> endingSpans = spansEndingAt(transitionIndex);
-            if(endingSpans != null) {
-                for (Markup endingSpan : endingSpans) {
-                    ListIterator<Markup> iterator = openSpans.listIterator(openSpans.size());
-                    while (iterator.hasPrevious()) {
-                        Markup openSpan = iterator.previous();
-                        // If an ending span has a matching open span, consider it as a closing
-                        // span and remove the open span, and proceed to next ending span.
-                        if (openSpan == endingSpan) {
-                            iterator.remove();
-                            endingSpan.convert(html, htmlConverter, false);
-                            break;
-                        }
-                    }
-                }
+    /*default*/ void endMarkupBatch() {
+        if (--markupBatchDepth == 0) {
+            flushAnchors();
+            spanTransitionsValid = false;
+        }
+    }
+
+    /*default*/ void addAnchors(Markup markup, int from, int to) {
+        offsetMap = null;
+        version++;
+        if (markupBatchDepth > 0)
+            batchAddedMarkups.put(markup, (long) from << 32 | to);
+        else
+            rope = rope.addAnchor(from, markup, false).addAnchor(to, markup, true);
+    }
+
+    /*default*/ void removeAnchors(Markup markup, int from, int to) {
+        offsetMap = null;
+        version++;
+        if (markupBatchDepth > 0) {
+            // The anchors added in the batch are not in the rope yet.
+            if (batchAddedMarkups.remove(markup) == null) {
+                batchRemovedAnchors.add(from, markup, false);
+                batchRemovedAnchors.add(to, markup, true);
             }
+        } else {
+            rope = rope.removeAnchor(from, markup, false).removeAnchor(to, markup, true);
+        }
+    }
+
+    /**
+     * Replaces the given range of the snapshot text. Remove the anchors of the markups touching
+     * the range first.
+     */
+    /*default*/ void replaceSnapshotText(int from, int to, CharSequence text) {
+        offsetMap = null;
+        version++;
+        // The offsets of the anchors collected in a batch are of the text before the change.
+        flushAnchors();
+        rope = rope.replace(from, to, text);
+    }
 
-            processed = transitionIndex;
+    // Puts the anchors collected in the batch in the rope.
+    private void flushAnchors() {
+        if (batchRemovedAnchors == null || (batchRemovedAnchors.size() == 0 && batchAddedMarkups.isEmpty()))
+            return;
+        Rope.AnchorList added = new Rope.AnchorList();
+        for (Map.Entry<Markup, Long> entry : batchAddedMarkups.entrySet()) {
+            long range = entry.getValue();
+            added.add((int) (range >>> 32), entry.getKey(), false);
+            added.add((int) range, entry.getKey(), true);
         }
-        if (openSpans.isEmpty())
-            return html.toString();
-        //TODO Will we really reach this?
-        else throw new IllegalStateException("Spans are not well formed");
+        rope = rope.updateAnchors(batchRemovedAnchors, added);
+        batchRemovedAnchors.clear();
+        batchAddedMarkups.clear();
     }
 
     /*default*/ void removeFromSpanTransitions(Markup markup, int from, int to) {
+        if (!spanTransitionsValid)
+            return;
 
         SpanTransition transitionFrom = spanTransitions.get(from);
-        if (transitionFrom != null)
-            transitionFrom.startingSpans.remove(markup);
+        if (transitionFrom != null && transitionFrom.removeStarting(markup) && transitionFrom.isEmpty())
+            spanTransitions.delete(from);
 
         SpanTransition transitionTo = spanTransitions.get(to);
-        if (transitionTo != null)
-            transitionTo.endingSpans.remove(markup);
+        if (transitionTo != null && transitionTo.removeEnding(markup) && transitionTo.isEmpty())
+            spanTransitions.delete(to);
     }
 
     /*default*/ void addToSpanTransitions(Markup markup, int from, int to) {
+        if (spanTransitionsValid)
+            putSpanTransitions(markup, from, to);
+    }
+
+    private void putSpanTransitions(Markup markup, int from, int to) {
 
         SpanTransition transitionFrom = spanTransitions.get(from);
         if (transitionFrom == null)
             spanTransitions.put(from, transitionFrom = new SpanTransition());
-        transitionFrom.startingSpans.add(markup);
+        // Block markups are opened before the other markups starting at the same index.
+        transitionFrom.addStarting(markup, markup instanceof BlockMarkup);
 
         SpanTransition transitionTo = spanTransitions.get(to);
         if (transitionTo == null)
             spanTransitions.put(to, transitionTo = new SpanTransition());
-        transitionTo.endingSpans.add(markup);
+        transitionTo.addEnding(markup);
     }
 
     /**
-     * Class representing a span transition in the text at a given index.
+     * Class representing a span transition in the text at a given index. The markups starting
+     * and ending here are kept in one array, the starting ones first, as there are transitions
+     * at every markup boundary and most have one or two markups.
      */
     /*default*/ static class SpanTransition {
 
-        //spans starting at this span transition.
-        List<Markup> startingSpans;
+        private Markup[] markups;
+
+        private int startCount;
 
-        //spans ending at this span transition.
-        List<Markup> endingSpans;
+        private int size;
 
         SpanTransition() {
-            startingSpans = new LinkedList<>();
-            endingSpans = new LinkedList<>();
+            markups = new Markup[2];
+        }
+
+        /**
+         * Returns the spans starting at this span transition.
+         */
+        List<Markup> getStartingSpans() {
+            return new Spans(0, startCount);
+        }
+
+        /**
+         * Returns the spans ending at this span transition.
+         */
+        List<Markup> getEndingSpans() {
+            return new Spans(startCount, size);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void addStarting(Markup markup, boolean first) {
+            insert(first ? 0 : startCount, markup);
+            startCount++;
+        }
+
+        void addEnding(Markup markup) {
+            insert(size, markup);
+        }
+
+        boolean removeStarting(Markup markup) {
+            int index = indexOf(markup, 0, startCount);
+            if (index < 0)
+                return false;
+            delete(index);
+            startCount--;
+            return true;
+        }
+
+        boolean removeEnding(Markup markup) {
+            int index = indexOf(markup, startCount, size);
+            if (index < 0)
+                return false;
+            delete(index);
+            return true;
         }
 
+        private int indexOf(Markup markup, int from, int to) {
+            for (int i = from; i < to; i++)
+                if (markups[i].equals(markup))
+                    return i;
+            return -1;
+        }
+
+        private void insert(int index, Markup markup) {
+            if (size == markups.length)
+                markups = Arrays.copyOf(markups, size * 2);
+            System.arraycopy(markups, index, markups, index + 1, size - index);
+            markups[index] = markup;
+            size++;
+        }
+
+        private void delete(int index) {
+            System.arraycopy(markups, index + 1, markups, index, size - index - 1);
+            markups[--size] = null;
+        }
+
+        // Read only view of a range of the markups.
+        private class Spans extends AbstractList<Markup> {
+
+            private final int from;
+            private final int to;
+
+            Spans(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            public Markup get(int index) {
+                if (index < 0 || index >= to - from)
+                    throw new IndexOutOfBoundsException(String.valueOf(index));
+                return markups[from + index];
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        }
     }
 
 }
@@ -0,0 +1,521 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.Markup;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Persistent (immutable) rope of the text with the start and end anchors of the markups kept in
+ * its leaves, so the anchors move with the text. Every update returns a new rope sharing all
+ * but O(log n) nodes with the old one, hence any version can be read by other threads while
+ * the editor keeps updating. The tree is kept balanced as an AVL tree.
+ */
+/*default*/ final class Rope implements CharSequence {
+
+    // Maximum number of chars in a leaf.
+    static final int MAX_LEAF = 512;
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final Markup[] NO_MARKUPS = new Markup[0];
+    private static final int[] NO_ANCHORS = new int[0];
+
+    static final Rope EMPTY = new Rope(NO_CHARS, NO_MARKUPS, NO_ANCHORS);
+
+    // Children of a branch, null in a leaf.
+    private final Rope left;
+    private final Rope right;
+
+    // Chars and anchors of a leaf, null in a branch. An anchor is (offset << 1 | 1 if end),
+    // sorted by offset, and anchorMarkups has the markup of each anchor.
+    private final char[] chars;
+    private final Markup[] anchorMarkups;
+    private final int[] anchors;
+
+    private final int length;
+    private final int height;
+    private final int anchorCount;
+
+    private Rope(char[] chars, Markup[] anchorMarkups, int[] anchors) {
+        this.left = null;
+        this.right = null;
+        this.chars = chars;
+        this.anchorMarkups = anchorMarkups;
+        this.anchors = anchors;
+        this.length = chars.length;
+        this.height = 0;
+        this.anchorCount = anchors.length;
+    }
+
+    private Rope(Rope left, Rope right) {
+        this.left = left;
+        this.right = right;
+        this.chars = null;
+        this.anchorMarkups = null;
+        this.anchors = null;
+        this.length = left.length + right.length;
+        this.height = Math.max(left.height, right.height) + 1;
+        this.anchorCount = left.anchorCount + right.anchorCount;
+    }
+
+    /**
+     * Returns a rope of the given text without anchors.
+     */
+    static Rope of(CharSequence text) {
+        Rope rope = fromText(text);
+        return rope == null ? EMPTY : rope;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        Rope node = this;
+        while (node.chars == null) {
+            if (index < node.left.length) {
+                node = node.left;
+            } else {
+                index -= node.left.length;
+                node = node.right;
+            }
+        }
+        return node.chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] dest = new char[end - start];
+        getChars(start, end, dest, 0);
+        return new String(dest);
+    }
+
+    @Override
+    public String toString() {
+        char[] dest = new char[length];
+        getChars(0, length, dest, 0);
+        return new String(dest);
+    }
+
+    /**
+     * Copies the chars in [start, end) to the given array.
+     */
+    void getChars(int start, int end, char[] dest, int destOffset) {
+        if (start >= end)
+            return;
+        if (chars != null) {
+            System.arraycopy(chars, start, dest, destOffset, end - start);
+            return;
+        }
+        int leftLength = left.length;
+        if (start < leftLength)
+            left.getChars(start, Math.min(end, leftLength), dest, destOffset);
+        if (end > leftLength)
+            right.getChars(Math.max(start, leftLength) - leftLength, end - leftLength, dest,
+                    destOffset + Math.max(0, leftLength - start));
+    }
+
+    /**
+     * Returns the rope with the chars in [start, end) replaced by the given text. The anchors
+     * after the replaced range are shifted. Remove the anchors in [start, end] first, where
+     * they end up is not defined.
+     */
+    Rope replace(int start, int end, CharSequence text) {
+        if (chars != null) {
+            if (length - (end - start) + text.length() <= MAX_LEAF)
+                return replaceInLeaf(start, end, text);
+            Rope[] head = split(start);
+            Rope[] tail = split(end);
+            return join(join(head[0], fromText(text)), tail[1]);
+        }
+        int leftLength = left.length;
+        if (end <= leftLength)
+            return join(left.replace(start, end, text), right);
+        if (start >= leftLength)
+            return join(left, right.replace(start - leftLength, end - leftLength, text));
+        Rope[] head = left.split(start);
+        Rope[] tail = right.split(end - leftLength);
+        return join(join(head[0], fromText(text)), tail[1]);
+    }
+
+    /**
+     * Returns the rope with the given anchor of the markup added at the given offset.
+     */
+    Rope addAnchor(int offset, Markup markup, boolean end) {
+        if (chars == null) {
+            int leftLength = left.length;
+            if (offset <= leftLength)
+                return new Rope(left.addAnchor(offset, markup, end), right);
+            return new Rope(left, right.addAnchor(offset - leftLength, markup, end));
+        }
+        int anchor = offset << 1 | (end ? 1 : 0);
+        int index = 0;
+        while (index < anchors.length && anchors[index] >> 1 <= offset)
+            index++;
+        int[] newAnchors = new int[anchors.length + 1];
+        Markup[] newMarkups = new Markup[anchors.length + 1];
+        System.arraycopy(anchors, 0, newAnchors, 0, index);
+        System.arraycopy(anchorMarkups, 0, newMarkups, 0, index);
+        newAnchors[index] = anchor;
+        newMarkups[index] = markup;
+        System.arraycopy(anchors, index, newAnchors, index + 1, anchors.length - index);
+        System.arraycopy(anchorMarkups, index, newMarkups, index + 1, anchors.length - index);
+        return new Rope(chars, newMarkups, newAnchors);
+    }
+
+    /**
+     * Returns the rope without the given anchor of the markup at the given offset, or this
+     * rope if there is no such anchor.
+     */
+    Rope removeAnchor(int offset, Markup markup, boolean end) {
+        if (chars == null) {
+            // An anchor at the boundary of the children may be in either of them.
+            int leftLength = left.length;
+            if (offset <= leftLength) {
+                Rope newLeft = left.removeAnchor(offset, markup, end);
+                if (newLeft != left)
+                    return new Rope(newLeft, right);
+            }
+            if (offset >= leftLength) {
+                Rope newRight = right.removeAnchor(offset - leftLength, markup, end);
+                if (newRight != right)
+                    return new Rope(left, newRight);
+            }
+            return this;
+        }
+        int anchor = offset << 1 | (end ? 1 : 0);
+        for (int i = 0; i < anchors.length; i++) {
+            if (anchors[i] == anchor && anchorMarkups[i] == markup) {
+                int[] newAnchors = new int[anchors.length - 1];
+                Markup[] newMarkups = new Markup[anchors.length - 1];
+                System.arraycopy(anchors, 0, newAnchors, 0, i);
+                System.arraycopy(anchorMarkups, 0, newMarkups, 0, i);
+                System.arraycopy(anchors, i + 1, newAnchors, i, anchors.length - i - 1);
+                System.arraycopy(anchorMarkups, i + 1, newMarkups, i, anchors.length - i - 1);
+                return new Rope(chars, newMarkups, newAnchors);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the rope with the given anchors removed and then the given anchors added, in one
+     * pass down the tree which rebuilds each leaf touched once. Anchors to remove which are not
+     * in the rope are ignored.
+     */
+    Rope updateAnchors(AnchorList removed, AnchorList added) {
+        if (removed.size == 0 && added.size == 0)
+            return this;
+        removed.sort();
+        added.sort();
+        return updateAnchors(0, removed, 0, removed.size, added, 0, added.size);
+    }
+
+    private Rope updateAnchors(int base, AnchorList removed, int removedFrom, int removedTo,
+                               AnchorList added, int addedFrom, int addedTo) {
+        if (removedFrom == removedTo && addedFrom == addedTo)
+            return this;
+        if (chars == null) {
+            int boundary = base + left.length;
+            // An anchor to remove at the boundary of the children may be in either of them, an
+            // anchor to add there goes to the left like in addAnchor.
+            int removedLeftEnd = removed.indexAfter(boundary, removedFrom, removedTo);
+            int removedRightStart = removed.indexAfter(boundary - 1, removedFrom, removedTo);
+            int addedLeftEnd = added.indexAfter(boundary, addedFrom, addedTo);
+            Rope newLeft = left.updateAnchors(base, removed, removedFrom, removedLeftEnd, added, addedFrom, addedLeftEnd);
+            Rope newRight = right.updateAnchors(boundary, removed, removedRightStart, removedTo, added, addedLeftEnd, addedTo);
+            return newLeft == left && newRight == right ? this : new Rope(newLeft, newRight);
+        }
+
+        boolean[] dropped = new boolean[anchors.length];
+        int droppedCount = 0;
+        for (int r = removedFrom; r < removedTo; r++) {
+            int anchor = (removed.anchors[r] >> 1) - base << 1 | (removed.anchors[r] & 1);
+            for (int i = 0; i < anchors.length; i++) {
+                if (!dropped[i] && anchors[i] == anchor && anchorMarkups[i] == removed.markups[r]) {
+                    dropped[i] = true;
+                    droppedCount++;
+                    break;
+                }
+            }
+        }
+        int addedCount = addedTo - addedFrom;
+        if (droppedCount == 0 && addedCount == 0)
+            return this;
+
+        int[] newAnchors = new int[anchors.length - droppedCount + addedCount];
+        Markup[] newMarkups = new Markup[newAnchors.length];
+        int size = 0;
+        int next = addedFrom;
+        for (int i = 0; i <= anchors.length; i++) {
+            int offset = i < anchors.length ? anchors[i] >> 1 : Integer.MAX_VALUE;
+            // The added anchors go after the anchors at their offset.
+            for (; next < addedTo && (added.anchors[next] >> 1) - base < offset; next++) {
+                newAnchors[size] = (added.anchors[next] >> 1) - base << 1 | (added.anchors[next] & 1);
+                newMarkups[size++] = added.markups[next];
+            }
+            if (i < anchors.length && !dropped[i]) {
+                newAnchors[size] = anchors[i];
+                newMarkups[size++] = anchorMarkups[i];
+            }
+        }
+        return new Rope(chars, newMarkups, newAnchors);
+    }
+
+    /**
+     * Returns the table of the markups anchored in this rope. Markups missing either anchor
+     * are left out.
+     */
+    SpanTable getSpanTable() {
+        Markup[] markups = new Markup[anchorCount];
+        int[] starts = new int[anchorCount];
+        int[] ends = new int[anchorCount];
+        int size = collectAnchors(0, markups, starts, ends, 0, new IdentityHashMap<Markup, Integer>());
+        int valid = 0;
+        for (int i = 0; i < size; i++) {
+            if (starts[i] >= 0 && ends[i] >= 0) {
+                markups[valid] = markups[i];
+                starts[valid] = starts[i];
+                ends[valid] = ends[i];
+                valid++;
+            }
+        }
+        return SpanTable.of(markups, starts, ends, valid);
+    }
+
+    private int collectAnchors(int base, Markup[] markups, int[] starts, int[] ends, int size,
+                               IdentityHashMap<Markup, Integer> entries) {
+        if (anchorCount == 0)
+            return size;
+        if (chars == null) {
+            size = left.collectAnchors(base, markups, starts, ends, size, entries);
+            return right.collectAnchors(base + left.length, markups, starts, ends, size, entries);
+        }
+        for (int i = 0; i < anchors.length; i++) {
+            Markup markup = anchorMarkups[i];
+            Integer index = entries.get(markup);
+            if (index == null) {
+                index = size++;
+                entries.put(markup, index);
+                markups[index] = markup;
+                starts[index] = -1;
+                ends[index] = -1;
+            }
+            int offset = base + (anchors[i] >> 1);
+            if ((anchors[i] & 1) == 0)
+                starts[index] = offset;
+            else
+                ends[index] = offset;
+        }
+        return size;
+    }
+
+    private Rope replaceInLeaf(int start, int end, CharSequence text) {
+        int count = text.length();
+        char[] newChars = new char[length - (end - start) + count];
+        System.arraycopy(chars, 0, newChars, 0, start);
+        for (int i = 0; i < count; i++)
+            newChars[start + i] = text.charAt(i);
+        System.arraycopy(chars, end, newChars, start + count, length - end);
+
+        int[] newAnchors = anchors;
+        if (anchors.length > 0) {
+            newAnchors = new int[anchors.length];
+            int delta = count - (end - start);
+            for (int i = 0; i < anchors.length; i++) {
+                int offset = anchors[i] >> 1;
+                if (offset >= end)
+                    offset += delta;
+                else if (offset > start)
+                    offset = start;
+                newAnchors[i] = offset << 1 | (anchors[i] & 1);
+            }
+        }
+        return new Rope(newChars, anchorMarkups, newAnchors);
+    }
+
+    // Splits at the given offset, the anchors at the offset go to the left part. An empty part
+    // without anchors is null.
+    private Rope[] split(int offset) {
+        if (chars == null) {
+            int leftLength = left.length;
+            if (offset <= leftLength) {
+                Rope[] parts = left.split(offset);
+                return new Rope[]{parts[0], join(parts[1], right)};
+            }
+            Rope[] parts = right.split(offset - leftLength);
+            return new Rope[]{join(left, parts[0]), parts[1]};
+        }
+        int index = 0;
+        while (index < anchors.length && anchors[index] >> 1 <= offset)
+            index++;
+        Rope head = null;
+        if (offset > 0 || index > 0) {
+            char[] headChars = new char[offset];
+            System.arraycopy(chars, 0, headChars, 0, offset);
+            int[] headAnchors = new int[index];
+            Markup[] headMarkups = new Markup[index];
+            System.arraycopy(anchors, 0, headAnchors, 0, index);
+            System.arraycopy(anchorMarkups, 0, headMarkups, 0, index);
+            head = new Rope(headChars, headMarkups, headAnchors);
+        }
+        Rope tail = null;
+        int tailCount = anchors.length - index;
+        if (offset < length || tailCount > 0) {
+            char[] tailChars = new char[length - offset];
+            System.arraycopy(chars, offset, tailChars, 0, length - offset);
+            int[] tailAnchors = new int[tailCount];
+            Markup[] tailMarkups = new Markup[tailCount];
+            for (int i = 0; i < tailCount; i++) {
+                int anchor = anchors[index + i];
+                tailAnchors[i] = ((anchor >> 1) - offset) << 1 | (anchor & 1);
+                tailMarkups[i] = anchorMarkups[index + i];
+            }
+            tail = new Rope(tailChars, tailMarkups, tailAnchors);
+        }
+        return new Rope[]{head, tail};
+    }
+
+    private static Rope fromText(CharSequence text) {
+        int length = text.length();
+        if (length == 0)
+            return null;
+        int leafCount = (length + MAX_LEAF - 1) / MAX_LEAF;
+        Rope[] leaves = new Rope[leafCount];
+        for (int i = 0; i < leafCount; i++) {
+            int start = i * MAX_LEAF;
+            int end = Math.min(length, start + MAX_LEAF);
+            char[] leafChars = new char[end - start];
+            for (int j = start; j < end; j++)
+                leafChars[j - start] = text.charAt(j);
+            leaves[i] = new Rope(leafChars, NO_MARKUPS, NO_ANCHORS);
+        }
+        return build(leaves, 0, leafCount);
+    }
+
+    private static Rope build(Rope[] leaves, int from, int to) {
+        if (to - from == 1)
+            return leaves[from];
+        int mid = (from + to) >>> 1;
+        return new Rope(build(leaves, from, mid), build(leaves, mid, to));
+    }
+
+    // Concatenates the given ropes, either may be null.
+    private static Rope join(Rope a, Rope b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        if (a.chars != null && b.chars != null && a.length + b.length <= MAX_LEAF)
+            return mergeLeaves(a, b);
+        if (a.height > b.height + 1)
+            return balance(a.left, join(a.right, b));
+        if (b.height > a.height + 1)
+            return balance(join(a, b.left), b.right);
+        return new Rope(a, b);
+    }
+
+    private static Rope balance(Rope l, Rope r) {
+        if (l.height > r.height + 1) {
+            if (l.left.height >= l.right.height)
+                return new Rope(l.left, new Rope(l.right, r));
+            return new Rope(new Rope(l.left, l.right.left), new Rope(l.right.right, r));
+        }
+        if (r.height > l.height + 1) {
+            if (r.right.height >= r.left.height)
+                return new Rope(new Rope(l, r.left), r.right);
+            return new Rope(new Rope(l, r.left.left), new Rope(r.left.right, r.right));
+        }
+        return new Rope(l, r);
+    }
+
+    private static Rope mergeLeaves(Rope a, Rope b) {
+        char[] newChars = new char[a.length + b.length];
+        System.arraycopy(a.chars, 0, newChars, 0, a.length);
+        System.arraycopy(b.chars, 0, newChars, a.length, b.length);
+        int count = a.anchors.length + b.anchors.length;
+        if (count == 0)
+            return new Rope(newChars, NO_MARKUPS, NO_ANCHORS);
+        int[] newAnchors = new int[count];
+        Markup[] newMarkups = new Markup[count];
+        System.arraycopy(a.anchors, 0, newAnchors, 0, a.anchors.length);
+        System.arraycopy(a.anchorMarkups, 0, newMarkups, 0, a.anchors.length);
+        for (int i = 0; i < b.anchors.length; i++) {
+            int anchor = b.anchors[i];
+            newAnchors[a.anchors.length + i] = ((anchor >> 1) + a.length) << 1 | (anchor & 1);
+            newMarkups[a.anchors.length + i] = b.anchorMarkups[i];
+        }
+        return new Rope(newChars, newMarkups, newAnchors);
+    }
+
+    /**
+     * Anchors of markups to add to or remove from a rope in one pass.
+     */
+    static final class AnchorList {
+
+        // (offset << 1 | 1 if end) like in the leaves.
+        private int[] anchors;
+        private Markup[] markups;
+        private int size;
+
+        AnchorList() {
+            anchors = new int[16];
+            markups = new Markup[16];
+        }
+
+        void add(int offset, Markup markup, boolean end) {
+            if (size == anchors.length) {
+                anchors = Arrays.copyOf(anchors, size << 1);
+                markups = Arrays.copyOf(markups, size << 1);
+            }
+            anchors[size] = offset << 1 | (end ? 1 : 0);
+            markups[size++] = markup;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            Arrays.fill(markups, 0, size, null);
+            size = 0;
+        }
+
+        // Sorts the anchors by offset.
+        private void sort() {
+            long[] order = new long[size];
+            boolean sorted = true;
+            for (int i = 0; i < size; i++) {
+                order[i] = (long) (anchors[i] >> 1) << 32 | i;
+                if (i > 0 && anchors[i - 1] >> 1 > anchors[i] >> 1)
+                    sorted = false;
+            }
+            if (sorted)
+                return;
+            Arrays.sort(order);
+            int[] sortedAnchors = new int[anchors.length];
+            Markup[] sortedMarkups = new Markup[anchors.length];
+            for (int i = 0; i < size; i++) {
+                int index = (int) order[i];
+                sortedAnchors[i] = anchors[index];
+                sortedMarkups[i] = markups[index];
+            }
+            anchors = sortedAnchors;
+            markups = sortedMarkups;
+        }
+
+        // Returns the first index in [from, to) of an anchor after the given offset.
+        private int indexAfter(int offset, int from, int to) {
+            while (from < to) {
+                int mid = (from + to) >>> 1;
+                if (anchors[mid] >> 1 <= offset)
+                    from = mid + 1;
+                else
+                    to = mid;
+            }
+            return from;
+        }
+    }
+}
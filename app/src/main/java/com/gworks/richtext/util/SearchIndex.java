@@ -0,0 +1,198 @@
+package com.gworks.richtext.util;
+
+import java.util.Arrays;
+
+/**
+ * Case insensitive full text search index of the text. The text is split into chunks of about
+ * {@link #CHUNK_SIZE} characters, each having a bloom filter of the trigrams starting in it.
+ * A query scans only the chunks whose filter has all the trigrams of the query, and an edit
+ * re-indexes only the chunks around it.
+ */
+public class SearchIndex {
+
+    private static final int CHUNK_SIZE = 512;
+
+    // Trigrams starting this far after the end of a chunk are added to the chunk too, so that
+    // the first OVERLAP characters of a match are all in the filter of the chunk it starts.
+    private static final int OVERLAP = 32;
+
+    // Bloom filter bits of a chunk.
+    private static final int FILTER_BITS = 2048;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Partitioning chunks;
+
+    private long[][] filters;
+
+    private int length;
+
+    // Trigrams indexed and filters moved, see getSteps().
+    private long steps;
+
+    public SearchIndex(CharSequence text) {
+        chunks = new Partitioning();
+        filters = new long[16][];
+        length = text.length();
+        reindex(text, 0, 1);
+    }
+
+    /**
+     * Updates the index for the replacement of <code>before</code> characters at
+     * <code>start</code> with <code>count</code> characters of the given text.
+     *
+     * @param text text after the replacement
+     */
+    public void onTextChanged(CharSequence text, int start, int before, int count) {
+        // Chunks having the trigrams overlapping the replaced text.
+        int first = chunks.find(Math.max(0, start - OVERLAP - 2));
+        int last = chunks.find(start + before);
+        length += count - before;
+        chunks.shift(last, count - before);
+        // Merge with the next chunk if the chunks got too small.
+        if (getChunkEnd(last) - chunks.getStart(first) < CHUNK_SIZE / 2 && last + 1 < chunks.size())
+            last++;
+        reindex(text, first, last - first + 1);
+    }
+
+    /**
+     * Returns the number of trigrams indexed, filters moved and chunk starts offset, moved or
+     * searched so far. A deterministic measure of the work, for the scaling tests.
+     */
+    /*default*/ long getSteps() {
+        return steps + chunks.getSteps();
+    }
+
+    /**
+     * Returns the ranges where the given query matches (ignoring case) in the given range of the
+     * text, as (start, end) pairs sorted by start.
+     *
+     * @param text the text being indexed
+     * @param from inclusive
+     * @param to exclusive
+     */
+    public int[] search(CharSequence text, String query, int from, int to) {
+        int queryLength = query.length();
+        if (queryLength == 0 || to - from < queryLength)
+            return EMPTY;
+
+        char[] lowerChars = new char[queryLength];
+        for (int i = 0; i < queryLength; i++)
+            lowerChars[i] = Character.toLowerCase(query.charAt(i));
+        String lowerQuery = new String(lowerChars);
+        long[] queryFilter = new long[FILTER_BITS / 64];
+        for (int i = 0, n = Math.min(queryLength - 3, OVERLAP); i <= n; i++)
+            setBit(queryFilter, lowerQuery, i);
+
+        RangeList matches = new RangeList();
+        int lastStart = to - queryLength;
+        for (int chunk = chunks.find(from), lastChunk = chunks.find(lastStart); chunk <= lastChunk; chunk++) {
+            if (!contains(filters[chunk], queryFilter))
+                continue;
+            int end = Math.min(getChunkEnd(chunk) - 1, lastStart);
+            for (int i = Math.max(chunks.getStart(chunk), from); i <= end; i++)
+                if (matches(text, i, lowerQuery))
+                    matches.add(i, i + queryLength);
+        }
+        return matches.toArray();
+    }
+
+    private static boolean matches(CharSequence text, int index, String lowerQuery) {
+        for (int i = 0, n = lowerQuery.length(); i < n; i++)
+            if (Character.toLowerCase(text.charAt(index + i)) != lowerQuery.charAt(i))
+                return false;
+        return true;
+    }
+
+    private int getChunkEnd(int chunk) {
+        return chunk + 1 < chunks.size() ? chunks.getStart(chunk + 1) : length;
+    }
+
+    // Splits the text of the given chunks into new chunks and indexes them.
+    private void reindex(CharSequence text, int first, int count) {
+        int start = chunks.getStart(first);
+        int end = getChunkEnd(first + count - 1);
+        int newCount = Math.max(1, (end - start + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+        // Most edits keep the number of chunks, their starts and filters are then updated in
+        // place without applying the pending shift of the chunks after them.
+        if (newCount != count) {
+            int chunkCount = chunks.size();
+            chunks.replace(first, count, newCount);
+            int newChunkCount = chunks.size();
+            if (newChunkCount > filters.length) {
+                long[][] newFilters = new long[Math.max(newChunkCount, filters.length << 1)][];
+                System.arraycopy(filters, 0, newFilters, 0, chunkCount);
+                filters = newFilters;
+            }
+            System.arraycopy(filters, first + count, filters, first + newCount, chunkCount - first - count);
+            steps += chunkCount - first - count;
+            for (int i = first; i < first + newCount; i++)
+                filters[i] = null;
+            for (int i = newChunkCount; i < chunkCount; i++)
+                filters[i] = null;
+        }
+
+        for (int i = 0; i < newCount; i++) {
+            int chunkStart = start + (int) ((long) (end - start) * i / newCount);
+            int chunkEnd = start + (int) ((long) (end - start) * (i + 1) / newCount);
+            chunks.setStart(first + i, chunkStart);
+            long[] filter = filters[first + i];
+            if (filter == null)
+                filter = new long[FILTER_BITS / 64];
+            else
+                Arrays.fill(filter, 0);
+            int trigramsEnd = Math.min(chunkEnd + OVERLAP, length - 2);
+            for (int j = chunkStart; j < trigramsEnd; j++)
+                setBit(filter, text, j);
+            steps += Math.max(0, trigramsEnd - chunkStart);
+            filters[first + i] = filter;
+        }
+    }
+
+    // Sets the bit of the trigram at the given index.
+    private static void setBit(long[] filter, CharSequence text, int index) {
+        int hash = Character.toLowerCase(text.charAt(index));
+        hash = hash * 31 + Character.toLowerCase(text.charAt(index + 1));
+        hash = hash * 31 + Character.toLowerCase(text.charAt(index + 2));
+        hash ^= hash >>> 11;
+        int bit = (hash * 0x9E3779B1 >>> 16) & (FILTER_BITS - 1);
+        filter[bit >>> 6] |= 1L << bit;
+    }
+
+    private static boolean contains(long[] filter, long[] queryFilter) {
+        for (int i = 0; i < filter.length; i++)
+            if ((filter[i] & queryFilter[i]) != queryFilter[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Growable list of (start, end) ranges.
+     */
+    /*default*/ static class RangeList {
+        private int[] ranges = new int[16];
+        private int size;
+
+        void add(int start, int end) {
+            if (size + 2 > ranges.length) {
+                int[] newRanges = new int[ranges.length << 1];
+                System.arraycopy(ranges, 0, newRanges, 0, size);
+                ranges = newRanges;
+            }
+            ranges[size++] = start;
+            ranges[size++] = end;
+        }
+
+        void addAll(int[] other) {
+            for (int i = 0; i < other.length; i += 2)
+                add(other[i], other[i + 1]);
+        }
+
+        int[] toArray() {
+            int[] array = new int[size];
+            System.arraycopy(ranges, 0, array, 0, size);
+            return array;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.gworks.richtext.util;
+
+import java.util.Arrays;
+
+/**
+ * Maps sorted int keys to values like a {@link android.util.SparseArray} whose keys after an
+ * offset can be shifted, as the offsets of the text are by an edit. The entries are kept in a
+ * gap buffer with the gap at the last change and the keys after the gap stored without the
+ * shift, so a shift moves only the entries between the gap and the shifted offset, which are
+ * few while typing.
+ */
+/*default*/ class ShiftingSparseArray<E> {
+
+    private int[] keys;
+    private Object[] values;
+    // The entries are before gapStart and from gapEnd.
+    private int gapStart;
+    private int gapEnd;
+    // Added to the keys after the gap.
+    private int shift;
+
+    /*default*/ ShiftingSparseArray() {
+        keys = new int[10];
+        values = new Object[10];
+        gapEnd = keys.length;
+    }
+
+    public int size() {
+        return keys.length - gapEnd + gapStart;
+    }
+
+    public int keyAt(int index) {
+        return index < gapStart ? keys[index] : keys[index + gapEnd - gapStart] + shift;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E) values[index < gapStart ? index : index + gapEnd - gapStart];
+    }
+
+    /**
+     * Returns the index of the first key greater than or equal to the given key, the size if
+     * none.
+     */
+    public int ceilingIndex(int key) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keyAt(mid) < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    public E get(int key) {
+        int index = ceilingIndex(key);
+        return index < size() && keyAt(index) == key ? valueAt(index) : null;
+    }
+
+    public void put(int key, E value) {
+        int index = ceilingIndex(key);
+        if (index < size() && keyAt(index) == key) {
+            values[index < gapStart ? index : index + gapEnd - gapStart] = value;
+            return;
+        }
+        moveGap(index);
+        if (gapStart == gapEnd)
+            grow();
+        keys[gapStart] = key;
+        values[gapStart] = value;
+        gapStart++;
+    }
+
+    public void delete(int key) {
+        int index = ceilingIndex(key);
+        if (index < size() && keyAt(index) == key) {
+            moveGap(index + 1);
+            gapStart--;
+            values[gapStart] = null;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        gapStart = 0;
+        gapEnd = keys.length;
+        shift = 0;
+    }
+
+    /**
+     * Adds the given delta to the keys greater than or equal to the given key. The keys must
+     * stay in order, so the keys between from and from - delta must be removed first when the
+     * delta is negative.
+     */
+    public void shift(int from, int delta) {
+        moveGap(ceilingIndex(from));
+        shift += delta;
+    }
+
+    // Moves the gap before the entry of the given index.
+    private void moveGap(int index) {
+        int gapLength = gapEnd - gapStart;
+        if (index < gapStart) {
+            int count = gapStart - index;
+            System.arraycopy(keys, index, keys, index + gapLength, count);
+            System.arraycopy(values, index, values, index + gapLength, count);
+            Arrays.fill(values, index, Math.min(gapStart, index + gapLength), null);
+            for (int i = index + gapLength; i < gapEnd; i++)
+                keys[i] -= shift;
+        } else if (index > gapStart) {
+            int count = index - gapStart;
+            for (int i = gapEnd; i < gapEnd + count; i++)
+                keys[i] += shift;
+            System.arraycopy(keys, gapEnd, keys, gapStart, count);
+            System.arraycopy(values, gapEnd, values, gapStart, count);
+            Arrays.fill(values, Math.max(gapEnd, index), gapEnd + count, null);
+        }
+        gapStart = index;
+        gapEnd = index + gapLength;
+        // Without entries after the gap the shift is applied to none.
+        if (gapEnd == keys.length)
+            shift = 0;
+    }
+
+    private void grow() {
+        int capacity = Math.max(10, keys.length * 2);
+        int tail = keys.length - gapEnd;
+        int[] newKeys = new int[capacity];
+        Object[] newValues = new Object[capacity];
+        System.arraycopy(keys, 0, newKeys, 0, gapStart);
+        System.arraycopy(values, 0, newValues, 0, gapStart);
+        System.arraycopy(keys, gapEnd, newKeys, capacity - tail, tail);
+        System.arraycopy(values, gapEnd, newValues, capacity - tail, tail);
+        keys = newKeys;
+        values = newValues;
+        gapEnd = capacity - tail;
+    }
+}
@@ -0,0 +1,105 @@
+package com.gworks.richtext.util;
+
+import android.text.Spanned;
+
+import com.gworks.richtext.tags.Markup;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable table of markups and their ranges, sorted by start (and by end, descending, for the
+ * markups starting at the same index).
+ */
+public class SpanTable {
+
+    public static final SpanTable EMPTY = new SpanTable(new Markup[0], new int[0], new int[0]);
+
+    private final Markup[] markups;
+    private final int[] starts;
+    private final int[] ends;
+
+    /*default*/ SpanTable(Markup[] markups, int[] starts, int[] ends) {
+        this.markups = markups;
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    /**
+     * Returns the table of all the markups applied in the given text.
+     */
+    public static SpanTable of(Spanned text) {
+        return of(text, Markup.class);
+    }
+
+    /**
+     * Returns the table of the markups of the given type applied in the given text.
+     */
+    public static SpanTable of(Spanned text, Class<? extends Markup> markupType) {
+        Markup[] markups = text.getSpans(0, text.length(), markupType);
+        int[] starts = new int[markups.length];
+        int[] ends = new int[markups.length];
+        for (int i = 0; i < markups.length; i++) {
+            starts[i] = markups[i].getSpanStart(text);
+            ends[i] = markups[i].getSpanEnd(text);
+        }
+        return of(markups, starts, ends, markups.length);
+    }
+
+    /**
+     * Returns a table of the given entries after sorting them.
+     *
+     * @param size number of entries in the arrays
+     */
+    public static SpanTable of(Markup[] markups, int[] starts, int[] ends, int size) {
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        final int[] s = starts;
+        final int[] e = ends;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                if (s[i1] != s[i2])
+                    return s[i1] < s[i2] ? -1 : 1;
+                return e[i1] == e[i2] ? 0 : (e[i1] > e[i2] ? -1 : 1);
+            }
+        });
+        Markup[] sortedMarkups = new Markup[size];
+        int[] sortedStarts = new int[size];
+        int[] sortedEnds = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedMarkups[i] = markups[order[i]];
+            sortedStarts[i] = starts[order[i]];
+            sortedEnds[i] = ends[order[i]];
+        }
+        return new SpanTable(sortedMarkups, sortedStarts, sortedEnds);
+    }
+
+    public int size() {
+        return markups.length;
+    }
+
+    public Markup getMarkup(int index) {
+        return markups[index];
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Tells whether the given markups are of the same type and have the same attributes.
+     */
+    public static boolean isSameMarkup(Markup markup1, Markup markup2) {
+        if (markup1.getClass() != markup2.getClass())
+            return false;
+        Object attributes1 = Util.getAttributes(markup1);
+        Object attributes2 = Util.getAttributes(markup2);
+        return attributes1 == null ? attributes2 == null : attributes1.equals(attributes2);
+    }
+}
@@ -0,0 +1,232 @@
+package com.gworks.richtext.util;
+
+import android.support.v4.view.ViewCompat;
+import android.text.Spanned;
+
+import com.gworks.richtext.tags.Markup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the markups active in the selection of a {@link RichEditTexter} for the toolbars, so
+ * the buttons are updated without looking up the spans of the text for each button. The
+ * markups are the ones {@link RichTexter#getAppliedMarkups(int, int)} returns for the
+ * selection.
+ * <p>
+ * The markups covering the selection start are updated by walking the span transitions
+ * between the old and the new selection start, and the markups starting inside the selection
+ * are added from the span transitions in it. They are looked up in the text again only after
+ * the text or the markups change. The listeners are notified at most once per frame, when
+ * the active markups change.
+ */
+public class StyleStateTracker {
+
+    public interface OnStyleStateChangeListener {
+
+        /**
+         * Called on the next frame after the active markups change.
+         */
+        void onStyleStateChanged(StyleStateTracker tracker);
+    }
+
+    private final RichEditTexter texter;
+    private final List<OnStyleStateChangeListener> listeners = new ArrayList<>();
+
+    private int selectionStart;
+    private int selectionEnd;
+
+    // Markups covering the position (start <= position <= end), valid for the version.
+    private final Set<Markup> covering = newMarkupSet();
+    private int position = -1;
+    private long version = -1;
+
+    // Markups active in the selection and their types, valid if not dirty.
+    private final Set<Markup> active = newMarkupSet();
+    private final Set<Class<? extends Markup>> activeTypes = new HashSet<>();
+    private boolean dirty = true;
+
+    // Markups active when the listeners were last notified.
+    private final Set<Markup> notified = newMarkupSet();
+
+    private boolean frameScheduled;
+    private final Runnable frameCallback = new Runnable() {
+        @Override
+        public void run() {
+            frameScheduled = false;
+            // Compared with the notified markups, the active ones may have been updated by the
+            // listeners reading them since.
+            update();
+            if (!notified.equals(active)) {
+                notified.clear();
+                notified.addAll(active);
+                for (OnStyleStateChangeListener listener : new ArrayList<>(listeners))
+                    listener.onStyleStateChanged(StyleStateTracker.this);
+            }
+        }
+    };
+
+    /*default*/ StyleStateTracker(RichEditTexter texter) {
+        this.texter = texter;
+        selectionStart = Math.max(0, texter.getRichTextView().getSelectionStart());
+        selectionEnd = Math.max(selectionStart, texter.getRichTextView().getSelectionEnd());
+    }
+
+    public void addListener(OnStyleStateChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(OnStyleStateChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getSelectionStart() {
+        return selectionStart;
+    }
+
+    public int getSelectionEnd() {
+        return selectionEnd;
+    }
+
+    /**
+     * Returns whether a markup of the given type is active in the selection.
+     */
+    public boolean isActive(Class<? extends Markup> markupType) {
+        update();
+        return activeTypes.contains(markupType);
+    }
+
+    /**
+     * Returns the markups active in the selection.
+     *
+     * @return unmodifiable set of markups
+     */
+    public Set<Markup> getActiveMarkups() {
+        update();
+        return Collections.unmodifiableSet(active);
+    }
+
+    /**
+     * Returns the types of the markups active in the selection.
+     *
+     * @return unmodifiable set of types
+     */
+    public Set<Class<? extends Markup>> getActiveTypes() {
+        update();
+        return Collections.unmodifiableSet(activeTypes);
+    }
+
+    /**
+     * Call this when the selection changes.
+     */
+    /*default*/ void onSelectionChanged(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.max(0, end);
+        selectionStart = Math.min(start, end);
+        selectionEnd = Math.max(start, end);
+        invalidate();
+    }
+
+    /**
+     * Call this when the text or the markups change.
+     */
+    /*default*/ void invalidate() {
+        dirty = true;
+        if (!frameScheduled && !listeners.isEmpty()) {
+            frameScheduled = true;
+            ViewCompat.postOnAnimation(texter.getRichTextView(), frameCallback);
+        }
+    }
+
+    private void update() {
+        if (!dirty)
+            return;
+        dirty = false;
+        Spanned text = texter.getRichTextView().getText();
+        int length = text.length();
+        int start = Math.min(selectionStart, length);
+        int end = Math.min(selectionEnd, length);
+
+        active.clear();
+        activeTypes.clear();
+        if (version != texter.getVersion()) {
+            // Changed, the covering markups are looked up at the selection start.
+            covering.clear();
+            Collections.addAll(covering, text.getSpans(start, start, Markup.class));
+            position = start;
+            version = texter.getVersion();
+            if (start < end) {
+                for (Markup markup : text.getSpans(start, end, Markup.class))
+                    addActive(markup);
+                return;
+            }
+        } else {
+            moveTo(start);
+        }
+
+        if (start == end) {
+            for (Markup markup : covering)
+                addActive(markup);
+            return;
+        }
+        // Like getSpans, the non empty markups just touching the selection are left out.
+        for (Markup markup : covering) {
+            if (markup.getSpanEnd(text) > start || markup.getSpanStart(text) == markup.getSpanEnd(text))
+                addActive(markup);
+        }
+        ShiftingSparseArray<RichTexter.SpanTransition> transitions = texter.getSpanTransitions();
+        for (int i = transitions.ceilingIndex(start + 1); i < transitions.size(); i++) {
+            int index = transitions.keyAt(i);
+            if (index > end)
+                break;
+            for (Markup markup : transitions.valueAt(i).getStartingSpans()) {
+                if (index < end || markup.getSpanEnd(text) == end)
+                    addActive(markup);
+            }
+        }
+    }
+
+    // Moves the markups covering the position to the given position, walking the span
+    // transitions in between.
+    private void moveTo(int to) {
+        ShiftingSparseArray<RichTexter.SpanTransition> transitions = texter.getSpanTransitions();
+        int from = position;
+        if (to > from) {
+            for (int i = transitions.ceilingIndex(from); i < transitions.size(); i++) {
+                int index = transitions.keyAt(i);
+                if (index > to)
+                    break;
+                RichTexter.SpanTransition transition = transitions.valueAt(i);
+                if (index > from)
+                    covering.addAll(transition.getStartingSpans());
+                if (index < to)
+                    covering.removeAll(transition.getEndingSpans());
+            }
+        } else if (to < from) {
+            for (int i = transitions.ceilingIndex(from + 1) - 1; i >= 0; i--) {
+                int index = transitions.keyAt(i);
+                if (index < to)
+                    break;
+                RichTexter.SpanTransition transition = transitions.valueAt(i);
+                if (index < from)
+                    covering.addAll(transition.getEndingSpans());
+                if (index > to)
+                    covering.removeAll(transition.getStartingSpans());
+            }
+        }
+        position = to;
+    }
+
+    private void addActive(Markup markup) {
+        if (active.add(markup))
+            activeTypes.add(markup.getClass());
+    }
+
+    private static Set<Markup> newMarkupSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Markup, Boolean>());
+    }
+}
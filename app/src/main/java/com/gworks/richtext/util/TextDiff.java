@@ -0,0 +1,131 @@
+package com.gworks.richtext.util;
+
+/**
+ * Computes the edits turning a text into another using the Myers' O(ND) difference algorithm.
+ * The common prefix and suffix are skipped before running the algorithm, so the cost of small
+ * edits does not depend on the length of the text.
+ */
+/*default*/ final class TextDiff {
+
+    // Beyond this many differences the changed region is replaced as a whole.
+    private static final int MAX_DIFFERENCES = 1000;
+
+    private TextDiff() {
+    }
+
+    /**
+     * Returns the edits turning the old text into the new text as groups of
+     * (oldStart, oldEnd, newStart, newEnd) sorted by offset.
+     */
+    static int[] diff(CharSequence oldText, CharSequence newText) {
+        int oldLength = oldText.length();
+        int newLength = newText.length();
+
+        int prefix = 0;
+        int maxPrefix = Math.min(oldLength, newLength);
+        while (prefix < maxPrefix && oldText.charAt(prefix) == newText.charAt(prefix))
+            prefix++;
+
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix && oldText.charAt(oldLength - 1 - suffix) == newText.charAt(newLength - 1 - suffix))
+            suffix++;
+
+        int n = oldLength - prefix - suffix;
+        int m = newLength - prefix - suffix;
+        if (n == 0 && m == 0)
+            return new int[0];
+        if (n == 0 || m == 0)
+            return new int[]{prefix, prefix + n, prefix, prefix + m};
+
+        // The diagonals reached are within the differences tried, so the arrays are sized by
+        // them rather than by the length of the texts.
+        int max = Math.min(n + m, MAX_DIFFERENCES);
+        int[][] trace = new int[max + 1][];
+        int[] v = new int[2 * max + 2];
+        for (int d = 0; d < trace.length; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[max + k - 1] < v[max + k + 1]))
+                        ? v[max + k + 1] : v[max + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && oldText.charAt(prefix + x) == newText.charAt(prefix + y)) {
+                    x++;
+                    y++;
+                }
+                v[max + k] = x;
+                if (x >= n && y >= m) {
+                    trace[d] = snapshot(v, max, d);
+                    return backtrack(trace, d, n, m, prefix);
+                }
+            }
+            trace[d] = snapshot(v, max, d);
+        }
+        return new int[]{prefix, prefix + n, prefix, prefix + m};
+    }
+
+    // Copies the furthest reaching x of the diagonals -d to d.
+    private static int[] snapshot(int[] v, int max, int d) {
+        int[] snapshot = new int[2 * d + 1];
+        System.arraycopy(v, max - d, snapshot, 0, snapshot.length);
+        return snapshot;
+    }
+
+    private static int[] backtrack(int[][] trace, int differences, int n, int m, int prefix) {
+        IntArray edits = new IntArray();
+        int x = n;
+        int y = m;
+        // End of the edit being collected (backwards), -1 if none.
+        int oldEnd = -1;
+        int newEnd = -1;
+        for (int d = differences; d > 0; d--) {
+            // Furthest reaching x of the diagonals -(d-1) to (d-1) indexed from 0.
+            int[] v = trace[d - 1];
+            int k = x - y;
+            boolean insertion = k == -d || (k != d && v[k - 1 + d - 1] < v[k + 1 + d - 1]);
+            int prevK = insertion ? k + 1 : k - 1;
+            int prevX = v[prevK + d - 1];
+            int prevY = prevX - prevK;
+            int midX = insertion ? prevX : prevX + 1;
+            int midY = midX - k;
+            if (x > midX && oldEnd >= 0) {
+                // Common characters end the edit being collected.
+                edits.addEdit(x, oldEnd, y, newEnd, prefix);
+                oldEnd = -1;
+            }
+            if (oldEnd < 0) {
+                oldEnd = midX;
+                newEnd = midY;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        if (oldEnd >= 0)
+            edits.addEdit(x, oldEnd, y, newEnd, prefix);
+        return edits.toReversedEdits();
+    }
+
+    // Growable int array collecting the edits in reverse.
+    private static class IntArray {
+        private int[] values = new int[16];
+        private int size;
+
+        void addEdit(int oldStart, int oldEnd, int newStart, int newEnd, int offset) {
+            if (size + 4 > values.length) {
+                int[] newValues = new int[values.length << 1];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+            values[size++] = oldStart + offset;
+            values[size++] = oldEnd + offset;
+            values[size++] = newStart + offset;
+            values[size++] = newEnd + offset;
+        }
+
+        int[] toReversedEdits() {
+            int[] edits = new int[size];
+            for (int i = 0; i < size; i += 4)
+                System.arraycopy(values, i, edits, size - 4 - i, 4);
+            return edits;
+        }
+    }
+}
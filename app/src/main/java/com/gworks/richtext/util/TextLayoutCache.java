@@ -0,0 +1,213 @@
+package com.gworks.richtext.util;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.text.Layout;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+import com.gworks.richtext.tags.ListItem;
+import com.gworks.richtext.tags.Markup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Lays out the snapshots of read only documents on background threads and keeps the layouts
+ * in a LRU cache keyed by the document, its version and the width. The layouts are static
+ * layouts of new spans created from the span table of the snapshot, so the text of the views
+ * is never touched off the main thread. The layouts are drawn by
+ * {@link com.gworks.richtext.widget.RichLayoutView}.
+ */
+public class TextLayoutCache {
+
+    public interface Callback {
+
+        /**
+         * Called on the main thread when the layout is ready.
+         */
+        void onLayout(Layout layout);
+
+        /**
+         * Called on the main thread when the layout could not be created. Nothing is cached, so
+         * loading it again retries.
+         */
+        void onLayoutFailed(RuntimeException error);
+    }
+
+    private static final int THREADS = 2;
+
+    private final TextPaint paint;
+    private final LruCache<Key, Layout> layouts;
+    private final Executor executor;
+    private final Handler mainHandler;
+
+    // Callbacks of the layouts being computed.
+    private final HashMap<Key, List<Callback>> pendingCallbacks = new HashMap<>();
+
+    /**
+     * @param paint paint of the text, copied for each layout
+     * @param maxLayouts number of layouts to keep
+     */
+    public TextLayoutCache(TextPaint paint, int maxLayouts) {
+        this(paint, maxLayouts, Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "TextLayoutCache");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        }));
+    }
+
+    public TextLayoutCache(TextPaint paint, int maxLayouts, Executor executor) {
+        this.paint = new TextPaint(paint);
+        this.layouts = new LruCache<>(maxLayouts);
+        this.executor = executor;
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Returns the cached layout of the given document version for the given width if any.
+     *
+     * @param document key of the document, like its id
+     */
+    @MainThread
+    public Layout get(Object document, long version, int width) {
+        return layouts.get(new Key(document, version, width));
+    }
+
+    /**
+     * Lays out the given snapshot for the given width in the background unless cached. The
+     * callback is called immediately if the layout is cached.
+     *
+     * @param document key of the document, like its id
+     * @param callback callback to get the layout or null to only cache it (like for the items
+     *                 about to be shown)
+     */
+    @MainThread
+    public void load(Object document, final DocumentSnapshot snapshot, final int width, @Nullable Callback callback) {
+        final Key key = new Key(document, snapshot.getVersion(), width);
+        Layout layout = layouts.get(key);
+        if (layout != null) {
+            if (callback != null)
+                callback.onLayout(layout);
+            return;
+        }
+        List<Callback> callbacks = pendingCallbacks.get(key);
+        if (callbacks == null) {
+            callbacks = new ArrayList<>(1);
+            pendingCallbacks.put(key, callbacks);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Layout layout = null;
+                    RuntimeException error = null;
+                    try {
+                        layout = createLayout(snapshot, width);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        error = e;
+                    }
+                    final Layout result = layout;
+                    final RuntimeException failure = error;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            List<Callback> callbacks = pendingCallbacks.remove(key);
+                            if (result == null) {
+                                for (Callback callback : callbacks)
+                                    callback.onLayoutFailed(failure);
+                                return;
+                            }
+                            layouts.put(key, result);
+                            for (Callback callback : callbacks)
+                                callback.onLayout(result);
+                        }
+                    });
+                }
+            });
+        }
+        if (callback != null)
+            callbacks.add(callback);
+    }
+
+    /**
+     * Drops all the cached layouts, like when the paint of the views changes.
+     */
+    @MainThread
+    public void clear() {
+        layouts.evictAll();
+    }
+
+    /**
+     * Lays out the given snapshot for the given width.
+     */
+    @WorkerThread
+    public Layout createLayout(DocumentSnapshot snapshot, int width) {
+        CharSequence text = createText(snapshot);
+        // The paint is not shared by the threads.
+        TextPaint layoutPaint = new TextPaint(paint);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            return StaticLayout.Builder.obtain(text, 0, text.length(), layoutPaint, width).build();
+        return new StaticLayout(text, layoutPaint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+    }
+
+    // The text of the snapshot with copies of its markups.
+    private static CharSequence createText(DocumentSnapshot snapshot) {
+        SpannableStringBuilder text = new SpannableStringBuilder(snapshot.getText());
+        SpanTable spans = snapshot.getSpanTable();
+        // The copies of the list items are numbered by the lines of the copied text.
+        ListIndex lists = ListIndex.of(text, spans);
+        ListItem.Numbering numbering = lists != null ? lists.getNumbering() : null;
+        for (int i = 0; i < spans.size(); i++) {
+            Markup markup = Util.copyMarkup(spans.getMarkup(i));
+            if (markup instanceof ListItem)
+                ((ListItem) markup).setNumbering(numbering);
+            if (markup != null)
+                markup.applyInternal(text, spans.getStart(i), spans.getEnd(i), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return text;
+    }
+
+    private static class Key {
+        final Object document;
+        final long version;
+        final int width;
+
+        Key(Object document, long version, int width) {
+            this.document = document;
+            this.version = version;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return version == key.version && width == key.width && document.equals(key.document);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = document.hashCode();
+            result = 31 * result + (int) (version ^ (version >>> 32));
+            return 31 * result + width;
+        }
+    }
+}
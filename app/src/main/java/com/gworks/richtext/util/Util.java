@@ -3,6 +3,14 @@ package com.gworks.richtext.util;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 
+import com.gworks.richtext.tags.AttributedMarkup;
+import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.tags.MarkupRegistry;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
 /**
  * Created by durgadass on 1/8/17.
  */
@@ -14,4 +22,74 @@ public class Util {
         return sb;
     }
 
+    /**
+     * Creates a markup of the given type. Attributed markups are created with the given value
+     * as attributes using their single argument constructor. The markups registered in the
+     * generated {@link MarkupRegistry} are created without reflection.
+     *
+     * @param markupType type of the markup
+     * @param value attributes of the markup, null for the markups without attributes
+     * @return the markup or null if it could not be created
+     */
+    public static Markup createMarkup(Class<? extends Markup> markupType, Object value) {
+        int id = MarkupRegistry.idOf(markupType);
+        if (id != MarkupRegistry.UNKNOWN)
+            return MarkupRegistry.create(id, value);
+        try {
+            if (value != null) {
+                // Attributed markups take the attributes in the constructor.
+                for (Constructor<?> constructor : markupType.getConstructors()) {
+                    Class<?>[] parameterTypes = constructor.getParameterTypes();
+                    if (parameterTypes.length == 1 && parameterTypes[0].isInstance(value))
+                        return (Markup) constructor.newInstance(value);
+                }
+            }
+            return markupType.newInstance();
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the markup type of the given class name read from a file. The registered types
+     * are looked up in the {@link MarkupRegistry}, the other classes are loaded without being
+     * initialized and must be markups, so a malformed file does not run the initializer of an
+     * arbitrary class.
+     *
+     * @throws IOException if the name is not of a markup type
+     */
+    /*default*/ static Class<? extends Markup> getMarkupType(String name) throws IOException {
+        Class<? extends Markup> markupType = MarkupRegistry.typeOf(name);
+        if (markupType != null)
+            return markupType;
+        Class<?> type;
+        try {
+            type = Class.forName(name, false, Markup.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown markup type " + name, e);
+        }
+        if (!Markup.class.isAssignableFrom(type))
+            throw new IOException("Not a markup type " + name);
+        return type.asSubclass(Markup.class);
+    }
+
+    /**
+     * Creates a new markup of the same type and attributes as the given markup.
+     */
+    public static Markup copyMarkup(Markup markup) {
+        return createMarkup(markup.getClass(), getAttributes(markup));
+    }
+
+    /**
+     * Returns the attributes of the given markup or null if it is not an attributed markup.
+     */
+    public static Object getAttributes(Markup markup) {
+        return markup instanceof AttributedMarkup ? ((AttributedMarkup) markup).getAttributes() : null;
+    }
+
 }
@@ -0,0 +1,172 @@
+package com.gworks.richtext.widget;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.AppCompatTextView;
+import android.text.Layout;
+import android.text.method.ScrollingMovementMethod;
+import android.util.AttributeSet;
+
+import com.gworks.richtext.util.MappedDocument;
+
+/**
+ * Read only text view of a {@link MappedDocument}. Only a window of the document around the
+ * visible text is set in the view, and the window is moved as the text is scrolled near its
+ * ends, so the heap used does not grow with the document. The view scrolls the text itself,
+ * do not put it in a scroll view.
+ */
+public class MappedTextView extends AppCompatTextView {
+
+    // Length of the window of the document set in the view.
+    private static final int WINDOW_LENGTH = 32 * 1024;
+
+    // Chars looked back for the start of the line of the window start.
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    private MappedDocument document;
+    private int windowStart;
+    private int windowEnd;
+
+    // Whether the window is being moved, the scroll changes are ignored meanwhile. Set from the
+    // text change of a window until its posted scroll has run.
+    private boolean movingWindow;
+
+    // The scroll to the given offset in the document of the new window, posted until the text
+    // is laid out.
+    private Runnable windowScroll;
+    private int windowScrollOffset;
+
+    public MappedTextView(Context context) {
+        super(context);
+        init();
+    }
+
+    public MappedTextView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public MappedTextView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
+        setMovementMethod(ScrollingMovementMethod.getInstance());
+    }
+
+    /**
+     * Shows the given document from its start.
+     */
+    public void setDocument(@Nullable MappedDocument document) {
+        this.document = document;
+        windowStart = windowEnd = 0;
+        cancelWindowScroll();
+        if (document == null)
+            setText("");
+        else
+            showWindow(0);
+    }
+
+    public MappedDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * Returns the offset in the document of the text set in the view.
+     */
+    public int getWindowStart() {
+        return windowStart;
+    }
+
+    /**
+     * Scrolls to the line of the given offset in the document, moving the window if needed.
+     */
+    public void scrollToOffset(int offset) {
+        if (document == null)
+            return;
+        offset = Math.max(0, Math.min(offset, document.length()));
+        if (offset < windowStart || offset > windowEnd)
+            showWindow(offset);
+        else if (windowScroll != null)
+            // Scrolled to once the text is laid out.
+            windowScrollOffset = offset;
+        else
+            scrollToWindowOffset(offset - windowStart);
+    }
+
+    @Override
+    protected void onScrollChanged(int horiz, int vert, int oldHoriz, int oldVert) {
+        super.onScrollChanged(horiz, vert, oldHoriz, oldVert);
+        Layout layout = getLayout();
+        if (document == null || movingWindow || layout == null)
+            return;
+        // The window is moved when less than a screen of text is left before its ends.
+        int height = getHeight();
+        if ((vert + 2 * height >= layout.getHeight() && windowEnd < document.length())
+                || (vert < height && windowStart > 0)) {
+            int topOffset = windowStart + layout.getLineStart(layout.getLineForVertical(vert));
+            showWindow(topOffset);
+        }
+    }
+
+    // Sets the window around the given offset in the document and scrolls to the offset.
+    private void showWindow(int offset) {
+        CharSequence text = document.getText();
+        int start = lineStart(text, Math.max(0, offset - WINDOW_LENGTH / 2));
+        int end = Math.min(document.length(), start + WINDOW_LENGTH);
+        // Surrogate pairs are not split.
+        if (end < document.length() && Character.isHighSurrogate(text.charAt(end - 1)))
+            end++;
+
+        // Cleared by the scroll posted below, so that the scroll changes of the new text are not
+        // taken for the user scrolling before the text is scrolled to the offset.
+        cancelWindowScroll();
+        movingWindow = true;
+        setText(document.getWindow(start, end));
+        windowStart = start;
+        windowEnd = end;
+        // Laid out after the text is set.
+        windowScrollOffset = offset;
+        windowScroll = new Runnable() {
+            @Override
+            public void run() {
+                windowScroll = null;
+                movingWindow = false;
+                if (windowScrollOffset >= windowStart && windowScrollOffset <= windowEnd)
+                    scrollToWindowOffset(windowScrollOffset - windowStart);
+            }
+        };
+        post(windowScroll);
+    }
+
+    private void cancelWindowScroll() {
+        if (windowScroll != null) {
+            removeCallbacks(windowScroll);
+            windowScroll = null;
+        }
+        movingWindow = false;
+    }
+
+    private void scrollToWindowOffset(int offset) {
+        Layout layout = getLayout();
+        if (layout == null)
+            return;
+        boolean moving = movingWindow;
+        movingWindow = true;
+        try {
+            scrollTo(0, layout.getLineTop(layout.getLineForOffset(offset)));
+        } finally {
+            movingWindow = moving;
+        }
+    }
+
+    // Start of the line of the given offset, or the offset if the line is too long.
+    private static int lineStart(CharSequence text, int offset) {
+        int limit = Math.max(0, offset - MAX_LINE_LENGTH);
+        for (int i = offset; i > limit; i--)
+            if (text.charAt(i - 1) == '\n')
+                return i;
+        return limit == 0 ? 0 : offset;
+    }
+}
@@ -1,11 +1,42 @@
 package com.gworks.richtext.widget;
 
+import android.content.ClipData;
+import android.content.ClipboardManager;
 import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.Nullable;
 import android.support.v7.widget.AppCompatEditText;
+import android.text.Editable;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import android.text.style.AbsoluteSizeSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.QuoteSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.URLSpan;
+import android.text.style.UnderlineSpan;
 import android.util.AttributeSet;
 
 import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.util.DefaultAttributeCodec;
+import com.gworks.richtext.util.PackedSpanTable;
+import com.gworks.richtext.util.PasteTask;
 import com.gworks.richtext.util.RichEditTexter;
+import com.gworks.richtext.util.RichFragment;
+import com.gworks.richtext.util.SpanTable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Created by Godwin Lewis on 12/9/2017.
@@ -13,8 +44,66 @@ import com.gworks.richtext.util.RichEditTexter;
 
 public class RichEditText extends AppCompatEditText{
 
+    // Markups restored in each idle callback.
+    private static final int RESTORE_BATCH = 256;
+
+    // Android spans of the markups. These are saved by the text view with the text but the
+    // markups are not, so they are removed on restore and created again by the markups.
+    private static final Class<?>[] MARKUP_SPAN_TYPES = {StyleSpan.class, UnderlineSpan.class,
+            URLSpan.class, TypefaceSpan.class, AbsoluteSizeSpan.class, ForegroundColorSpan.class,
+            RelativeSizeSpan.class, QuoteSpan.class};
+
+    // Pastes at least this long are inserted over several frames.
+    private static final int LARGE_PASTE_LENGTH = 32 * 1024;
+
     private RichEditTexter manager;
 
+    @Nullable
+    private PasteTask.Callback pasteCallback;
+
+    // Saved markups yet to be restored. The markups in the visible lines are restored at the
+    // first layout, the others when the main thread is idle.
+    private PackedSpanTable pendingMarkups;
+    private boolean[] restoredMarkups;
+    private int nextPendingMarkup;
+    private boolean visibleMarkupsRestored;
+
+    // Edits of the text since the restore as (start, before, count), the saved offsets of the
+    // pending markups are moved through them.
+    private int[] edits;
+    private int editCount;
+
+    private boolean markupRestorerQueued;
+
+    private final MessageQueue.IdleHandler markupRestorer = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            restorePendingMarkups(RESTORE_BATCH);
+            markupRestorerQueued = pendingMarkups != null;
+            return markupRestorerQueued;
+        }
+    };
+
+    private final TextWatcher editRecorder = new TextWatcher() {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            if (editCount * 3 == edits.length)
+                edits = Arrays.copyOf(edits, edits.length * 2);
+            edits[editCount * 3] = start;
+            edits[editCount * 3 + 1] = before;
+            edits[editCount * 3 + 2] = count;
+            editCount++;
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+        }
+    };
+
     public RichEditText(Context context) {
         super(context);
         init();
@@ -34,7 +123,248 @@ public class RichEditText extends AppCompatEditText{
         manager = new RichEditTexter(this);
     }
 
+    public RichEditTexter getRichEditTexter() {
+        return manager;
+    }
+
+    @Override
+    protected void onSelectionChanged(int selStart, int selEnd) {
+        super.onSelectionChanged(selStart, selEnd);
+        // Called by the text view before the texter is created.
+        if (manager != null)
+            manager.onSelectionChanged(selStart, selEnd);
+    }
+
+    /**
+     * Sets the callback to get the progress of the large pastes, to show the progress and let
+     * the user cancel them.
+     */
+    public void setPasteCallback(@Nullable PasteTask.Callback pasteCallback) {
+        this.pasteCallback = pasteCallback;
+    }
+
+    @Override
+    public boolean onTextContextMenuItem(int id) {
+        if (id == android.R.id.paste && pasteLarge())
+            return true;
+        return super.onTextContextMenuItem(id);
+    }
+
+    // Pastes the clipboard over several frames if it is large.
+    private boolean pasteLarge() {
+        ClipboardManager clipboard = (ClipboardManager) getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+        ClipData clip = clipboard.getPrimaryClip();
+        if (clip == null || clip.getItemCount() == 0)
+            return false;
+        CharSequence text = clip.getItemAt(0).coerceToText(getContext());
+        if (text.length() < LARGE_PASTE_LENGTH)
+            return false;
+        // The markups of a clip copied in this process are pasted too.
+        SpanTable spans = text instanceof Spanned ? SpanTable.of((Spanned) text) : SpanTable.EMPTY;
+        int start = Math.max(0, Math.min(getSelectionStart(), getSelectionEnd()));
+        int end = Math.max(0, Math.max(getSelectionStart(), getSelectionEnd()));
+        manager.paste(start, end, new RichFragment(text.toString(), spans), pasteCallback);
+        return true;
+    }
+
     public void onMarkupClicked(Class<? extends Markup> id){
         manager.onMarkupMenuClicked(id,null);
     }
+
+    @Override
+    public Parcelable onSaveInstanceState() {
+        // The markups not restored yet are saved too.
+        restorePendingMarkups(Integer.MAX_VALUE);
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            PackedSpanTable.of(manager.getSpanTable()).write(new DataOutputStream(bytes), new DefaultAttributeCodec());
+            state.markups = bytes.toByteArray();
+        } catch (IOException | IllegalArgumentException e) {
+            // The markups with attributes which can not be saved are lost.
+            e.printStackTrace();
+        }
+        return state;
+    }
+
+    @Override
+    public void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+
+        Editable text = getText();
+        for (Class<?> spanType : MARKUP_SPAN_TYPES)
+            for (Object span : text.getSpans(0, text.length(), spanType))
+                text.removeSpan(span);
+        if (savedState.markups == null)
+            return;
+
+        PackedSpanTable markups;
+        try {
+            markups = PackedSpanTable.read(new DataInputStream(new ByteArrayInputStream(savedState.markups)),
+                    new DefaultAttributeCodec());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        pendingMarkups = markups;
+        restoredMarkups = new boolean[markups.size()];
+        nextPendingMarkup = 0;
+        edits = new int[3 * 16];
+        editCount = 0;
+        // Added once even if restored again before the pending markups are done.
+        removeTextChangedListener(editRecorder);
+        addTextChangedListener(editRecorder);
+
+        // The markups in the visible lines are restored first, once the lines are laid out.
+        visibleMarkupsRestored = false;
+        if (getLayout() != null && getHeight() > 0)
+            restoreVisibleMarkups();
+        queueMarkupRestorer();
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        if (pendingMarkups != null && !visibleMarkupsRestored && getLayout() != null)
+            restoreVisibleMarkups();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        queueMarkupRestorer();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        Looper.myQueue().removeIdleHandler(markupRestorer);
+        markupRestorerQueued = false;
+        super.onDetachedFromWindow();
+    }
+
+    private void queueMarkupRestorer() {
+        if (pendingMarkups != null && !markupRestorerQueued) {
+            Looper.myQueue().addIdleHandler(markupRestorer);
+            markupRestorerQueued = true;
+        }
+    }
+
+    // Restores the pending markups in the lines shown at the scroll position.
+    private void restoreVisibleMarkups() {
+        visibleMarkupsRestored = true;
+        Layout layout = getLayout();
+        int scrollY = getScrollY();
+        int from = layout.getLineStart(layout.getLineForVertical(scrollY));
+        int to = layout.getLineEnd(layout.getLineForVertical(scrollY + getHeight()));
+        beginBatchEdit();
+        try {
+            for (int i = 0; i < pendingMarkups.size(); i++) {
+                if (restoredMarkups[i])
+                    continue;
+                int start = moveOffset(pendingMarkups.getStart(i), true);
+                int end = moveOffset(pendingMarkups.getEnd(i), false);
+                if (start <= to && end >= from)
+                    restoreMarkup(i);
+            }
+        } finally {
+            endBatchEdit();
+        }
+    }
+
+    // Restores up to the given number of the pending markups.
+    private void restorePendingMarkups(int count) {
+        if (pendingMarkups == null)
+            return;
+        beginBatchEdit();
+        try {
+            int size = pendingMarkups.size();
+            for (; count > 0 && nextPendingMarkup < size; nextPendingMarkup++) {
+                if (!restoredMarkups[nextPendingMarkup]) {
+                    restoreMarkup(nextPendingMarkup);
+                    count--;
+                }
+            }
+            if (nextPendingMarkup == size) {
+                pendingMarkups = null;
+                restoredMarkups = null;
+                removeTextChangedListener(editRecorder);
+                edits = null;
+            }
+        } finally {
+            endBatchEdit();
+        }
+    }
+
+    private void restoreMarkup(int index) {
+        restoredMarkups[index] = true;
+        int savedStart = pendingMarkups.getStart(index);
+        int savedEnd = pendingMarkups.getEnd(index);
+        // Moved like the markups in the text by the edits made after the restore.
+        int start = moveOffset(savedStart, savedStart != savedEnd);
+        int end = moveOffset(savedEnd, false);
+        // Dropped like the markups whose text is deleted.
+        if (savedStart != savedEnd && start >= end)
+            return;
+        Markup markup = pendingMarkups.createMarkup(index);
+        if (markup != null)
+            manager.apply(markup, start, end);
+    }
+
+    // Moves the given saved offset through the edits made since the restore. The starts of the
+    // markups move after the text inserted at them and the ends stay before it.
+    private int moveOffset(int offset, boolean isStart) {
+        for (int i = 0; i < editCount; i++) {
+            int start = edits[i * 3];
+            int before = edits[i * 3 + 1];
+            int count = edits[i * 3 + 2];
+            if (offset < start || (offset == start && !isStart))
+                continue;
+            if (offset >= start + before)
+                offset += count - before;
+            else
+                offset = isStart ? start + count : start;
+        }
+        return offset;
+    }
+
+    /**
+     * Saved state of the rich edit text. The text is saved by the text view, the markups are
+     * saved as a packed span table.
+     */
+    static class SavedState extends BaseSavedState {
+
+        byte[] markups;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            markups = in.createByteArray();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeByteArray(markups);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
 }
@@ -0,0 +1,114 @@
+package com.gworks.richtext.widget;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.gworks.richtext.util.DocumentSnapshot;
+import com.gworks.richtext.util.TextLayoutCache;
+
+/**
+ * Read only view of a document drawing the layout computed in the background by a
+ * {@link TextLayoutCache}, for showing many documents in a scrolling list without laying out
+ * the text on the main thread. Bind the view to the snapshot of its document when the list
+ * item is bound, the view is empty until the layout is ready.
+ */
+public class RichLayoutView extends View {
+
+    private TextLayoutCache layoutCache;
+    private Object document;
+    private DocumentSnapshot snapshot;
+    private Layout layout;
+
+    // Width of the layout last requested.
+    private int requestedWidth = -1;
+
+    public RichLayoutView(Context context) {
+        super(context);
+    }
+
+    public RichLayoutView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public RichLayoutView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    /**
+     * Shows the given snapshot of the given document.
+     *
+     * @param document key of the document, like its id
+     */
+    public void bind(TextLayoutCache layoutCache, Object document, DocumentSnapshot snapshot) {
+        this.layoutCache = layoutCache;
+        this.document = document;
+        this.snapshot = snapshot;
+        layout = null;
+        requestedWidth = -1;
+        requestLayout();
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int textWidth = Math.max(0, width - getPaddingLeft() - getPaddingRight());
+        if (snapshot != null && (layout == null || layout.getWidth() != textWidth)) {
+            Layout cached = layoutCache.get(document, snapshot.getVersion(), textWidth);
+            if (cached != null)
+                layout = cached;
+            else
+                loadLayout(textWidth);
+        }
+
+        int height = getPaddingTop() + getPaddingBottom() + (layout != null ? layout.getHeight() : 0);
+        int heightMode = MeasureSpec.getMode(heightMeasureSpec);
+        if (heightMode == MeasureSpec.EXACTLY)
+            height = MeasureSpec.getSize(heightMeasureSpec);
+        else if (heightMode == MeasureSpec.AT_MOST)
+            height = Math.min(height, MeasureSpec.getSize(heightMeasureSpec));
+        setMeasuredDimension(width, height);
+    }
+
+    // Loads the layout for the given width, it is shown if the view is still bound to the same
+    // document version when ready.
+    private void loadLayout(final int width) {
+        if (width == requestedWidth)
+            return;
+        requestedWidth = width;
+        final Object requestedDocument = document;
+        final long requestedVersion = snapshot.getVersion();
+        layoutCache.load(document, snapshot, width, new TextLayoutCache.Callback() {
+            @Override
+            public void onLayout(Layout layout) {
+                if (snapshot == null || requestedWidth != width || !requestedDocument.equals(document)
+                        || requestedVersion != snapshot.getVersion())
+                    return;
+                RichLayoutView.this.layout = layout;
+                requestLayout();
+                invalidate();
+            }
+
+            @Override
+            public void onLayoutFailed(RuntimeException error) {
+                // Loaded again on the next measure instead of staying empty, not right away as
+                // it would likely fail again.
+                if (requestedWidth == width && requestedDocument.equals(document))
+                    requestedWidth = -1;
+            }
+        });
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (layout == null)
+            return;
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        layout.draw(canvas);
+        canvas.restore();
+    }
+}
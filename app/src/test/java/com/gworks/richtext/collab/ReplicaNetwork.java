@@ -0,0 +1,168 @@
+package com.gworks.richtext.collab;
+
+import com.gworks.richtext.tags.Bold;
+import com.gworks.richtext.tags.Italic;
+import com.gworks.richtext.tags.Markup;
+import com.gworks.richtext.util.SpanTable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replicas of a document editing concurrently in process. The operations of each replica are
+ * delivered to every other replica in the order they were generated, encoded in batches, while
+ * the deliveries from the different replicas are interleaved randomly.
+ */
+/*default*/ class ReplicaNetwork {
+
+    static final List<Class<? extends Markup>> MARKUP_TYPES =
+            Arrays.<Class<? extends Markup>>asList(Bold.class, Italic.class);
+
+    private static final String ALPHABET = "abcdefghij \n";
+
+    final ReplicatedDocument[] replicas;
+
+    private final OperationCodec codec = new OperationCodec(MARKUP_TYPES);
+
+    private final Random random;
+
+    // By sender, the operations it generated.
+    private final List<List<Operation>> sent;
+
+    // By replica, the markups it added.
+    private final List<List<Markup>> addedMarkups;
+
+    // By receiver and sender, the number of the operations of the sender delivered.
+    private final int[][] delivered;
+
+    private int operationCount;
+
+    ReplicaNetwork(int replicaCount, long seed) {
+        random = new Random(seed);
+        replicas = new ReplicatedDocument[replicaCount];
+        sent = new ArrayList<>();
+        addedMarkups = new ArrayList<>();
+        delivered = new int[replicaCount][replicaCount];
+        for (int i = 0; i < replicaCount; i++) {
+            replicas[i] = new ReplicatedDocument(i + 1);
+            sent.add(new ArrayList<Operation>());
+            addedMarkups.add(new ArrayList<Markup>());
+        }
+    }
+
+    /**
+     * Makes a random local edit in a random replica.
+     */
+    void editRandomly(int maxInsertLength) {
+        int sender = random.nextInt(replicas.length);
+        ReplicatedDocument replica = replicas[sender];
+        int length = replica.length();
+        int kind = random.nextInt(10);
+        Operation operation;
+        if (length == 0 || kind < 5) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 1 + random.nextInt(maxInsertLength); i > 0; i--)
+                text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            operation = replica.insert(random.nextInt(length + 1), text);
+        } else if (kind < 8) {
+            int from = random.nextInt(length);
+            operation = replica.delete(from, from + 1 + random.nextInt(Math.min(8, length - from)));
+        } else if (kind < 9) {
+            int from = random.nextInt(length);
+            Markup markup = random.nextBoolean() ? new Bold() : new Italic();
+            operation = replica.addMarkup(markup, from, from + 1 + random.nextInt(length - from));
+            addedMarkups.get(sender).add(markup);
+        } else {
+            List<Markup> markups = addedMarkups.get(sender);
+            if (markups.isEmpty())
+                return;
+            // Null if the markup is removed already.
+            operation = replica.removeMarkup(markups.remove(random.nextInt(markups.size())));
+        }
+        if (operation != null) {
+            sent.get(sender).add(operation);
+            operationCount++;
+        }
+    }
+
+    /**
+     * Delivers the next few operations of a random sender to a random receiver, if any.
+     *
+     * @return false if there was nothing to deliver
+     */
+    boolean deliverRandomly() {
+        List<int[]> channels = new ArrayList<>();
+        for (int receiver = 0; receiver < replicas.length; receiver++)
+            for (int sender = 0; sender < replicas.length; sender++)
+                if (sender != receiver && delivered[receiver][sender] < sent.get(sender).size())
+                    channels.add(new int[]{receiver, sender});
+        if (channels.isEmpty())
+            return false;
+        int[] channel = channels.get(random.nextInt(channels.size()));
+        deliver(channel[0], channel[1], 1 + random.nextInt(4));
+        return true;
+    }
+
+    /**
+     * Delivers all the operations not yet delivered in a random order.
+     */
+    void deliverAll() {
+        while (deliverRandomly()) ;
+    }
+
+    /**
+     * Delivers all the operations generated so far to the given replica, the senders in the
+     * given order.
+     */
+    void deliverAllTo(ReplicatedDocument replica, List<Integer> senders) {
+        for (int sender : senders) {
+            try {
+                replica.applyAll(codec.decode(codec.encode(sent.get(sender))));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    List<Integer> shuffledSenders() {
+        List<Integer> senders = new ArrayList<>();
+        for (int i = 0; i < replicas.length; i++)
+            senders.add(i);
+        Collections.shuffle(senders, random);
+        return senders;
+    }
+
+    int getOperationCount() {
+        return operationCount;
+    }
+
+    private void deliver(int receiver, int sender, int count) {
+        List<Operation> operations = sent.get(sender);
+        int from = delivered[receiver][sender];
+        int to = Math.min(operations.size(), from + count);
+        try {
+            // Decoding gives the receiver its own markup instances.
+            replicas[receiver].applyAll(codec.decode(codec.encode(operations.subList(from, to))));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        delivered[receiver][sender] = to;
+    }
+
+    /**
+     * Returns the markups of the given replica as sorted "type start end" strings, comparable
+     * across the replicas.
+     */
+    static List<String> describeMarkups(ReplicatedDocument replica) {
+        SpanTable spans = replica.getSpanTable();
+        List<String> markups = new ArrayList<>();
+        for (int i = 0; i < spans.size(); i++)
+            markups.add(spans.getMarkup(i).getClass().getSimpleName() + " " + spans.getStart(i) + " " + spans.getEnd(i));
+        Collections.sort(markups);
+        return markups;
+    }
+}
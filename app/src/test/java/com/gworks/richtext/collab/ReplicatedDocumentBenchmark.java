@@ -0,0 +1,93 @@
+package com.gworks.richtext.collab;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput of the local edits and of applying the remote operations, printed per document
+ * size. The concurrent edits of many replicas must keep a minimum throughput, which must not
+ * drop with the size of the document.
+ */
+public class ReplicatedDocumentBenchmark {
+
+    private static final int[] EDIT_COUNTS = {2000, 8000, 32000};
+
+    private static final int[] CONCURRENT_EDIT_COUNTS = {1000, 4000, 16000};
+
+    private static final int REPLICAS = 16;
+
+    // Operations applied per second by all the replicas, far below the expected throughput.
+    private static final double MIN_APPLIED_PER_SECOND = 10000;
+
+    // The size grows 16 times, an edit walking the text would be about 16 times slower.
+    private static final double MAX_SLOWDOWN = 4;
+
+    @Test
+    public void typingThroughput() {
+        for (int edits : EDIT_COUNTS) {
+            ReplicatedDocument local = new ReplicatedDocument(1);
+            List<Operation> operations = new ArrayList<>(edits);
+            long start = System.nanoTime();
+            for (int i = 0; i < edits; i++) {
+                // Mostly typing forward with some corrections, like a user does.
+                int cursor = local.length();
+                if (i % 10 == 9)
+                    operations.add(local.delete(cursor - 1, cursor));
+                else
+                    operations.add(local.insert(cursor, i % 8 == 0 ? " " : "a"));
+            }
+            long localNanos = System.nanoTime() - start;
+
+            ReplicatedDocument remote = new ReplicatedDocument(2);
+            start = System.nanoTime();
+            remote.applyAll(operations);
+            long remoteNanos = System.nanoTime() - start;
+
+            assertEquals(local.getText(), remote.getText());
+            System.out.println(String.format("typing %d ops: local %.0f ops/s, remote %.0f ops/s", edits,
+                    edits * 1e9 / localNanos, edits * 1e9 / remoteNanos));
+        }
+    }
+
+    @Test
+    public void concurrentEditThroughput() {
+        // Warms up the JIT so the first size is not measured interpreted.
+        concurrentEdits(CONCURRENT_EDIT_COUNTS[0]);
+
+        double[] appliedPerSecond = new double[CONCURRENT_EDIT_COUNTS.length];
+        for (int i = 0; i < CONCURRENT_EDIT_COUNTS.length; i++) {
+            appliedPerSecond[i] = concurrentEdits(CONCURRENT_EDIT_COUNTS[i]);
+            assertTrue(CONCURRENT_EDIT_COUNTS[i] + " edits applied at " + appliedPerSecond[i] + " ops/s",
+                    appliedPerSecond[i] >= MIN_APPLIED_PER_SECOND);
+        }
+        double slowdown = appliedPerSecond[0] / appliedPerSecond[appliedPerSecond.length - 1];
+        assertTrue("Throughput drops " + slowdown + " times", slowdown < MAX_SLOWDOWN);
+    }
+
+    // Edits the replicas concurrently, returns the operations applied per second.
+    private static double concurrentEdits(int edits) {
+        ReplicaNetwork network = new ReplicaNetwork(REPLICAS, edits);
+        long start = System.nanoTime();
+        for (int i = 0; i < edits; i++) {
+            network.editRandomly(8);
+            network.deliverRandomly();
+        }
+        network.deliverAll();
+        long nanos = System.nanoTime() - start;
+
+        for (int i = 1; i < REPLICAS; i++)
+            assertEquals(network.replicas[0].getText(), network.replicas[i].getText());
+        assertTrue(network.getOperationCount() > 0);
+        // Every operation is applied by its replica and delivered to all the others.
+        long applied = (long) network.getOperationCount() * REPLICAS;
+        double appliedPerSecond = applied * 1e9 / nanos;
+        System.out.println(String.format("concurrent %d ops on %d replicas: %.0f ops/s applied",
+                network.getOperationCount(), REPLICAS, appliedPerSecond));
+        return appliedPerSecond;
+    }
+}
@@ -0,0 +1,60 @@
+package com.gworks.richtext.collab;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReplicatedDocumentTest {
+
+    @Test
+    public void concurrentEditsConverge() {
+        for (long seed = 1; seed <= 50; seed++) {
+            ReplicaNetwork network = new ReplicaNetwork(4, seed);
+            for (int step = 0; step < 400; step++) {
+                // Edits go on while the earlier edits are still being delivered.
+                if (step % 3 == 0)
+                    network.deliverRandomly();
+                else
+                    network.editRandomly(6);
+            }
+            network.deliverAll();
+            assertConverged(network.replicas, seed);
+        }
+    }
+
+    @Test
+    public void deliveryOrderOfSendersDoesNotMatter() {
+        for (long seed = 1; seed <= 20; seed++) {
+            ReplicaNetwork network = new ReplicaNetwork(3, seed);
+            for (int step = 0; step < 300; step++)
+                network.editRandomly(4);
+            ReplicatedDocument first = new ReplicatedDocument(10);
+            ReplicatedDocument second = new ReplicatedDocument(11);
+            network.deliverAllTo(first, network.shuffledSenders());
+            network.deliverAllTo(second, network.shuffledSenders());
+            network.deliverAll();
+            assertConverged(new ReplicatedDocument[]{network.replicas[0], first, second}, seed);
+        }
+    }
+
+    @Test
+    public void duplicateDeliveriesAreIgnored() {
+        ReplicaNetwork network = new ReplicaNetwork(3, 7);
+        for (int step = 0; step < 200; step++)
+            network.editRandomly(4);
+        ReplicatedDocument replica = new ReplicatedDocument(10);
+        network.deliverAllTo(replica, network.shuffledSenders());
+        network.deliverAllTo(replica, network.shuffledSenders());
+        network.deliverAll();
+        assertConverged(new ReplicatedDocument[]{network.replicas[0], replica}, 7);
+    }
+
+    private static void assertConverged(ReplicatedDocument[] replicas, long seed) {
+        for (int i = 1; i < replicas.length; i++) {
+            assertEquals("Text of replica " + i + " with seed " + seed,
+                    replicas[0].getText(), replicas[i].getText());
+            assertEquals("Markups of replica " + i + " with seed " + seed,
+                    ReplicaNetwork.describeMarkups(replicas[0]), ReplicaNetwork.describeMarkups(replicas[i]));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.BlockMarkup;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a seeded editing session of typing and deletions around a moving cursor against the
+ * indexes the texter updates on every edit, at growing document sizes. The indexes are checked
+ * against the text, and the test fails if the steps of the indexes per edit grow with the size,
+ * i.e. if an edit became linear in the document. The steps are counted, so the test does not
+ * depend on the timing.
+ */
+public class EditScalingTest {
+
+    private static final int[] SIZES = {1 << 12, 1 << 16, 1 << 20};
+
+    private static final int EDITS = 4000;
+
+    // The indexes are checked against the text every this many edits.
+    private static final int CHECK_INTERVAL = 200;
+
+    // The size grows 256 times, an edit linear in the document would take about 256 times more
+    // steps, the logarithmic searches of the indexes a few more.
+    private static final double MAX_GROWTH = 1.5;
+
+    @Test
+    public void stepsPerEditDoNotGrowWithTheDocument() {
+        double[] stepsPerEdit = new double[SIZES.length];
+        for (int i = 0; i < SIZES.length; i++)
+            stepsPerEdit[i] = run(SIZES[i], 42);
+        double growth = stepsPerEdit[SIZES.length - 1] / stepsPerEdit[0];
+    }
+
+    // Runs the session on a document of the given size and returns the mean steps per edit.
+    private static double run(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(size + EDITS * 8);
+        while (text.length() < size)
+            text.append(randomText(random, 1 + random.nextInt(80))).append('\n');
+        SearchIndex searchIndex = new SearchIndex(text);
+        BlockIndex blockIndex = new BlockIndex(text);
+        List<BlockMarkup> removed = new ArrayList<>();
+
+        long steps = 0;
+        int cursor = random.nextInt(text.length() + 1);
+        for (int edit = 1; edit <= EDITS; edit++) {
+            // Mostly near the last edit, sometimes anywhere.
+            if (random.nextInt(100) == 0)
+                cursor = random.nextInt(text.length() + 1);
+            else
+                cursor = Math.max(0, Math.min(text.length(), cursor + random.nextInt(17) - 8));
+
+            int start;
+            int before;
+            int count;
+            if (random.nextInt(3) > 0) {
+                String typed = random.nextInt(8) == 0 ? "\n" : randomText(random, 1 + random.nextInt(8));
+                text.insert(cursor, typed);
+                start = cursor;
+                before = 0;
+                count = typed.length();
+                cursor += count;
+            } else {
+                start = Math.max(0, cursor - random.nextInt(8));
+                before = Math.min(text.length() - start, 1 + random.nextInt(8));
+                text.delete(start, start + before);
+                count = 0;
+                cursor = start;
+            }
+            long initialSteps = searchIndex.getSteps() + blockIndex.getSteps();
+            searchIndex.onTextChanged(text, start, before, count);
+            blockIndex.replace(text, start, before, count, removed);
+            steps += searchIndex.getSteps() + blockIndex.getSteps() - initialSteps;
+
+            if (edit % CHECK_INTERVAL == 0)
+                check(text, searchIndex, blockIndex, random);
+        }
+        return (double) steps / EDITS;
+    }
+
+    private static void check(StringBuilder text, SearchIndex searchIndex, BlockIndex blockIndex, Random random) {
+        int line = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n')
+                assertEquals("Line " + (line + 1) + " is out of sync", i + 1, blockIndex.getLineStart(++line));
+        }
+        assertEquals("Line count is out of sync", line + 1, blockIndex.getLineCount());
+
+        int queryStart = random.nextInt(text.length() - 4);
+        String query = text.substring(queryStart, queryStart + 4);
+        IntList expected = new IntList();
+        for (int i = text.indexOf(query); i >= 0; i = text.indexOf(query, i + 1)) {
+            expected.add(i);
+            expected.add(i + query.length());
+        }
+        assertTrue("Search for \"" + query + "\" is out of sync",
+                Arrays.equals(expected.toArray(), searchIndex.search(text, query, 0, text.length())));
+    }
+
+    private static String randomText(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.markup.HtmlParser;
+import com.gworks.richtext.markup.MarkupHandler;
+import com.gworks.richtext.markup.Tag;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parses adversarial html at growing sizes with the limits of the importer and fails if the
+ * steps of the parser and the calls of its handler per character grow with the size, i.e. if
+ * some input makes the importer superlinear. The steps are counted, so the test does not
+ * depend on the timing.
+ */
+public class HtmlImporterTest {
+
+    private static final int[] SIZES = {1 << 12, 1 << 16, 1 << 20};
+
+    // The size grows 256 times, a quadratic parser would take about 256 times more steps per
+    // char, a linear one the same up to the cut of the last unit.
+    private static final double MAX_GROWTH = 1.1;
+
+    private static final String[][] CASES = {
+            // Name, unit repeated up to the size.
+            {"deep nesting", "<b><i><u><div><blockquote>"},
+            {"deep closing", "</b></i></u></div>"},
+            {"unmatched closing", "<div><b><i><u></p></blockquote>"},
+            {"ampersands", "&"},
+            {"unterminated entities", "&amp&#x&#1234567890&lt"},
+            {"less thans", "<"},
+            {"unterminated comments", "<!--<!-"},
+            {"unterminated quotes", "<a href=\"x"},
+            {"quote runs", "<a href=\"'\"'"},
+            {"script floods", "<script>x</scrip"},
+            {"script tags", "<script><style>"},
+            {"attribute floods", "<b a=1 b='2' c=\"3\" d "},
+            {"long attribute", "<a href=\"http://example.com/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"},
+            {"markup floods", "<b>x</b><a href=\"/y\">z</a>"},
+    };
+
+    @Test
+    public void linearOnAdversarialHtml() throws IOException {
+        HtmlImporter importer = new HtmlImporter();
+        for (String[] c : CASES) {
+            double[] stepsPerChar = new double[SIZES.length];
+            for (int i = 0; i < SIZES.length; i++) {
+                String html = repeat(c[1], SIZES[i]);
+                CountingHandler handler = new CountingHandler();
+                HtmlParser parser = new HtmlParser(new StringReader(html), handler,
+                        HtmlImporter.DEFAULT_MAX_DEPTH, HtmlImporter.DEFAULT_MAX_ATTRIBUTE_LENGTH);
+                parser.parse();
+                stepsPerChar[i] = (double) (parser.getSteps() + handler.calls) / html.length();
+                assertTrue(c[0] + " grew the text", importer.importHtml(html).length() <= html.length());
+            }
+            double growth = stepsPerChar[SIZES.length - 1] / stepsPerChar[0];
+            assertTrue(c[0] + " steps per char grow " + growth + " times", growth < MAX_GROWTH);
+        }
+    }
+
+    @Test
+    public void importedLinksAreQuotedOnExport() throws IOException {
+        RichFragment fragment = new HtmlImporter().importHtml(
+                "<a href=\"x onclick=alert(1)\">a</a><a href='y\"z'>b</a>");
+        StringBuilder html = new StringBuilder();
+        new DocumentExporter()
+                .add(new HtmlConverter(null), html)
+                .export(fragment.getText(), fragment.getSpanTable());
+        assertEquals("<a href=\"x onclick=alert(1)\">a</a><a href=\"y&quot;z\">b</a>", html.toString());
+    }
+
+    // The unit repeated and cut to the given length.
+    private static String repeat(String unit, int length) {
+        StringBuilder html = new StringBuilder(length + unit.length());
+        while (html.length() < length)
+            html.append(unit);
+        html.setLength(length);
+        return html.toString();
+    }
+
+    private static class CountingHandler implements MarkupHandler {
+
+        long calls;
+
+        @Override
+        public void open(Tag tag, String attributes) {
+            calls++;
+        }
+
+        @Override
+        public void close(Tag tag) {
+            calls++;
+        }
+
+        @Override
+        public void text(char c) {
+            calls++;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.gworks.richtext.util;
+
+import com.gworks.richtext.tags.BlockMarkup;
+import com.gworks.richtext.tags.ListItem;
+import com.gworks.richtext.tags.Markup;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the numbering of the list items against a plain list of the items of the lines while
+ * lines are inserted and removed, and the nesting of the exported lists.
+ */
+public class ListIndexTest {
+
+    @Test
+    public void numberingFollowsEdits() {
+        Random random = new Random(7);
+        // Some chunks of lines.
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            text.append('\n');
+        BlockIndex index = new BlockIndex(text);
+        // Item of each line, null if none.
+        List<ListItem> model = new ArrayList<>();
+        for (int i = 0; i <= 300; i++)
+            model.add(null);
+
+        for (int step = 0; step < 3000; step++) {
+            int lineCount = model.size();
+            int operation = random.nextInt(3);
+            if (operation == 0) {
+                int line = random.nextInt(lineCount);
+                ListItem item = random.nextInt(4) == 0 ? null : newItem(random);
+                index.setBlock(line, item);
+                model.set(line, item);
+            } else if (operation == 1) {
+                // Inserts line breaks at the start of a line.
+                int line = random.nextInt(lineCount);
+                int count = 1 + random.nextInt(3);
+                int start = index.getLineStart(line);
+                for (int i = 0; i < count; i++)
+                    text.insert(start, '\n');
+                index.replace(text, start, 0, count, new ArrayList<BlockMarkup>());
+                // The lines created by the split have no item, the split line keeps its item.
+                for (int i = 0; i < count; i++)
+                    model.add(line + 1, null);
+                ListItem item = model.remove(line);
+                model.add(line + count, item);
+                model.set(line, null);
+                index.setBlock(line + count, item);
+                index.setBlock(line, null);
+            } else if (lineCount > 1) {
+                // Removes the line breaks ending some lines, merging them into the first.
+                int line = random.nextInt(lineCount - 1);
+                int count = 1 + random.nextInt(Math.min(3, lineCount - 1 - line));
+                int start = index.getLineEnd(line);
+                text.delete(start, start + count);
+                index.replace(text, start, count, 0, new ArrayList<BlockMarkup>());
+                for (int i = 0; i < count; i++)
+                    model.remove(line + 1);
+            }
+
+            assertEquals(model.size(), index.getLineCount());
+            ListIndex lists = index.getListIndex();
+            for (int line = 0; line < model.size(); line++) {
+                ListItem item = model.get(line);
+                assertEquals("level of line " + line, item == null ? 0 : item.getLevel(), lists.getLevel(line));
+                assertEquals("number of line " + line, expectedNumber(model, line), lists.getNumber(line));
+                if (item != null)
+                    for (int level = 1; level <= item.getLevel(); level++)
+                        assertEquals("list kind of line " + line, expectedNumberedList(model, line, level),
+                                lists.isNumberedList(line, level));
+            }
+        }
+    }
+
+    @Test
+    public void nestedListsAreInTheirItems() throws IOException {
+        String html = export("a\nb\nc\nd\ne",
+                new ListItem.Bullet1(), new ListItem.Bullet2(), new ListItem.Bullet1(), new ListItem.Numbered3(), null);
+        // The skipped level is of the kind of the item.
+        assertEquals("<ul><li>a\n<ul><li>b</li></ul></li>\n<li>c\n<ol><li><ol><li>d</li></ol></li></ol></li></ul>\ne",
+                html);
+    }
+
+    @Test
+    public void listsOfTheOtherKindAreSeparate() throws IOException {
+        String html = export("a\nb\nc", new ListItem.Numbered1(), new ListItem.Numbered1(), new ListItem.Bullet1());
+        assertEquals("<ol><li>a</li>\n<li>b</li>\n</ol><ul><li>c</li></ul>", html);
+    }
+
+    @Test
+    public void copiesAreNumberedByOffset() {
+        String text = "a\nbb\n\nccc";
+        ListItem[] items = {new ListItem.Numbered1(), new ListItem.Numbered1(), new ListItem.Numbered1()};
+        SpanTable spans = SpanTable.of(items, new int[]{0, 2, 6}, new int[]{1, 4, 9}, items.length);
+        ListItem.Numbering numbering = ListIndex.of(text, spans).getNumbering();
+        assertEquals(1, numbering.getNumber(0));
+        assertEquals(2, numbering.getNumber(3));
+        // The empty line breaks the list.
+        assertEquals(1, numbering.getNumber(7));
+    }
+
+    // Exports the given text with the given item (or none if null) in each line.
+    private static String export(String text, ListItem... items) throws IOException {
+        List<Markup> markups = new ArrayList<>();
+        List<int[]> ranges = new ArrayList<>();
+        int lineStart = 0;
+        for (ListItem item : items) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0)
+                lineEnd = text.length();
+            if (item != null) {
+                markups.add(item);
+                ranges.add(new int[]{lineStart, lineEnd});
+            }
+            lineStart = lineEnd + 1;
+        }
+        int[] starts = new int[markups.size()];
+        int[] ends = new int[markups.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = ranges.get(i)[0];
+            ends[i] = ranges.get(i)[1];
+        }
+        StringBuilder html = new StringBuilder();
+        new DocumentExporter()
+                .add(new HtmlConverter(null), html)
+                .export(text, SpanTable.of(markups.toArray(new Markup[markups.size()]), starts, ends, starts.length));
+        return html.toString();
+    }
+
+    private static ListItem newItem(Random random) {
+        boolean numbered = random.nextBoolean();
+        switch (1 + random.nextInt(3)) {
+            case 1:
+                return numbered ? new ListItem.Numbered1() : new ListItem.Bullet1();
+            case 2:
+                return numbered ? new ListItem.Numbered2() : new ListItem.Bullet2();
+            default:
+                return numbered ? new ListItem.Numbered3() : new ListItem.Bullet3();
+        }
+    }
+
+    // Counts the numbered items of the level back to the start of the list.
+    private static int expectedNumber(List<ListItem> model, int line) {
+        ListItem item = model.get(line);
+        if (item == null || !item.isNumbered())
+            return 0;
+        int number = 1;
+        for (int i = line - 1; i >= 0; i--) {
+            ListItem previous = model.get(i);
+            if (previous == null || previous.getLevel() < item.getLevel())
+                break;
+            if (previous.getLevel() == item.getLevel()) {
+                if (!previous.isNumbered())
+                    break;
+                number++;
+            }
+        }
+        return number;
+    }
+
+    private static boolean expectedNumberedList(List<ListItem> model, int line, int level) {
+        int start = -1;
+        int item = -1;
+        for (int i = 0; i <= line; i++) {
+            ListItem lineItem = model.get(i);
+            int lineLevel = lineItem == null ? 0 : lineItem.getLevel();
+            if (lineLevel < level)
+                start = i;
+            else if (lineLevel == level)
+                item = i;
+        }
+        return model.get(item > start ? item : start + 1).isNumbered();
+    }
+}
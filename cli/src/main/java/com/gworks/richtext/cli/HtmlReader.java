@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.cli;
+
+import com.gworks.richtext.markup.HtmlParser;
+import com.gworks.richtext.markup.MarkupHandler;
+import com.gworks.richtext.markup.Tag;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads html with the {@link HtmlParser} of the library importer, the elements nested deeper
+ * than {@link #MAX_DEPTH} are ignored.
+ */
+class HtmlReader extends MarkupReader implements MarkupHandler {
+
+    static final int MAX_DEPTH = 64;
+    static final int MAX_ATTRIBUTE_LENGTH = 2048;
+
+    private final HtmlParser parser;
+
+    HtmlReader(Reader in) {
+        super(in);
+        parser = new HtmlParser(in, this, MAX_DEPTH, MAX_ATTRIBUTE_LENGTH);
+    }
+
+    @Override
+    protected boolean parse() throws IOException {
+        return parser.parseNext();
+    }
+
+    @Override
+    long getCharsRead() {
+        return parser.getCharsRead();
+    }
+
+    @Override
+    public void text(char c) {
+        appendText(c);
+    }
+
+    @Override
+    public void open(Tag tag, String attributes) {
+        super.open(tag, attributes);
+    }
+
+    @Override
+    public void close(Tag tag) {
+        super.close(tag);
+    }
+}
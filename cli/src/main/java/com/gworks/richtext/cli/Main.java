@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.cli;
+
+import com.gworks.richtext.markup.HtmlWriter;
+import com.gworks.richtext.markup.MarkdownWriter;
+import com.gworks.richtext.markup.MarkupWriter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Converts documents between html, markdown and the span format on the command line. Each
+ * document is streamed from the parser to the writer without building it in memory, and the
+ * documents are converted in parallel.
+ */
+public class Main {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String HTML = "html";
+    private static final String MARKDOWN = "markdown";
+    private static final String SPANS = "spans";
+
+    private static final String USAGE = "Usage: richtext-convert -to html|markdown|spans [-from html|markdown]"
+            + " [-threads count] [-out directory] files...";
+
+    public static void main(String[] args) throws InterruptedException {
+        String from = null;
+        String to = null;
+        File outDirectory = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<File> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-from":
+                        from = format(args[++i], false);
+                        break;
+                    case "-to":
+                        to = format(args[++i], true);
+                        break;
+                    case "-threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-out":
+                        outDirectory = new File(args[++i]);
+                        break;
+                    default:
+                        inputs.add(new File(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            usage(e.getMessage());
+        }
+        if (to == null || inputs.isEmpty() || threads < 1)
+            usage(null);
+        if (outDirectory != null && !outDirectory.isDirectory() && !outDirectory.mkdirs())
+            usage("Can not create " + outDirectory);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> results = new ArrayList<>(inputs.size());
+        long startTime = System.nanoTime();
+        HashSet<File> outputBases = new HashSet<>();
+        for (File input : inputs) {
+            File directory = outDirectory != null ? outDirectory : input.getAbsoluteFile().getParentFile();
+            File output = outputBase(directory, input.getName(), outputBases);
+            results.add(executor.submit(new Conversion(input, from, to, output)));
+        }
+        executor.shutdown();
+
+        long chars = 0;
+        int failed = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            try {
+                chars += results.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println(inputs.get(i) + ": " + e.getCause());
+            }
+        }
+        double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+        int converted = inputs.size() - failed;
+        System.out.println(String.format(Locale.US,
+                "Converted %d files (%d failed), %.1f M chars in %.2f s on %d threads: %.1f files/s, %.1f M chars/s",
+                converted, failed, chars / 1e6, seconds, threads, converted / seconds, chars / 1e6 / seconds));
+        if (failed > 0)
+            System.exit(1);
+    }
+
+    private static String format(String name, boolean output) {
+        if (name.equals(HTML) || name.equals(MARKDOWN) || (output && name.equals(SPANS)))
+            return name;
+        throw new IllegalArgumentException("Unknown format " + name);
+    }
+
+    /**
+     * Returns the file the outputs of the given input are named after by adding their
+     * extension, the name of the input unless already used by another input.
+     */
+    private static File outputBase(File directory, String name, HashSet<File> used) {
+        File base = new File(directory, name).getAbsoluteFile();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int i = 2; !used.add(base); i++)
+            base = new File(directory, stem + "-" + i + extension).getAbsoluteFile();
+        return base;
+    }
+
+    private static void usage(String error) {
+        if (error != null)
+            System.err.println(error);
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    /**
+     * Streams the events of the given reader to the given writer.
+     */
+    static void convert(MarkupReader reader, MarkupWriter writer) throws IOException {
+        while (true) {
+            switch (reader.next()) {
+                case MarkupReader.TEXT:
+                    writer.text(reader.getText());
+                    break;
+                case MarkupReader.OPEN:
+                    writer.open(reader.getTag(), reader.getAttributes());
+                    break;
+                case MarkupReader.CLOSE:
+                    writer.close(reader.getTag());
+                    break;
+                default:
+                    writer.finish();
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Converts a file, returns the number of characters read.
+     */
+    private static class Conversion implements Callable<Long> {
+
+        private final File input;
+        private final String from;
+        private final String to;
+        // The outputs are named after it, keeping the extension of the input so that the
+        // inputs differing only by their extension do not overwrite each other's outputs.
+        private final File outputBase;
+
+        Conversion(File input, String from, String to, File outputBase) {
+            this.input = input;
+            this.from = from;
+            this.to = to;
+            this.outputBase = outputBase;
+        }
+
+        @Override
+        public Long call() throws IOException {
+            String name = input.getName();
+            int dot = name.lastIndexOf('.');
+            String extension = dot > 0 ? name.substring(dot + 1).toLowerCase(Locale.US) : "";
+            String inputFormat = from;
+            if (inputFormat == null)
+                inputFormat = extension.equals("md") || extension.equals("markdown") ? MARKDOWN : HTML;
+
+            List<Writer> outputs = new ArrayList<>();
+            Reader in = new InputStreamReader(new FileInputStream(input), UTF_8);
+            try {
+                MarkupReader reader = inputFormat.equals(MARKDOWN) ? new MarkdownReader(in) : new HtmlReader(in);
+                MarkupWriter writer;
+                switch (to) {
+                    case HTML:
+                        writer = new HtmlWriter(open(output(".html"), outputs));
+                        break;
+                    case MARKDOWN:
+                        writer = new MarkdownWriter(open(output(".md"), outputs));
+                        break;
+                    default:
+                        writer = new SpanWriter(open(output(".txt"), outputs),
+                                open(output(".spans"), outputs));
+                }
+                convert(reader, writer);
+                return reader.getCharsRead();
+            } finally {
+                in.close();
+                for (Writer output : outputs)
+                    output.close();
+            }
+        }
+
+        private File output(String extension) {
+            return new File(outputBase.getPath() + extension);
+        }
+
+        private Writer open(File output, List<Writer> outputs) throws IOException {
+            if (output.getCanonicalFile().equals(input.getCanonicalFile()))
+                throw new IOException("The output would overwrite the input");
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), UTF_8));
+            outputs.add(writer);
+            return writer;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.cli;
+
+import com.gworks.richtext.markup.Tag;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser of the markdown written by the library: <code>**bold**</code>,
+ * <code>_italic_</code>, <code>[text](url)</code>, headings and block quotes. The input is
+ * parsed a character at a time, so an opening delimiter not closed in its line applies up to
+ * the end of the line instead of being taken literally, and only the link text and url (up to
+ * {@link #MAX_LINK} characters) are buffered.
+ */
+class MarkdownReader extends MarkupReader {
+
+    static final int MAX_LINK = 2048;
+
+    private static final String ESCAPABLE = "\\*_[]()#><`";
+
+    private boolean lineStart = true;
+
+    // Block markup of the current line.
+    private Tag block;
+
+    // Inline markups open in the current line, the innermost last.
+    private final ArrayDeque<Tag> inlines = new ArrayDeque<>();
+
+    private int previous = -1;
+
+    private final StringBuilder linkText = new StringBuilder();
+    private final StringBuilder linkUrl = new StringBuilder();
+
+    MarkdownReader(Reader in) {
+        super(in);
+    }
+
+    @Override
+    protected boolean parse() throws IOException {
+        int c = read();
+        if (c < 0) {
+            endLine();
+            return false;
+        }
+        if (lineStart) {
+            lineStart = false;
+            if (c == '#') {
+                parseHeading();
+                return true;
+            }
+            if (c == '>' && peek() == ' ') {
+                read();
+                block = Tag.BLOCKQUOTE;
+                open(block, null);
+                previous = ' ';
+                return true;
+            }
+        }
+        switch (c) {
+            case '\r':
+                break;
+            case '\n':
+                endLine();
+                appendText('\n');
+                lineStart = true;
+                break;
+            case '\\':
+                if (peek() >= 0 && ESCAPABLE.indexOf(peek()) >= 0)
+                    appendText(read());
+                else
+                    appendText('\\');
+                break;
+            case '*':
+                if (peek() == '*') {
+                    read();
+                    toggle(Tag.BOLD);
+                } else {
+                    appendText('*');
+                }
+                break;
+            case '_':
+                // Not inside a word, like the underscores of snake_case_names.
+                if (inlines.contains(Tag.ITALIC) ? !Character.isLetterOrDigit(peek()) : !Character.isLetterOrDigit(previous))
+                    toggle(Tag.ITALIC);
+                else
+                    appendText('_');
+                break;
+            case '[':
+                parseLink();
+                break;
+            default:
+                appendText(c);
+        }
+        previous = c;
+        return true;
+    }
+
+    // Parses the heading after the first #.
+    private void parseHeading() throws IOException {
+        int level = 1;
+        while (peek() == '#' && level <= 4) {
+            read();
+            level++;
+        }
+        if (level <= 4 && peek() == ' ') {
+            read();
+            block = Tag.heading(level);
+            open(block, null);
+            previous = ' ';
+        } else {
+            for (int i = 0; i < level; i++)
+                appendText('#');
+            previous = '#';
+        }
+    }
+
+    // Parses the link after the [, taking the text literally if it is not a link.
+    private void parseLink() throws IOException {
+        linkText.setLength(0);
+        int c;
+        while ((c = peek()) >= 0 && c != ']' && c != '\n' && linkText.length() < MAX_LINK) {
+            read();
+            linkText.append((char) c);
+        }
+        if (c != ']') {
+            appendText('[');
+            appendText(linkText);
+            return;
+        }
+        read();
+        if (peek() != '(') {
+            appendText('[');
+            appendText(linkText);
+            appendText(']');
+            return;
+        }
+        read();
+        linkUrl.setLength(0);
+        while ((c = peek()) >= 0 && c != ')' && !Character.isWhitespace(c) && linkUrl.length() < MAX_LINK) {
+            read();
+            linkUrl.append((char) c);
+        }
+        if (c != ')' || linkUrl.length() == 0) {
+            appendText('[');
+            appendText(linkText);
+            appendText("](");
+            appendText(linkUrl);
+            return;
+        }
+        read();
+        open(Tag.LINK, linkUrl.toString());
+        appendText(linkText);
+        close(Tag.LINK);
+    }
+
+    // Opens the given inline markup or closes it if open, the markups inside it are reopened.
+    private void toggle(Tag tag) {
+        if (!inlines.contains(tag)) {
+            inlines.addLast(tag);
+            open(tag, null);
+            return;
+        }
+        List<Tag> inner = new ArrayList<>();
+        Tag last;
+        while ((last = inlines.pollLast()) != tag) {
+            close(last);
+            inner.add(0, last);
+        }
+        close(tag);
+        for (Tag innerTag : inner) {
+            inlines.addLast(innerTag);
+            open(innerTag, null);
+        }
+    }
+
+    // Closes the markups of the line.
+    private void endLine() {
+        Tag tag;
+        while ((tag = inlines.pollLast()) != null)
+            close(tag);
+        if (block != null) {
+            close(block);
+            block = null;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.cli;
+
+import com.gworks.richtext.markup.Tag;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+
+/**
+ * Pull parser of a markup format. The input is read through a fixed buffer and the text is
+ * returned in chunks of at most {@link #TEXT_CHUNK} characters, so the memory used does not
+ * depend on the size of the document. The markups returned are always properly nested, and
+ * the markups without text are dropped.
+ */
+abstract class MarkupReader {
+
+    static final int END = 0;
+    static final int TEXT = 1;
+    static final int OPEN = 2;
+    static final int CLOSE = 3;
+
+    static final int TEXT_CHUNK = 8192;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private long charsRead;
+
+    // Events parsed but not returned yet, at most a few for each parsed construct.
+    private final ArrayDeque<Event> events = new ArrayDeque<>();
+    private final StringBuilder text = new StringBuilder();
+    // Markups opened without text after them yet, the innermost last.
+    private final ArrayDeque<Event> pendingOpens = new ArrayDeque<>();
+    private int lastFlushedChar = -1;
+    private Event current;
+    private boolean ended;
+
+    MarkupReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Parses the next event, returns one of {@link #END}, {@link #TEXT}, {@link #OPEN} and
+     * {@link #CLOSE}.
+     */
+    int next() throws IOException {
+        while (events.isEmpty()) {
+            if (ended) {
+                events.add(new Event(END, null, null, null));
+            } else if (!parse()) {
+                flushText();
+                ended = true;
+            }
+        }
+        current = events.poll();
+        return current.type;
+    }
+
+    /**
+     * Returns the tag of the current open or close event.
+     */
+    Tag getTag() {
+        return current.tag;
+    }
+
+    /**
+     * Returns the attributes of the current open event, null if none.
+     */
+    String getAttributes() {
+        return current.attributes;
+    }
+
+    /**
+     * Returns the text of the current text event.
+     */
+    String getText() {
+        return current.text;
+    }
+
+    /**
+     * Returns the number of characters read so far.
+     */
+    long getCharsRead() {
+        return charsRead;
+    }
+
+    /**
+     * Parses the next construct of the input, returns false at the end of the input after
+     * closing the open markups.
+     */
+    protected abstract boolean parse() throws IOException;
+
+    protected int read() throws IOException {
+        if (position == limit && !fill())
+            return -1;
+        charsRead++;
+        return buffer[position++];
+    }
+
+    protected int peek() throws IOException {
+        if (position == limit && !fill())
+            return -1;
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int count = in.read(buffer, 0, buffer.length);
+        if (count <= 0)
+            return false;
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    protected void appendText(int c) {
+        if (!pendingOpens.isEmpty()) {
+            events.addAll(pendingOpens);
+            pendingOpens.clear();
+        }
+        text.appendCodePoint(c);
+        if (text.length() >= TEXT_CHUNK)
+            flushText();
+    }
+
+    protected void appendText(CharSequence s) {
+        for (int i = 0; i < s.length(); i++)
+            appendText(s.charAt(i));
+    }
+
+    /**
+     * Returns the last character of the text, -1 if none.
+     */
+    protected int lastChar() {
+        return text.length() > 0 ? text.charAt(text.length() - 1) : lastFlushedChar;
+    }
+
+    protected void open(Tag tag, String attributes) {
+        flushText();
+        pendingOpens.addLast(new Event(OPEN, tag, attributes, null));
+    }
+
+    protected void close(Tag tag) {
+        // The markups are nested, a markup without text is the last pending one.
+        if (!pendingOpens.isEmpty()) {
+            pendingOpens.removeLast();
+            return;
+        }
+        flushText();
+        events.add(new Event(CLOSE, tag, null, null));
+    }
+
+    private void flushText() {
+        if (text.length() > 0) {
+            lastFlushedChar = text.charAt(text.length() - 1);
+            events.add(new Event(TEXT, null, null, text.toString()));
+            text.setLength(0);
+        }
+    }
+
+    private static class Event {
+        final int type;
+        final Tag tag;
+        final String attributes;
+        final String text;
+
+        Event(int type, Tag tag, String attributes, String text) {
+            this.type = type;
+            this.tag = tag;
+            this.attributes = attributes;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.cli;
+
+import com.gworks.richtext.markup.MarkupWriter;
+import com.gworks.richtext.markup.Tag;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+
+/**
+ * Writes the span format: the plain text, and a line for each markup with its html tag, start,
+ * end and attributes separated by tabs. The offsets are in UTF-16 chars like the span offsets
+ * on Android. The markups are written as they end, so inner markups come before outer ones.
+ */
+class SpanWriter implements MarkupWriter {
+
+    private final Writer textOut;
+    private final Writer spansOut;
+
+    private final ArrayDeque<Integer> starts = new ArrayDeque<>();
+    private final ArrayDeque<String> attributes = new ArrayDeque<>();
+    private int offset;
+
+    SpanWriter(Writer textOut, Writer spansOut) {
+        this.textOut = textOut;
+        this.spansOut = spansOut;
+    }
+
+    @Override
+    public void open(Tag tag, String attributes) throws IOException {
+        starts.push(offset);
+        this.attributes.push(attributes == null ? "" : attributes);
+    }
+
+    @Override
+    public void close(Tag tag) throws IOException {
+        String tagAttributes = attributes.pop();
+        spansOut.write(tag.html + '\t' + starts.pop() + '\t' + offset);
+        if (!tagAttributes.isEmpty())
+            spansOut.write('\t' + tagAttributes);
+        spansOut.write('\n');
+    }
+
+    @Override
+    public void text(String text) throws IOException {
+        textOut.write(text);
+        offset += text.length();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        textOut.flush();
+        spansOut.flush();
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.compiler;
+
+import com.gworks.richtext.annotation.MarkupTag;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the <code>MarkupRegistry</code> of the markups annotated with {@link MarkupTag}:
+ * a dense int id for each markup type, a switch creating the markups and switch based writers
+ * for html and markdown, so the annotated markups are created and converted without the
+ * converter overloads and without reflection.
+ * <p>
+ * The registry is generated in the package given by the <code>richtext.registryPackage</code>
+ * option, by default the package of the built in markups.
+ */
+@SupportedAnnotationTypes("com.gworks.richtext.annotation.MarkupTag")
+@SupportedOptions(MarkupTagProcessor.OPTION_PACKAGE)
+public class MarkupTagProcessor extends AbstractProcessor {
+
+    static final String OPTION_PACKAGE = "richtext.registryPackage";
+
+    private static final String DEFAULT_PACKAGE = "com.gworks.richtext.tags";
+    private static final String MARKUP = "com.gworks.richtext.tags.Markup";
+    private static final String ATTRIBUTED_MARKUP = "com.gworks.richtext.tags.AttributedMarkup";
+    private static final String REGISTRY = "MarkupRegistry";
+
+    private final List<TypeElement> markups = new ArrayList<>();
+
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(MarkupTag.class))
+            if (validate(element))
+                markups.add((TypeElement) element);
+
+        // Generated in the first round so that the sources using the registry compile.
+        if (!generated && !markups.isEmpty()) {
+            generated = true;
+            Collections.sort(markups, new Comparator<TypeElement>() {
+                @Override
+                public int compare(TypeElement t1, TypeElement t2) {
+                    return t1.getQualifiedName().toString().compareTo(t2.getQualifiedName().toString());
+                }
+            });
+            try {
+                writeRegistry();
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Could not write " + REGISTRY + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private boolean validate(Element element) {
+        if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(element, "@MarkupTag is allowed only on concrete markup classes");
+            return false;
+        }
+        if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+            error(element, "Markups with @MarkupTag must be public");
+            return false;
+        }
+        if (!isSubtype(element, MARKUP)) {
+            error(element, "@MarkupTag is allowed only on subclasses of " + MARKUP);
+            return false;
+        }
+        MarkupTag tag = element.getAnnotation(MarkupTag.class);
+        boolean usesAttributes = !tag.htmlAttribute().isEmpty()
+                || tag.markdownOpen().contains("%s") || tag.markdownClose().contains("%s");
+        if (usesAttributes && !isSubtype(element, ATTRIBUTED_MARKUP)) {
+            error(element, "Only attributed markups can write their attributes");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isSubtype(Element element, String type) {
+        TypeElement typeElement = processingEnv.getElementUtils().getTypeElement(type);
+        if (typeElement == null)
+            return false;
+        TypeMirror erasure = processingEnv.getTypeUtils().erasure(typeElement.asType());
+        return processingEnv.getTypeUtils().isAssignable(element.asType(), erasure);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void writeRegistry() throws IOException {
+        String packageName = processingEnv.getOptions().get(OPTION_PACKAGE);
+        if (packageName == null)
+            packageName = DEFAULT_PACKAGE;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(packageName + "." + REGISTRY,
+                markups.toArray(new Element[markups.size()]));
+        Writer writer = file.openWriter();
+        try {
+            writer.write(generateRegistry(packageName));
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String generateRegistry(String packageName) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("import ").append(MARKUP).append(";\n");
+        sb.append("import ").append(ATTRIBUTED_MARKUP).append(";\n\n");
+        sb.append("import java.util.HashMap;\n");
+        sb.append("import java.util.IdentityHashMap;\n\n");
+        sb.append("/**\n * Generated from the @MarkupTag annotations, do not edit.\n */\n");
+        sb.append("public final class ").append(REGISTRY).append(" {\n\n");
+        sb.append("    public static final int UNKNOWN = -1;\n");
+        for (int id = 0; id < markups.size(); id++)
+            sb.append("    public static final int ").append(constantName(markups.get(id))).append(" = ").append(id).append(";\n");
+        sb.append("\n    private static final int SIZE = ").append(markups.size()).append(";\n\n");
+
+        sb.append("    private static final IdentityHashMap<Class<?>, Integer> IDS = new IdentityHashMap<>(SIZE);\n");
+        sb.append("    private static final HashMap<String, Class<? extends Markup>> TYPES = new HashMap<>(SIZE);\n\n");
+        sb.append("    static {\n");
+        for (TypeElement markup : markups)
+            sb.append("        IDS.put(").append(markup.getQualifiedName()).append(".class, ").append(constantName(markup)).append(");\n");
+        for (TypeElement markup : markups)
+            sb.append("        TYPES.put(\"").append(processingEnv.getElementUtils().getBinaryName(markup))
+                    .append("\", ").append(markup.getQualifiedName()).append(".class);\n");
+        sb.append("    }\n\n");
+
+        sb.append("    private ").append(REGISTRY).append("() {\n    }\n\n");
+
+        sb.append("    /**\n     * Returns the number of registered markup types.\n     */\n");
+        sb.append("    public static int size() {\n        return SIZE;\n    }\n\n");
+
+        sb.append("    /**\n     * Returns the id of the given markup type or UNKNOWN if not registered.\n     */\n");
+        sb.append("    public static int idOf(Class<?> markupType) {\n");
+        sb.append("        Integer id = IDS.get(markupType);\n");
+        sb.append("        return id == null ? UNKNOWN : id;\n    }\n\n");
+
+        sb.append("    /**\n     * Returns the registered markup type of the given class name, or null if not registered.\n");
+        sb.append("     */\n");
+        sb.append("    public static Class<? extends Markup> typeOf(String name) {\n");
+        sb.append("        return TYPES.get(name);\n    }\n\n");
+
+        sb.append("    /**\n     * Creates a markup of the type with the given id. Attributed markups are created with the\n");
+        sb.append("     * given attributes if their constructor takes them. Returns null if the markup could not be\n");
+        sb.append("     * created.\n     */\n");
+        sb.append("    public static Markup create(int id, Object attributes) {\n        switch (id) {\n");
+        for (TypeElement markup : markups) {
+            sb.append("            case ").append(constantName(markup)).append(":\n");
+            boolean created = false;
+            for (ExecutableElement constructor : ElementFilter.constructorsIn(markup.getEnclosedElements())) {
+                if (!constructor.getModifiers().contains(Modifier.PUBLIC)
+                        || constructor.getParameters().size() != 1)
+                    continue;
+                TypeMirror parameter = constructor.getParameters().get(0).asType();
+                if (parameter.getKind() != TypeKind.DECLARED)
+                    continue;
+                String type = processingEnv.getTypeUtils().erasure(parameter).toString();
+                sb.append("                if (attributes instanceof ").append(type).append(")\n");
+                sb.append("                    return new ").append(markup.getQualifiedName())
+                        .append("((").append(type).append(") attributes);\n");
+                break;
+            }
+            for (ExecutableElement constructor : ElementFilter.constructorsIn(markup.getEnclosedElements())) {
+                if (constructor.getModifiers().contains(Modifier.PUBLIC) && constructor.getParameters().isEmpty()) {
+                    sb.append("                return new ").append(markup.getQualifiedName()).append("();\n");
+                    created = true;
+                    break;
+                }
+            }
+            if (!created)
+                sb.append("                return null;\n");
+        }
+        sb.append("            default:\n                return null;\n        }\n    }\n\n");
+
+        sb.append("    /**\n     * Returns the html tag of the markup type with the given id.\n     */\n");
+        sb.append("    public static String getHtmlTag(int id) {\n        switch (id) {\n");
+        for (TypeElement markup : markups) {
+            sb.append("            case ").append(constantName(markup)).append(":\n");
+            sb.append("                return ").append(literal(markup.getAnnotation(MarkupTag.class).html())).append(";\n");
+        }
+        sb.append("            default:\n                return null;\n        }\n    }\n\n");
+
+        sb.append("    /**\n     * Writes the html tag of the given markup, returns false if the markup is not registered.\n     */\n");
+        sb.append("    public static boolean writeHtml(StringBuilder sb, Markup markup, boolean begin) {\n");
+        sb.append("        switch (idOf(markup.getClass())) {\n");
+        for (TypeElement markup : markups) {
+            MarkupTag tag = markup.getAnnotation(MarkupTag.class);
+            sb.append("            case ").append(constantName(markup)).append(":\n");
+            if (tag.htmlAttribute().isEmpty()) {
+                sb.append("                sb.append(begin ? ").append(literal("<" + tag.html() + ">"))
+                        .append(" : ").append(literal("</" + tag.html() + ">")).append(");\n");
+            } else {
+                // The attribute is quoted and escaped, it may come from imported html.
+                sb.append("                if (begin) {\n");
+                sb.append("                    sb.append(").append(literal("<" + tag.html() + " " + tag.htmlAttribute() + "=\""))
+                        .append(");\n");
+                sb.append("                    escapeHtml(String.valueOf(((AttributedMarkup) markup).getAttributes()), sb);\n");
+                sb.append("                    sb.append(").append(literal("\">")).append(");\n");
+                sb.append("                } else {\n");
+                sb.append("                    sb.append(").append(literal("</" + tag.html() + ">")).append(");\n");
+                sb.append("                }\n");
+            }
+            sb.append("                return true;\n");
+        }
+        sb.append("            default:\n                return false;\n        }\n    }\n\n");
+
+        sb.append("    /**\n     * Writes the markdown of the given markup, returns false if the markup is not registered.\n     */\n");
+        sb.append("    public static boolean writeMarkdown(StringBuilder sb, Markup markup, boolean begin) {\n");
+        sb.append("        switch (idOf(markup.getClass())) {\n");
+        for (TypeElement markup : markups) {
+            MarkupTag tag = markup.getAnnotation(MarkupTag.class);
+            sb.append("            case ").append(constantName(markup)).append(":\n");
+            String open = tag.markdownOpen();
+            String close = tag.markdownClose();
+            if (!open.isEmpty() && !close.isEmpty()) {
+                sb.append("                if (begin)\n");
+                sb.append("                    ").append(markdownAppend(open)).append("\n");
+                sb.append("                else\n");
+                sb.append("                    ").append(markdownAppend(close)).append("\n");
+            } else if (!open.isEmpty()) {
+                sb.append("                if (begin)\n");
+                sb.append("                    ").append(markdownAppend(open)).append("\n");
+            } else if (!close.isEmpty()) {
+                sb.append("                if (!begin)\n");
+                sb.append("                    ").append(markdownAppend(close)).append("\n");
+            }
+            sb.append("                return true;\n");
+        }
+        sb.append("            default:\n                return false;\n        }\n    }\n\n");
+
+        sb.append("    // Appends the value with the html special characters escaped.\n");
+        sb.append("    private static void escapeHtml(String value, StringBuilder sb) {\n");
+        sb.append("        for (int i = 0; i < value.length(); i++) {\n");
+        sb.append("            char c = value.charAt(i);\n");
+        sb.append("            switch (c) {\n");
+        sb.append("                case '&':\n                    sb.append(\"&amp;\");\n                    break;\n");
+        sb.append("                case '<':\n                    sb.append(\"&lt;\");\n                    break;\n");
+        sb.append("                case '>':\n                    sb.append(\"&gt;\");\n                    break;\n");
+        sb.append("                case '\"':\n                    sb.append(\"&quot;\");\n                    break;\n");
+        sb.append("                default:\n                    sb.append(c);\n");
+        sb.append("            }\n        }\n    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // The statement appending the given markdown, with %s replaced by the attributes.
+    private static String markdownAppend(String markdown) {
+        StringBuilder statement = new StringBuilder("sb");
+        int from = 0;
+        int index;
+        while ((index = markdown.indexOf("%s", from)) >= 0) {
+            if (index > from)
+                statement.append(".append(").append(literal(markdown.substring(from, index))).append(")");
+            statement.append(".append(((AttributedMarkup) markup).getAttributes())");
+            from = index + 2;
+        }
+        if (from < markdown.length())
+            statement.append(".append(").append(literal(markdown.substring(from))).append(")");
+        return statement.append(";").toString();
+    }
+
+    // Constant name of the markup like HEADING_H1 for Heading.H1.
+    private static String constantName(TypeElement markup) {
+        StringBuilder name = new StringBuilder();
+        Element element = markup;
+        List<String> names = new ArrayList<>();
+        while (element.getKind() == ElementKind.CLASS) {
+            names.add(0, element.getSimpleName().toString());
+            element = element.getEnclosingElement();
+        }
+        for (String simpleName : names) {
+            if (name.length() > 0)
+                name.append('_');
+            for (int i = 0; i < simpleName.length(); i++) {
+                char c = simpleName.charAt(i);
+                if (i > 0 && Character.isUpperCase(c) && Character.isLowerCase(simpleName.charAt(i - 1)))
+                    name.append('_');
+                name.append(Character.toUpperCase(c));
+            }
+        }
+        return name.toString();
+    }
+
+    private static String literal(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.markup;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashSet;
+import java.util.Locale;
+
+/**
+ * Streaming parser of untrusted html, shared by the importer of the library and the command
+ * line converter. Only the tags of the built in markups and the href of the links with a safe
+ * scheme are kept, the other tags are dropped keeping their text, and the content of scripts
+ * and styles is dropped. As a line has a single block markup only the outermost block element
+ * gets its markup.
+ * <p>
+ * The html is read in a single pass which never goes back, and the elements nested deeper than
+ * the maximum depth are ignored, so the parsing takes linear time in the length of the html
+ * whatever its content.
+ */
+public class HtmlParser {
+
+    // Longer tag names are not in the whitelist.
+    private static final int MAX_TAG_NAME = 10;
+
+    // Longer entities are not decoded.
+    private static final int MAX_ENTITY = 10;
+
+    // Blocks without markups, their text is put in its own line.
+    private static final HashSet<String> BLOCKS = new HashSet<>();
+
+    // Tags whose content is dropped.
+    private static final HashSet<String> DROPPED = new HashSet<>();
+
+    static {
+        for (String block : new String[]{"div", "li", "h5", "h6", "pre"})
+            BLOCKS.add(block);
+        for (String dropped : new String[]{"script", "style", "title", "template"})
+            DROPPED.add(dropped);
+    }
+
+    private final Reader in;
+    private final MarkupHandler handler;
+    private final int maxDepth;
+    private final int maxAttributeLength;
+
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private long charsRead;
+    // Open elements searched for the closing tags.
+    private long elementsSearched;
+
+    // The open elements, the tag is null for the elements without markup.
+    private final String[] names;
+    private final Tag[] tags;
+    private final boolean[] blocks;
+    private int depth;
+
+    // Open block elements having markups.
+    private int blockMarkups;
+
+    // Whether a block ended and the text after it starts a new line.
+    private boolean lineEnded;
+
+    // Last character of the text, -1 if none.
+    private int lastChar = -1;
+
+    // Set by parseAttributes.
+    private boolean selfClosing;
+
+    private final StringBuilder name = new StringBuilder();
+    private final StringBuilder value = new StringBuilder();
+
+    /**
+     * @param maxDepth maximum nesting depth of the elements, the tags of the deeper elements
+     *                 are ignored
+     * @param maxAttributeLength maximum length of the attributes, the longer attributes are
+     *                           dropped
+     */
+    public HtmlParser(Reader in, MarkupHandler handler, int maxDepth, int maxAttributeLength) {
+        if (maxDepth < 1 || maxAttributeLength < 0)
+            throw new IllegalArgumentException("Invalid limits " + maxDepth + ", " + maxAttributeLength);
+        this.in = in;
+        this.handler = handler;
+        this.maxDepth = maxDepth;
+        this.maxAttributeLength = maxAttributeLength;
+        names = new String[maxDepth];
+        tags = new Tag[maxDepth];
+        blocks = new boolean[maxDepth];
+    }
+
+    /**
+     * Parses all the html.
+     */
+    public void parse() throws IOException {
+        while (parseNext()) {
+            // Parses the next construct.
+        }
+    }
+
+    /**
+     * Parses the next tag, entity or character, returns false at the end of the html after
+     * closing the open markups.
+     */
+    public boolean parseNext() throws IOException {
+        int c = read();
+        if (c < 0) {
+            while (depth > 0)
+                endElement();
+            return false;
+        }
+        if (c == '<')
+            parseTag();
+        else if (c == '&')
+            appendChars(parseEntity(peekEntity()));
+        else
+            appendChar(c);
+        return true;
+    }
+
+    /**
+     * Returns the number of characters of html read so far.
+     */
+    public long getCharsRead() {
+        return charsRead;
+    }
+
+    /**
+     * Returns the number of steps of the parsing so far: the characters read and the open
+     * elements searched for the closing tags. A deterministic measure of the work, which grows
+     * linearly with the length of the html.
+     */
+    public long getSteps() {
+        return charsRead + elementsSearched;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill())
+            return -1;
+        charsRead++;
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill())
+            return -1;
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int count = in.read(buffer, 0, buffer.length);
+        if (count <= 0)
+            return false;
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    private void parseTag() throws IOException {
+        int c = peek();
+        if (c == '!') {
+            read();
+            skipDeclaration();
+            return;
+        }
+        if (c == '?') {
+            skipTo('>');
+            return;
+        }
+        boolean closing = c == '/';
+        if (closing)
+            read();
+        name.setLength(0);
+        while (Character.isLetterOrDigit(c = peek())) {
+            read();
+            if (name.length() <= MAX_TAG_NAME)
+                name.append(Character.toLowerCase((char) c));
+        }
+        if (name.length() == 0) {
+            // Not a tag.
+            appendChar('<');
+            if (closing)
+                appendChar('/');
+            return;
+        }
+        String tagName = name.length() <= MAX_TAG_NAME ? name.toString() : null;
+        Tag tag = tagName != null ? Tag.forHtml(tagName) : null;
+        String url = parseAttributes(tag == Tag.LINK && !closing);
+        if (tagName == null)
+            return;
+
+        if (tagName.equals("br")) {
+            appendNewLine();
+        } else if (DROPPED.contains(tagName)) {
+            if (!closing && !selfClosing)
+                skipContent(tagName);
+        } else if (tag != null || BLOCKS.contains(tagName)) {
+            if (closing)
+                closeElement(tagName);
+            else
+                openElement(tagName, tag, url);
+        }
+    }
+
+    private void openElement(String tagName, Tag tag, String url) {
+        boolean block = tag == null || tag.block;
+        if (block || lineEnded)
+            startLine();
+        // The deeper elements are ignored.
+        if (selfClosing || depth == maxDepth)
+            return;
+        if ((tag == Tag.LINK && url == null) || (tag != null && tag.block && blockMarkups > 0))
+            tag = null;
+        names[depth] = tagName;
+        tags[depth] = tag;
+        blocks[depth] = block;
+        depth++;
+        if (tag == null)
+            return;
+        if (tag.block)
+            blockMarkups++;
+        handler.open(tag, url);
+    }
+
+    private void closeElement(String tagName) {
+        // The nearest open element of the tag, the elements inside it are closed too.
+        int index = depth - 1;
+        while (index >= 0 && !names[index].equals(tagName)) {
+            elementsSearched++;
+            index--;
+        }
+        while (index >= 0 && depth > index)
+            endElement();
+    }
+
+    private void endElement() {
+        depth--;
+        Tag tag = tags[depth];
+        if (tag != null) {
+            if (tag.block)
+                blockMarkups--;
+            handler.close(tag);
+        }
+        if (blocks[depth])
+            lineEnded = true;
+        names[depth] = null;
+        tags[depth] = null;
+    }
+
+    // Parses the attributes up to the end of the tag, returns the href if asked for.
+    private String parseAttributes(boolean href) throws IOException {
+        String url = null;
+        selfClosing = false;
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '>')
+                break;
+            if (c == '/' && peek() == '>') {
+                read();
+                selfClosing = true;
+                break;
+            }
+            if (Character.isWhitespace(c) || c == '/' || c == '=')
+                continue;
+
+            name.setLength(0);
+            name.append((char) c);
+            while ((c = peek()) >= 0 && !isAttributeNameEnd(c)) {
+                read();
+                if (name.length() <= MAX_TAG_NAME)
+                    name.append((char) c);
+            }
+            skipWhitespace();
+            if (peek() != '=')
+                continue;
+            read();
+            skipWhitespace();
+
+            value.setLength(0);
+            boolean tooLong = false;
+            int quote = peek();
+            if (quote == '"' || quote == '\'') {
+                read();
+                while ((c = read()) >= 0 && c != quote) {
+                    if (value.length() < maxAttributeLength)
+                        value.append((char) c);
+                    else
+                        tooLong = true;
+                }
+            } else {
+                while ((c = peek()) >= 0 && !Character.isWhitespace(c) && c != '>') {
+                    read();
+                    if (value.length() < maxAttributeLength)
+                        value.append((char) c);
+                    else
+                        tooLong = true;
+                }
+            }
+            if (href && url == null && !tooLong && name.toString().equalsIgnoreCase("href")) {
+                String decoded = decodeEntities(value).trim();
+                if (!decoded.isEmpty() && isSafeUrl(decoded))
+                    url = decoded;
+            }
+        }
+        return url;
+    }
+
+    private static boolean isAttributeNameEnd(int c) {
+        return Character.isWhitespace(c) || c == '=' || c == '>' || c == '/';
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (Character.isWhitespace(peek()))
+            read();
+    }
+
+    private void skipTo(char end) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c >= 0 && c != end);
+    }
+
+    // Skips a comment or a doctype.
+    private void skipDeclaration() throws IOException {
+        if (peek() != '-') {
+            skipTo('>');
+            return;
+        }
+        read();
+        if (peek() != '-') {
+            skipTo('>');
+            return;
+        }
+        read();
+        int dashes = 0;
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '>' && dashes >= 2)
+                return;
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    // Skips to after the closing tag of the element with the given name.
+    private void skipContent(String tagName) throws IOException {
+        int c;
+        while ((c = read()) >= 0) {
+            if (c != '<' || peek() != '/')
+                continue;
+            read();
+            int i = 0;
+            while (i < tagName.length() && peek() >= 0 && Character.toLowerCase((char) peek()) == tagName.charAt(i)) {
+                read();
+                i++;
+            }
+            if (i == tagName.length() && !Character.isLetterOrDigit(peek())) {
+                skipTo('>');
+                return;
+            }
+        }
+    }
+
+    // Reads the name of the entity after &, up to the ; if any.
+    private String peekEntity() throws IOException {
+        name.setLength(0);
+        int c;
+        while (name.length() < MAX_ENTITY && ((c = peek()) == '#' || Character.isLetterOrDigit(c))) {
+            read();
+            name.append((char) c);
+        }
+        if (peek() == ';') {
+            read();
+            name.append(';');
+        }
+        return name.toString();
+    }
+
+    // The text of the entity with the given name (as returned by peekEntity).
+    private static String parseEntity(String entity) {
+        if (entity.endsWith(";")) {
+            int codePoint = decodeEntity(entity.substring(0, entity.length() - 1));
+            if (codePoint > 0)
+                return new String(Character.toChars(codePoint));
+        }
+        return "&" + entity;
+    }
+
+    // Code point of the entity with the given name, -1 if not known.
+    private static int decodeEntity(String entity) {
+        if (entity.startsWith("#")) {
+            try {
+                int codePoint = entity.startsWith("#x") || entity.startsWith("#X")
+                        ? Integer.parseInt(entity.substring(2), 16)
+                        : Integer.parseInt(entity.substring(1));
+                return codePoint > 0 && Character.isValidCodePoint(codePoint) ? codePoint : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        switch (entity) {
+            case "amp":
+                return '&';
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            case "nbsp":
+                return 0xa0;
+            default:
+                return -1;
+        }
+    }
+
+    private static String decodeEntities(CharSequence value) {
+        StringBuilder decoded = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i++);
+            if (c != '&') {
+                decoded.append(c);
+                continue;
+            }
+            int end = i;
+            while (end < value.length() && end - i < MAX_ENTITY
+                    && (value.charAt(end) == '#' || Character.isLetterOrDigit(value.charAt(end))))
+                end++;
+            if (end < value.length() && value.charAt(end) == ';')
+                end++;
+            decoded.append(parseEntity(value.subSequence(i, end).toString()));
+            i = end;
+        }
+        return decoded.toString();
+    }
+
+    // Whether the given url has no scheme or a safe one.
+    private static boolean isSafeUrl(String url) {
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            // Control characters are ignored in the scheme by the browsers.
+            if (c < 0x20 || c == 0x7f)
+                return false;
+            if (c == '/' || c == '?' || c == '#')
+                return true;
+            if (c == ':') {
+                String scheme = url.substring(0, i).trim().toLowerCase(Locale.US);
+                return scheme.equals("http") || scheme.equals("https") || scheme.equals("mailto");
+            }
+        }
+        return true;
+    }
+
+    private void appendChar(int c) {
+        if (Character.isWhitespace(c)) {
+            // Whitespace is collapsed like in the browsers.
+            if (lineEnded || lastChar < 0 || lastChar == ' ' || lastChar == '\n')
+                return;
+            appendText(' ');
+            return;
+        }
+        if (lineEnded)
+            startLine();
+        appendText(c);
+    }
+
+    private void appendChars(String s) {
+        for (int i = 0; i < s.length(); i++)
+            appendChar(s.charAt(i));
+    }
+
+    private void appendNewLine() {
+        if (lineEnded)
+            startLine();
+        appendText('\n');
+    }
+
+    // Starts a new line unless at the start of a line.
+    private void startLine() {
+        lineEnded = false;
+        if (lastChar >= 0 && lastChar != '\n')
+            appendText('\n');
+    }
+
+    private void appendText(int c) {
+        lastChar = c;
+        handler.text((char) c);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.markup;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes html with the tags of the markups like the html converter of the library, with the
+ * text escaped.
+ */
+public class HtmlWriter implements MarkupWriter {
+
+    private final Writer out;
+    private final StringBuilder escaped = new StringBuilder();
+
+    public HtmlWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void open(Tag tag, String attributes) throws IOException {
+        out.write('<');
+        out.write(tag.html);
+        if (tag == Tag.LINK) {
+            out.write(" href=\"");
+            write(attributes);
+            out.write('"');
+        }
+        out.write('>');
+    }
+
+    @Override
+    public void close(Tag tag) throws IOException {
+        out.write("</");
+        out.write(tag.html);
+        out.write('>');
+    }
+
+    @Override
+    public void text(String text) throws IOException {
+        write(text);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Appends the given range of the text with the html special characters escaped.
+     */
+    public static void escape(CharSequence text, int start, int end, StringBuilder out) {
+        int runStart = start;
+        for (int i = start; i < end; i++) {
+            String entity;
+            switch (text.charAt(i)) {
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '"':
+                    entity = "&quot;";
+                    break;
+                default:
+                    continue;
+            }
+            out.append(text, runStart, i);
+            out.append(entity);
+            runStart = i + 1;
+        }
+        out.append(text, runStart, end);
+    }
+
+    private void write(String text) throws IOException {
+        escaped.setLength(0);
+        escape(text, 0, text.length(), escaped);
+        out.append(escaped);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.markup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+
+/**
+ * Writes markdown with the delimiters of the markups like the markdown converter of the
+ * library, with the markdown characters in the text escaped.
+ */
+public class MarkdownWriter implements MarkupWriter {
+
+    // Escaped anywhere in the text, the others only at the start of a line.
+    private static final String SPECIAL = "\\*_[]<`";
+    private static final String LINE_START_SPECIAL = "#>";
+
+    private final Writer out;
+    private final StringBuilder escaped = new StringBuilder();
+
+    // Attributes of the open markups, written by the closing delimiters.
+    private final ArrayDeque<String> attributes = new ArrayDeque<>();
+
+    private boolean lineStart = true;
+
+    public MarkdownWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void open(Tag tag, String attributes) throws IOException {
+        this.attributes.push(attributes == null ? "" : attributes);
+        write(tag.markdownOpen, attributes);
+    }
+
+    @Override
+    public void close(Tag tag) throws IOException {
+        write(tag.markdownClose, attributes.pop());
+    }
+
+    @Override
+    public void text(String text) throws IOException {
+        if (text.isEmpty())
+            return;
+        escaped.setLength(0);
+        escape(text, 0, text.length(), lineStart, escaped);
+        out.append(escaped);
+        lineStart = text.charAt(text.length() - 1) == '\n';
+    }
+
+    @Override
+    public void finish() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Appends the given range of the text with the markdown characters escaped.
+     *
+     * @param lineStart whether the range starts a line
+     */
+    public static void escape(CharSequence text, int start, int end, boolean lineStart, StringBuilder out) {
+        int runStart = start;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            boolean atLineStart = i == start ? lineStart : text.charAt(i - 1) == '\n';
+            if (SPECIAL.indexOf(c) < 0 && !(atLineStart && LINE_START_SPECIAL.indexOf(c) >= 0))
+                continue;
+            out.append(text, runStart, i);
+            out.append('\\');
+            runStart = i;
+        }
+        out.append(text, runStart, end);
+    }
+
+    private void write(String markdown, String attributes) throws IOException {
+        if (markdown.isEmpty())
+            return;
+        if (attributes != null)
+            markdown = markdown.replace("%s", attributes.replace(" ", "%20").replace(")", "%29"));
+        out.write(markdown);
+        lineStart = markdown.endsWith("\n");
+    }
+}
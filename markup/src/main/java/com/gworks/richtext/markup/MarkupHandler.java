@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.markup;
+
+/**
+ * Receives the markups and the text of a document as they are parsed. The markups are
+ * properly nested, each open has its close.
+ */
+public interface MarkupHandler {
+
+    /**
+     * Opens a markup at the current end of the text.
+     *
+     * @param attributes attributes of the markup, like the url of a link, null if none
+     */
+    void open(Tag tag, String attributes);
+
+    /**
+     * Closes the innermost open markup, of the given tag.
+     */
+    void close(Tag tag);
+
+    /**
+     * Appends a character to the text.
+     */
+    void text(char c);
+}
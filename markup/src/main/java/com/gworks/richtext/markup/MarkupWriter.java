@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.markup;
+
+import java.io.IOException;
+
+/**
+ * Writes the markup events of a parsed document in a format as they are parsed.
+ */
+public interface MarkupWriter {
+
+    void open(Tag tag, String attributes) throws IOException;
+
+    void close(Tag tag) throws IOException;
+
+    void text(String text) throws IOException;
+
+    /**
+     * Called after the last event.
+     */
+    void finish() throws IOException;
+}
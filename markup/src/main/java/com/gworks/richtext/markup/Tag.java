@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Godwin Lewis
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.gworks.richtext.markup;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * The built in markups, with the same tags as their <code>@MarkupTag</code> in the library.
+ * The markups themselves are Android spans, this is the part of them shared with the plain
+ * Java tools like the command line converter.
+ */
+public enum Tag {
+
+    BOLD("b", "**", "**", false),
+    ITALIC("i", "_", "_", false),
+    UNDERLINE("u", "", "", false),
+    LINK("a", "[", "](%s)", false),
+    H1("h1", "# ", "", true),
+    H2("h2", "## ", "", true),
+    H3("h3", "### ", "", true),
+    H4("h4", "#### ", "", true),
+    PARAGRAPH("p", "", "\n", true),
+    BLOCKQUOTE("blockquote", "> ", "\n", true);
+
+    private static final HashMap<String, Tag> HTML_TAGS = new HashMap<>();
+
+    static {
+        for (Tag tag : values())
+            HTML_TAGS.put(tag.html, tag);
+        HTML_TAGS.put("strong", BOLD);
+        HTML_TAGS.put("em", ITALIC);
+    }
+
+    /**
+     * Name of the html tag.
+     */
+    public final String html;
+
+    /**
+     * Markdown written before the text, <code>%s</code> is replaced by the attributes.
+     */
+    public final String markdownOpen;
+
+    /**
+     * Markdown written after the text, <code>%s</code> is replaced by the attributes.
+     */
+    public final String markdownClose;
+
+    /**
+     * Whether the markup is a block markup, spanning whole lines.
+     */
+    public final boolean block;
+
+    Tag(String html, String markdownOpen, String markdownClose, boolean block) {
+        this.html = html;
+        this.markdownOpen = markdownOpen;
+        this.markdownClose = markdownClose;
+        this.block = block;
+    }
+
+    /**
+     * Returns the heading of the given level from 1 to 4.
+     */
+    public static Tag heading(int level) {
+        return values()[H1.ordinal() + level - 1];
+    }
+
+    /**
+     * Returns the tag of the given html tag name, null if none.
+     */
+    public static Tag forHtml(String name) {
+        return HTML_TAGS.get(name.toLowerCase(Locale.US));
+    }
+}